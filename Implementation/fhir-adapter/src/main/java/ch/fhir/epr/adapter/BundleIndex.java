@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.fhir.epr.adapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Index over the entries of a {@link Bundle} by resource id, identifier value and resource type.
+ * <p>
+ * The index is attached to the bundle and built once. Entries appended to the bundle afterwards
+ * are added on the next lookup, if the entry list was replaced the index is built again.
+ * <p>
+ * Lookups return the first matching entry in bundle order, as the linear scans did before. If a
+ * resource found by id has changed its id since it was indexed, or if no resource is found and any
+ * indexed resource has changed its id, the index is built again. A miss therefore costs a linear
+ * scan of the ids, like the lookups without index.
+ */
+@Slf4j
+final class BundleIndex {
+  private static final String USER_DATA_KEY = BundleIndex.class.getName();
+
+  private final List<BundleEntryComponent> entries;
+  private final List<Resource> resources = new ArrayList<>();
+  private final List<String> indexedIds = new ArrayList<>();
+  private final Map<String, Integer> positionByIdentifier = new HashMap<>();
+  private final Map<Class<?>, Integer> firstPositionByClass = new LinkedHashMap<>();
+  private final Map<String, List<Integer>> positionsById = new HashMap<>();
+  private final TreeMap<String, List<Integer>> positionsByReversedId = new TreeMap<>();
+  private final TreeSet<Integer> idLengths = new TreeSet<>();
+  private BundleEntryComponent lastIndexedEntry;
+
+  private BundleIndex(List<BundleEntryComponent> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Returns the index of the bundle, the index is created or updated if necessary.
+   *
+   * @param bundle {@link Bundle}
+   * @return the {@link BundleIndex}
+   */
+  static BundleIndex of(Bundle bundle) {
+    List<BundleEntryComponent> entries = bundle.getEntry();
+    BundleIndex index = bundle.getUserData(USER_DATA_KEY) instanceof BundleIndex cached ? cached : null;
+    if (index == null || !index.isValidFor(entries)) {
+      index = new BundleIndex(entries);
+      bundle.setUserData(USER_DATA_KEY, index);
+    }
+
+    index.indexNewEntries();
+    return index;
+  }
+
+  /**
+   * Returns the first resource whose identifier value, without the default id prefix, equals the
+   * given identifier.
+   */
+  Resource getResource(String identifier) {
+    Integer position = positionByIdentifier.get(identifier);
+    return position != null ? resources.get(position) : null;
+  }
+
+  /**
+   * Returns the first resource of the given type.
+   */
+  <T> T getResource(Class<T> type) {
+    int first = Integer.MAX_VALUE;
+    for (Entry<Class<?>, Integer> entry : firstPositionByClass.entrySet()) {
+      if (type.isAssignableFrom(entry.getKey())) {
+        first = Math.min(first, entry.getValue());
+      }
+    }
+
+    return first != Integer.MAX_VALUE ? type.cast(resources.get(first)) : null;
+  }
+
+  /**
+   * Returns the first resource of the given type whose id ends with the given id or whose id is the
+   * end of the given id.
+   */
+  <T> T getResource(Class<T> type, String id) {
+    if (id == null) {
+      return null;
+    }
+
+    int position = findPosition(type, id);
+    boolean idChanged = position != Integer.MAX_VALUE ? isIdChanged(position) : isAnyIdChanged();
+    if (idChanged) {
+      log.debug("Id of an indexed resource changed, rebuilding bundle index.");
+      clear();
+      indexNewEntries();
+      position = findPosition(type, id);
+    }
+
+    return position != Integer.MAX_VALUE ? type.cast(resources.get(position)) : null;
+  }
+
+  private boolean isIdChanged(int position) {
+    Resource resource = resources.get(position);
+    return resource != null && !Objects.equals(resource.getId(), indexedIds.get(position));
+  }
+
+  private boolean isAnyIdChanged() {
+    for (int position = 0; position < resources.size(); position++) {
+      if (isIdChanged(position)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String reverse(String value) {
+    return new StringBuilder(value).reverse().toString();
+  }
+
+  private void clear() {
+    resources.clear();
+    indexedIds.clear();
+    positionByIdentifier.clear();
+    firstPositionByClass.clear();
+    positionsById.clear();
+    positionsByReversedId.clear();
+    idLengths.clear();
+    lastIndexedEntry = null;
+  }
+
+  private int findPosition(Class<?> type, String id) {
+    int first = Integer.MAX_VALUE;
+    // resource ids which are the end of the given id
+    for (int length : idLengths.headSet(id.length(), true)) {
+      first = firstOfType(type, positionsById.get(id.substring(id.length() - length)), first);
+    }
+
+    // resource ids ending with the given id
+    String reversedId = reverse(id);
+    for (Entry<String, List<Integer>> entry : positionsByReversedId.tailMap(reversedId, true).entrySet()) {
+      if (!entry.getKey().startsWith(reversedId)) {
+        break;
+      }
+      first = firstOfType(type, entry.getValue(), first);
+    }
+
+    return first;
+  }
+
+  private int firstOfType(Class<?> type, List<Integer> positions, int first) {
+    if (positions == null) {
+      return first;
+    }
+
+    for (int position : positions) {
+      if (position >= first) {
+        break;
+      }
+      if (type.isInstance(resources.get(position))) {
+        return position;
+      }
+    }
+    return first;
+  }
+
+  private void index(Resource resource) {
+    int position = resources.size();
+    resources.add(resource);
+    indexedIds.add(resource != null ? resource.getId() : null);
+    if (resource == null) {
+      return;
+    }
+
+    firstPositionByClass.putIfAbsent(resource.getClass(), position);
+
+    try {
+      String identifier = FhirUtils.getIdentifierValue(resource);
+      if (identifier != null) {
+        positionByIdentifier.putIfAbsent(identifier.replace(FhirConstants.DEFAULT_ID_PREFIX, ""), position);
+      }
+    } catch (Exception e) {
+      log.debug("Identifier of {} could not be indexed: {}", resource.getClass().getSimpleName(), e.toString());
+    }
+
+    String id = resource.getId();
+    if (id != null) {
+      positionsById.computeIfAbsent(id, key -> new ArrayList<>()).add(position);
+      positionsByReversedId.computeIfAbsent(reverse(id), key -> new ArrayList<>()).add(position);
+      idLengths.add(id.length());
+    }
+  }
+
+  private void indexNewEntries() {
+    for (int i = resources.size(); i < entries.size(); i++) {
+      lastIndexedEntry = entries.get(i);
+      index(lastIndexedEntry.getResource());
+    }
+  }
+
+  /**
+   * Entries are only expected to be appended to a bundle. Any other change of the entry list
+   * requires a new index.
+   */
+  private boolean isValidFor(List<BundleEntryComponent> currentEntries) {
+    int indexed = resources.size();
+    return entries == currentEntries
+        && indexed <= currentEntries.size()
+        && (indexed == 0 || (currentEntries.get(indexed - 1) == lastIndexedEntry
+            && lastIndexedEntry.getResource() == resources.get(indexed - 1)));
+  }
+}
@@ -30,14 +30,18 @@ import ch.fhir.epr.adapter.data.dto.LaboratorySerologyDTO;
 import ch.fhir.epr.adapter.data.dto.MedicalProblemDTO;
 import ch.fhir.epr.adapter.data.dto.PastIllnessDTO;
 import ch.fhir.epr.adapter.data.dto.VaccinationDTO;
+import ch.fhir.epr.adapter.data.dto.ValueDTO;
 import ch.fhir.epr.adapter.exception.TechnicalException;
 import ch.fhir.epr.adapter.exception.ValidationException;
 import java.io.File;
 import java.io.FileReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
@@ -83,8 +87,13 @@ public class FhirAdapter implements FhirAdapterIfc {
 
   @Override
   public String convertBundleToJson(Bundle createdBundle) {
+    return convertBundleToJson(createdBundle, true);
+  }
+
+  @Override
+  public String convertBundleToJson(Bundle createdBundle, boolean prettyPrint) {
     return getFhirContext().newJsonParser()
-        .setPrettyPrint(true).encodeResourceToString(createdBundle);
+        .setPrettyPrint(prettyPrint).encodeResourceToString(createdBundle);
   }
 
   @Override
@@ -143,14 +152,18 @@ public class FhirAdapter implements FhirAdapterIfc {
     SectionType sectionType = strategy.getSectionType();
     Class<?> expectedResourceType = strategy.getResourceClass();
     try {
+      BundleMetadata metadata = null;
       for (DomainResource resource : getSectionResources(bundle, sectionType)) {
         // BasicImmunization (Condition) and Vaccination (Immunization) share the same IMMUNIZATION section.
         // Filter by FHIR resource type to prevent ClassCastExceptions when parsing mixed resource types.
         if (expectedResourceType != null && !expectedResourceType.isInstance(resource)) {
           continue;
         }
+        if (metadata == null) {
+          metadata = getBundleMetadata(bundle);
+        }
         try {
-          T dto = parseFhirResource(strategy, bundle, resource);
+          T dto = parseFhirResource(strategy, bundle, resource, metadata);
           dto.validate(true);
           if (dto != null) {
             dtos.add(dto);
@@ -168,6 +181,68 @@ public class FhirAdapter implements FhirAdapterIfc {
     return dtos;
   }
 
+  @Override
+  public Map<Class<? extends BaseDTO>, List<BaseDTO>> getDTOs(List<Class<? extends BaseDTO>> classes,
+      Bundle bundle) {
+    Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass = new LinkedHashMap<>();
+    List<FhirResourceStrategy<? extends BaseDTO, ? extends DomainResource>> strategies = new ArrayList<>();
+    for (Class<? extends BaseDTO> clazz : classes) {
+      strategies.add(resourceStrategyRegistry.getStrategy(clazz));
+      dtosByClass.put(clazz, new ArrayList<>());
+    }
+
+    if (bundle == null) {
+      log.warn("bundle is null.");
+      return dtosByClass;
+    }
+
+    Composition composition = FhirUtils.getResource(Composition.class, bundle);
+    if (composition == null) {
+      log.warn("Bundle {} does not contain a composition.", FhirUtils.getUuidFromBundle(bundle));
+      return new LinkedHashMap<>();
+    }
+
+    // the bundle metadata is the same for all entries, it is computed once the first entry is parsed
+    BundleMetadata metadata = null;
+    for (SectionComponent sectionComponent : composition.getSection()) {
+      for (FhirResourceStrategy<? extends BaseDTO, ? extends DomainResource> strategy : strategies) {
+        List<BaseDTO> dtos = dtosByClass.get(strategy.getDtoClass());
+        if (dtos == null) {
+          continue;
+        }
+
+        try {
+          if (!isSection(sectionComponent, strategy.getSectionType())) {
+            continue;
+          }
+          for (Reference reference : sectionComponent.getEntry()) {
+            DomainResource resource = (DomainResource) reference.getResource();
+            if (resource == null || !strategy.getResourceClass().isInstance(resource)) {
+              continue;
+            }
+            if (metadata == null) {
+              metadata = getBundleMetadata(bundle);
+            }
+            try {
+              BaseDTO dto = parseFhirResource(strategy, bundle, resource, metadata);
+              dto.validate(true);
+              dtos.add(dto);
+            } catch (ValidationException ex) {
+              log.warn("Parsing failed for " + strategy.getDtoClass().getSimpleName() + " on bundle "
+                  + FhirUtils.getUuidFromBundle(bundle) + " with the following error message: {}", ex.getMessage());
+            }
+          }
+        } catch (Exception e) {
+          // same as a failing getDTOs(Class, Bundle), the other classes are still extracted
+          log.warn("Exception: {}", e.getMessage());
+          dtosByClass.remove(strategy.getDtoClass());
+        }
+      }
+    }
+
+    return dtosByClass;
+  }
+
   @Override
   public List<String> getLocalEntities() {
     List<String> localJsonFileContent = new ArrayList<>();
@@ -311,9 +386,7 @@ public class FhirAdapter implements FhirAdapterIfc {
     }
     Composition composition = FhirUtils.getResource(Composition.class, bundle);
     for (SectionComponent sectionComponent : composition.getSection()) {
-      boolean isSameId = sectionType.getId().equals(sectionComponent.getId());
-      boolean isSameCode = sectionType.getCode().equals(sectionComponent.getCode().getCodingFirstRep().getCode());
-      if (isSameId || isSameCode) {
+      if (isSection(sectionComponent, sectionType)) {
         for (Reference reference : sectionComponent.getEntry()) {
           if (reference.getResource() != null) {
             resources.add((DomainResource) reference.getResource());
@@ -376,6 +449,12 @@ public class FhirAdapter implements FhirAdapterIfc {
     return dto;
   }
 
+  private BundleMetadata getBundleMetadata(Bundle bundle) {
+    AuthorDTO author = FhirUtils.getAuthor(bundle);
+    return new BundleMetadata(isBundleValidated(bundle, author),
+        fhirConverter.convertToLocalDateTime(bundle.getTimestamp()), author, FhirUtils.getConfidentiality(bundle));
+  }
+
   private FhirContext getFhirContext() {
     if (fhirContext == null) {
       fhirContext = FhirContext.forR4();
@@ -416,7 +495,7 @@ public class FhirAdapter implements FhirAdapterIfc {
     return dto;
   }
 
-  private boolean isBundleValidated(Bundle bundle) {
+  private boolean isBundleValidated(Bundle bundle, AuthorDTO author) {
     Composition composition = FhirUtils.getResource(Composition.class, bundle);
     boolean validated = true;
     Patient patient = FhirUtils.getPatient(bundle, composition.getAuthorFirstRep().getReference());
@@ -429,7 +508,6 @@ public class FhirAdapter implements FhirAdapterIfc {
       validated = false;
     }
 
-    AuthorDTO author = FhirUtils.getAuthor(bundle);
     if (validated && isMeineImpfungenAuthor(author)) {
       validated = false;
     }
@@ -454,6 +532,15 @@ public class FhirAdapter implements FhirAdapterIfc {
     return containsFirstName && containsLastName;
   }
 
+  private boolean isSection(SectionComponent sectionComponent, SectionType sectionType) {
+    if (sectionType == null) {
+      return false;
+    }
+    boolean isSameId = sectionType.getId().equals(sectionComponent.getId());
+    boolean isSameCode = sectionType.getCode().equals(sectionComponent.getCode().getCodingFirstRep().getCode());
+    return isSameId || isSameCode;
+  }
+
   private String jsonFromFile(String filename) {
     try {
       return new String(Files.readAllBytes(Path.of(filename)));
@@ -464,12 +551,12 @@ public class FhirAdapter implements FhirAdapterIfc {
   }
 
   private <T extends BaseDTO, R extends DomainResource> T parseFhirResource(FhirResourceStrategy<T, R> strategy,
-      Bundle bundle, DomainResource resource) {
+      Bundle bundle, DomainResource resource, BundleMetadata metadata) {
     T result = strategy.toDto(this, bundle, strategy.getResourceClass().cast(resource));
-    result.setValidated(isBundleValidated(bundle));
-    result.setCreatedAt(fhirConverter.convertToLocalDateTime(bundle.getTimestamp()));
-    result.setAuthor(FhirUtils.getAuthor(bundle));
-    result.setConfidentiality(FhirUtils.getConfidentiality(bundle));
+    result.setValidated(metadata.validated());
+    result.setCreatedAt(metadata.createdAt());
+    result.setAuthor(metadata.copyOfAuthor());
+    result.setConfidentiality(metadata.copyOfConfidentiality());
     return result;
   }
 
@@ -488,4 +575,23 @@ public class FhirAdapter implements FhirAdapterIfc {
     }
   }
 
+  /**
+   * Bundle level values shared by all entries of a bundle. Author and confidentiality are handed
+   * out as copies, so the entries do not share mutable instances.
+   */
+  private record BundleMetadata(boolean validated, LocalDateTime createdAt, AuthorDTO author,
+      ValueDTO confidentiality) {
+
+    AuthorDTO copyOfAuthor() {
+      return author == null ? null
+          : new AuthorDTO(author.getUser(), author.getOrganisation(), author.getRole(), author.getPurpose(),
+              author.getGln(), author.getPrincipalId(), author.getPrincipalName());
+    }
+
+    ValueDTO copyOfConfidentiality() {
+      return confidentiality == null ? null
+          : new ValueDTO(confidentiality.getCode(), confidentiality.getName(), confidentiality.getSystem(),
+              confidentiality.isAllowDisplay());
+    }
+  }
 }
@@ -22,6 +22,7 @@ import ch.fhir.epr.adapter.data.PatientIdentifier;
 import ch.fhir.epr.adapter.data.dto.BaseDTO;
 import ch.fhir.epr.adapter.data.dto.VaccinationRecordDTO;
 import java.util.List;
+import java.util.Map;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Identifier;
 
@@ -39,6 +40,15 @@ public interface FhirAdapterIfc {
    */
   String convertBundleToJson(Bundle bundle);
 
+  /**
+   * Converts a {@link Bundle} into a JSON string using the fhir library.
+   *
+   * @param bundle {@link Bundle}
+   * @param prettyPrint false to encode the bundle without whitespace, e.g. for documents to be written
+   * @return json formatted string of the bundle
+   */
+  String convertBundleToJson(Bundle bundle, boolean prettyPrint);
+
   /**
    * Create a bundle based on a create operation using the HAPI/FHIR format. The bundle will be a
    * vaccination record, if <code>dto</code> is a {@link VaccinationRecordDTO}, otherwise it results
@@ -93,6 +103,17 @@ public interface FhirAdapterIfc {
    */
   <T extends BaseDTO> List<T> getDTOs(Class<T> clazz, Bundle bundle);
 
+  /**
+   * Convert a bundle to DTOs of several classes while walking the sections of the bundle only once.
+   * A class whose entries cannot be converted is left out of the result, the other classes are still
+   * returned.
+   *
+   * @param classes the requested object classes
+   * @param bundle {@link Bundle}
+   * @return the DTOs by class in the order of the requested classes
+   */
+  Map<Class<? extends BaseDTO>, List<BaseDTO>> getDTOs(List<Class<? extends BaseDTO>> classes, Bundle bundle);
+
   /**
    * Gets the local stored jsons (vaccinations, allergies, pastillnesses).
    *
@@ -37,14 +37,12 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.List;
+import java.util.NoSuchElementException;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.builder.ToStringBuilder;
-import org.apache.commons.lang3.builder.ToStringStyle;
 import org.hl7.fhir.r4.model.AllergyIntolerance;
 import org.hl7.fhir.r4.model.Annotation;
 import org.hl7.fhir.r4.model.Bundle;
-import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Composition;
@@ -275,9 +273,11 @@ public final class FhirUtils {
   }
 
   static Resource getReference(Bundle bundle, Class<?> clazz) {
-    return bundle.getEntry().stream()
-        .filter(entry -> clazz.isAssignableFrom(entry.getResource().getClass()))
-        .findFirst().get().getResource();
+    Object resource = BundleIndex.of(bundle).getResource(clazz);
+    if (resource == null) {
+      throw new NoSuchElementException(clazz.getSimpleName() + " not found");
+    }
+    return (Resource) resource;
   }
 
   static String getReference(DomainResource resource, ReferenceType type) {
@@ -312,19 +312,10 @@ public final class FhirUtils {
       return null;
     }
     try {
-      for (BundleEntryComponent entry : bundle.getEntry()) {
-        Resource resource = entry.getResource();
-
-        String bundleIdentifier = getIdentifierValue(resource);
-        if (bundleIdentifier != null) {
-          bundleIdentifier = bundleIdentifier.replace(FhirConstants.DEFAULT_ID_PREFIX, "");
-        }
-
-        if (identifier.equals(bundleIdentifier)) {
-          log.debug("getResource: id={} found {}", identifier,
-              ToStringBuilder.reflectionToString(resource, ToStringStyle.JSON_STYLE));
-          return resource;
-        }
+      Resource resource = BundleIndex.of(bundle).getResource(identifier);
+      if (resource != null) {
+        log.debug("getResource: id={} found {}", identifier, resource.getId());
+        return resource;
       }
       log.warn("getResource: identifier={} not found", identifier);
       return null;
@@ -340,12 +331,10 @@ public final class FhirUtils {
       return null;
     }
     try {
-      for (BundleEntryComponent entry : bundle.getEntry()) {
-        if (type.isInstance(entry.getResource())) {
-          T resource = type.cast(entry.getResource());
-          log.debug("Resource:{} found {}", type, resource);
-          return resource;
-        }
+      T resource = BundleIndex.of(bundle).getResource(type);
+      if (resource != null) {
+        log.debug("Resource:{} found {}", type, resource);
+        return resource;
       }
       log.debug("Resource:{} not found", type);
       return null;
@@ -361,16 +350,11 @@ public final class FhirUtils {
       return null;
     }
     try {
-      for (BundleEntryComponent entry : bundle.getEntry()) {
-        if (type.isInstance(entry.getResource())) {
-          Resource resource = Resource.class.cast(entry.getResource());
-          if (resource.getId() != null && //
-              (resource.getId().endsWith(id) || id.endsWith(resource.getId()))) { // FIXME
-            log.debug("Resource:{} id={} found {}", type, id,
-                ToStringBuilder.reflectionToString(resource, ToStringStyle.JSON_STYLE));
-            return type.cast(entry.getResource());
-          }
-        }
+      // matches if one of the ids ends with the other one
+      T resource = BundleIndex.of(bundle).getResource(type, id);
+      if (resource != null) {
+        log.debug("Resource:{} id={} found", type, id);
+        return resource;
       }
       log.debug("Resource:{} id={} not found", type, id);
       return null;
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.fhir.epr.adapter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Composition;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Immunization;
+import org.hl7.fhir.r4.model.Organization;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Practitioner;
+import org.hl7.fhir.r4.model.PractitionerRole;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.Test;
+
+class BundleIndexTest {
+
+  @Test
+  void getResource_byId_matchesIfOneIdEndsWithTheOther() {
+    Practitioner practitioner = new Practitioner();
+    practitioner.setId("Practitioner/TC-HCP1-C1");
+    Bundle bundle = createBundle(practitioner);
+
+    assertThat(FhirUtils.getPractitioner(bundle, "Practitioner/TC-HCP1-C1")).isSameAs(practitioner);
+    assertThat(FhirUtils.getPractitioner(bundle, "TC-HCP1-C1")).isSameAs(practitioner);
+    assertThat(FhirUtils.getPractitioner(bundle, "http://host/fhir/Practitioner/TC-HCP1-C1")).isSameAs(practitioner);
+    assertThat(FhirUtils.getPractitioner(bundle, "Practitioner/TC-HCP2-C1")).isNull();
+    assertThat(FhirUtils.getPractitioner(bundle, null)).isNull();
+    assertThat(FhirUtils.getPatient(bundle, "Practitioner/TC-HCP1-C1")).isNull();
+  }
+
+  @Test
+  void getResource_severalMatches_firstEntryIsReturned() {
+    Practitioner longId = new Practitioner();
+    longId.setId("Practitioner/1");
+    Practitioner shortId = new Practitioner();
+    shortId.setId("1");
+    Patient patient = new Patient();
+    patient.setId("Patient/1");
+    Bundle bundle = createBundle(patient, longId, shortId);
+
+    assertThat(FhirUtils.getPractitioner(bundle, "1")).isSameAs(longId);
+    assertThat(FhirUtils.getPractitioner(bundle, "Practitioner/1")).isSameAs(longId);
+    assertThat(FhirUtils.getResource(Resource.class, bundle, "1")).isSameAs(patient);
+    assertThat(FhirUtils.getResource(Practitioner.class, bundle)).isSameAs(longId);
+  }
+
+  @Test
+  void getResource_byIdentifier_defaultPrefixIsIgnored() {
+    Immunization immunization = new Immunization();
+    immunization.addIdentifier(new Identifier().setValue(FhirConstants.DEFAULT_ID_PREFIX + "1234"));
+    Bundle bundle = createBundle(new Practitioner(), immunization);
+
+    assertThat(FhirUtils.getResource(bundle, "1234")).isSameAs(immunization);
+    assertThat(FhirUtils.getResource(bundle, "5678")).isNull();
+  }
+
+  @Test
+  void getResource_entriesAppendedOrReplaced_indexIsUpdated() {
+    Bundle bundle = createBundle(new Patient());
+    assertThat(FhirUtils.getResource(Organization.class, bundle)).isNull();
+
+    Organization organization = new Organization();
+    organization.setId("Organization/1");
+    bundle.addEntry().setResource(organization);
+    assertThat(FhirUtils.getOrganization(bundle, "Organization/1")).isSameAs(organization);
+
+    Organization replacement = new Organization();
+    replacement.setId("Organization/2");
+    bundle.setEntry(new ArrayList<>(List.of(new BundleEntryComponent().setResource(replacement))));
+    assertThat(FhirUtils.getOrganization(bundle, "Organization/1")).isNull();
+    assertThat(FhirUtils.getResource(Organization.class, bundle)).isSameAs(replacement);
+  }
+
+  @Test
+  void getResource_idChangedAfterIndexing_oldIdIsNotFound() {
+    Practitioner practitioner = new Practitioner();
+    practitioner.setId("Practitioner/TC-HCP1-C1");
+    Bundle bundle = createBundle(practitioner);
+    assertThat(FhirUtils.getPractitioner(bundle, "Practitioner/TC-HCP1-C1")).isSameAs(practitioner);
+
+    practitioner.setId("Practitioner-7601000000000");
+
+    assertThat(FhirUtils.getPractitioner(bundle, "Practitioner/TC-HCP1-C1")).isNull();
+  }
+
+  @Test
+  void getResource_idChangedAfterIndexing_newIdIsFound() {
+    Practitioner practitioner = new Practitioner();
+    practitioner.setId("Practitioner/TC-HCP1-C1");
+    Bundle bundle = createBundle(practitioner);
+    assertThat(FhirUtils.getPractitioner(bundle, "Practitioner/TC-HCP1-C1")).isSameAs(practitioner);
+
+    practitioner.setId("Practitioner-7601000000000");
+
+    assertThat(FhirUtils.getPractitioner(bundle, "Practitioner-7601000000000")).isSameAs(practitioner);
+  }
+
+  @Test
+  void getResource_largeBundle_allResourcesAreFoundInReasonableTime() {
+    int size = 1000;
+    List<Resource> resources = new ArrayList<>();
+    Composition composition = new Composition();
+    composition.setId("Composition/1");
+    resources.add(composition);
+    for (int i = 0; i < size; i++) {
+      Practitioner practitioner = new Practitioner();
+      practitioner.setId("Practitioner/" + i);
+      PractitionerRole role = new PractitionerRole();
+      role.setId("PractitionerRole/" + i);
+      role.setPractitioner(new Reference("Practitioner/" + i));
+      Immunization immunization = new Immunization();
+      immunization.setId("Immunization/" + i);
+      immunization.addIdentifier(new Identifier().setValue(FhirConstants.DEFAULT_ID_PREFIX + "immunization-" + i));
+      immunization.addPerformer().setActor(new Reference("PractitionerRole/" + i));
+      resources.addAll(List.of(practitioner, role, immunization));
+    }
+    Bundle bundle = createBundle(resources.toArray(new Resource[0]));
+
+    // the lookups done while parsing the immunizations of a vaccination record
+    assertTimeout(Duration.ofSeconds(5), () -> {
+      for (int i = 0; i < size; i++) {
+        Immunization immunization = (Immunization) FhirUtils.getResource(bundle, "immunization-" + i);
+        PractitionerRole role =
+            FhirUtils.getPractitionerRole(bundle, immunization.getPerformerFirstRep().getActor().getReference());
+        Practitioner practitioner = FhirUtils.getPractitioner(bundle, role.getPractitioner().getReference());
+
+        assertThat(FhirUtils.getResource(Composition.class, bundle)).isSameAs(composition);
+        assertThat(immunization.getId()).isEqualTo("Immunization/" + i);
+        assertThat(role.getId()).isEqualTo("PractitionerRole/" + i);
+        assertThat(practitioner.getId()).isEqualTo("Practitioner/" + i);
+      }
+    });
+  }
+
+  private Bundle createBundle(Resource... resources) {
+    Bundle bundle = new Bundle();
+    for (Resource resource : resources) {
+      bundle.addEntry().setResource(resource);
+    }
+    return bundle;
+  }
+}
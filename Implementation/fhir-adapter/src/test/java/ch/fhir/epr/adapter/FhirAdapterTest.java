@@ -46,6 +46,7 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import jdk.jfr.Description;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.AllergyIntolerance;
@@ -193,6 +194,36 @@ class FhirAdapterTest {
     assertEquals(0, fhirAdapter.getDTOs(VaccinationDTO.class, bundle).size());
   }
 
+  @Test
+  void getDTOs_severalClasses_sameResultAsSingleClassCalls() {
+    List<Class<? extends BaseDTO>> classes = List.of(VaccinationDTO.class, AllergyDTO.class, MedicalProblemDTO.class,
+        BasicImmunizationDTO.class, PastIllnessDTO.class, LaboratorySerologyDTO.class);
+    for (String filename : List.of("Bundle-A-D1-P-C1.json", "Bundle-B-D2-HCP1-C1.json", "Bundle-B-D3-HCP1-C1.json",
+        "Bundle-B-D5-HCP1-C1.json", "Bundle-D-D3-HCP1-C1.json")) {
+      Bundle bundle = fhirAdapter.unmarshallFromFile(CONFIG_TESTFILES_PATH + "/" + filename);
+
+      Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass = fhirAdapter.getDTOs(classes, bundle);
+
+      assertThat(dtosByClass.keySet()).as(filename).containsExactlyElementsOf(classes);
+      for (Class<? extends BaseDTO> clazz : classes) {
+        assertThat(dtosByClass.get(clazz)).as(filename + " " + clazz.getSimpleName())
+            .usingRecursiveFieldByFieldElementComparator()
+            .containsExactlyElementsOf(fhirAdapter.getDTOs(clazz, bundle));
+      }
+    }
+  }
+
+  @Test
+  void getDTOs_severalClasses_entriesDoNotShareAuthor() {
+    Bundle bundle = fhirAdapter.unmarshallFromFile(CONFIG_TESTFILES_PATH + "/Bundle-D-D3-HCP1-C1.json");
+
+    List<BaseDTO> dtos = fhirAdapter.getDTOs(List.of(VaccinationDTO.class, PastIllnessDTO.class), bundle)
+        .values().stream().flatMap(List::stream).toList();
+
+    assertThat(dtos).hasSizeGreaterThan(1);
+    assertThat(dtos.get(0).getAuthor()).isEqualTo(dtos.get(1).getAuthor()).isNotSameAs(dtos.get(1).getAuthor());
+  }
+
   // test cases are defined in config/fhir.yml (5) and config/testfiles/json (1)
   @Test
   void getLocalEntities_noInput_returnAllTestCasesAndTestfilesExceptEmptyBundle() {
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.FileInputStream;
+import java.security.KeyStore;
+import java.util.Collections;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.cxf.BusFactory;
+import org.apache.cxf.configuration.jsse.TLSClientParameters;
+import org.apache.cxf.transport.http.HTTPConduitConfigurer;
+import org.apache.cxf.transports.http.configuration.ConnectionType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Transport of the calls to the EPD. Each HTTP conduit CXF creates for a husky request keeps its
+ * connections alive and uses one SSLContext, built once from the <code>javax.net.ssl</code> system
+ * properties. As the conduits share the client session cache of this context, TLS sessions are
+ * resumed instead of negotiated again, even if a connection was closed meanwhile.
+ * <p>
+ * The connections themselves are pooled by the HTTP client of the conduit, which does not expose its
+ * pool. The metrics <code>epd.transport.conduits.created</code> and
+ * <code>epd.transport.tls.sessions</code> show how often conduits are created and how many TLS
+ * sessions can be resumed.
+ */
+@Slf4j
+@Configuration
+public class EpdTransportConfig {
+  @Value("${epdbackend.transport.keepAlive:true}")
+  private boolean isKeepAlive;
+  @Value("${epdbackend.transport.sharedSslContext:true}")
+  private boolean isSslContextShared;
+
+  @Bean
+  public HTTPConduitConfigurer epdConduitConfigurer(MeterRegistry meterRegistry) throws Exception {
+    SSLContext sslContext = isSslContextShared ? createSSLContext() : null;
+    Counter createdConduits = Counter.builder("epd.transport.conduits.created")
+        .description("HTTP conduits created for calls to the EPD").register(meterRegistry);
+    if (sslContext != null) {
+      Gauge.builder("epd.transport.tls.sessions", sslContext,
+          context -> Collections.list(context.getClientSessionContext().getIds()).size())
+          .description("TLS sessions to the EPD which can be resumed").register(meterRegistry);
+    }
+
+    HTTPConduitConfigurer configurer = (name, address, conduit) -> {
+      createdConduits.increment();
+      conduit.getClient().setConnection(isKeepAlive ? ConnectionType.KEEP_ALIVE : ConnectionType.CLOSE);
+      if (sslContext != null && address != null && address.startsWith("https")) {
+        TLSClientParameters tlsParameters = conduit.getTlsClientParameters() != null
+            ? conduit.getTlsClientParameters()
+            : new TLSClientParameters();
+        tlsParameters.setSslContext(sslContext);
+        conduit.setTlsClientParameters(tlsParameters);
+      }
+    };
+    BusFactory.getDefaultBus().setExtension(configurer, HTTPConduitConfigurer.class);
+    log.info("EPD connections are kept alive: {}, TLS sessions are shared: {}", isKeepAlive, sslContext != null);
+    return configurer;
+  }
+
+  /**
+   * Creates the SSLContext of the EPD calls from the key and trust stores of the
+   * <code>javax.net.ssl</code> system properties, the same stores husky passes to each destination.
+   */
+  private static SSLContext createSSLContext() throws Exception {
+    String keyStorePath = System.getProperty("javax.net.ssl.keyStore");
+    if (keyStorePath == null) {
+      return SSLContext.getDefault();
+    }
+
+    char[] keyStorePassword = System.getProperty("javax.net.ssl.keyStorePassword", "").toCharArray();
+    KeyStore keyStore = KeyStore.getInstance(System.getProperty("javax.net.ssl.keyStoreType", "PKCS12"));
+    try (FileInputStream fis = new FileInputStream(keyStorePath)) {
+      keyStore.load(fis, keyStorePassword);
+    }
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(keyStore, keyStorePassword);
+
+    KeyStore trustStore = null;
+    String trustStorePath = System.getProperty("javax.net.ssl.trustStore");
+    if (trustStorePath != null) {
+      trustStore = KeyStore.getInstance(System.getProperty("javax.net.ssl.trustStoreType", "JKS"));
+      try (FileInputStream fis = new FileInputStream(trustStorePath)) {
+        trustStore.load(fis, System.getProperty("javax.net.ssl.trustStorePassword", "").toCharArray());
+      }
+    }
+    TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    tmf.init(trustStore);
+
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+    return sslContext;
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Executors used to call the EPD concurrently. Their utilization is exposed by the
+ * <code>executor.*</code> metrics, tagged with the name of the executor.
+ */
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+  public static final String EPD_EXECUTOR = "epdExecutor";
+  public static final String PREFETCH_EXECUTOR = "prefetchExecutor";
+  public static final String REFRESH_EXECUTOR = "refreshExecutor";
+  public static final String RETRIEVE_EXECUTOR = "retrieveExecutor";
+
+  /**
+   * Maximal number of concurrent calls to the EPD of this instance.
+   */
+  @Value("${epdbackend.executor.maxConcurrentRequests:32}")
+  private int maxConcurrentRequests;
+
+  /**
+   * Maximal number of concurrent retrieve requests of this instance, a retrieve of many documents
+   * is split into several requests.
+   */
+  @Value("${epdbackend.executor.maxConcurrentRetrieves:16}")
+  private int maxConcurrentRetrieves;
+
+  /**
+   * Maximal number of concurrently running and of waiting prefetches of this instance.
+   */
+  @Value("${epdbackend.executor.maxConcurrentPrefetches:8}")
+  private int maxConcurrentPrefetches;
+  @Value("${epdbackend.executor.maxQueuedPrefetches:100}")
+  private int maxQueuedPrefetches;
+
+  /**
+   * Maximal number of concurrently running and of waiting refreshes of stale cache entries of this
+   * instance.
+   */
+  @Value("${epdbackend.executor.maxConcurrentRefreshes:8}")
+  private int maxConcurrentRefreshes;
+  @Value("${epdbackend.executor.maxQueuedRefreshes:100}")
+  private int maxQueuedRefreshes;
+
+  /**
+   * Executor running the calls to the EPD on virtual threads. The number of concurrently running
+   * calls is bounded, further calls are queued.
+   */
+  @Bean(name = EPD_EXECUTOR, destroyMethod = "shutdownNow")
+  public ExecutorService epdExecutor(MeterRegistry meterRegistry) {
+    log.info("EPD calls are limited to {} concurrent requests.", maxConcurrentRequests);
+    return ExecutorServiceMetrics.monitor(meterRegistry,
+        Executors.newFixedThreadPool(maxConcurrentRequests, Thread.ofVirtual().name("epd-", 0).factory()),
+        EPD_EXECUTOR);
+  }
+
+  /**
+   * Executor running the parts of a split retrieve on virtual threads. It is separate from the
+   * {@link #epdExecutor(MeterRegistry)}, as the retrieves are started by calls already running on that executor.
+   */
+  @Bean(name = RETRIEVE_EXECUTOR, destroyMethod = "shutdownNow")
+  public ExecutorService retrieveExecutor(MeterRegistry meterRegistry) {
+    return ExecutorServiceMetrics.monitor(meterRegistry,
+        Executors.newFixedThreadPool(maxConcurrentRetrieves, Thread.ofVirtual().name("retrieve-", 0).factory()),
+        RETRIEVE_EXECUTOR);
+  }
+
+  /**
+   * Executor warming the cache for newly launched sessions. The prefetches run on virtual threads
+   * and are best effort, further prefetches are rejected once the queue is full.
+   */
+  @Bean(name = PREFETCH_EXECUTOR, destroyMethod = "shutdownNow")
+  public ExecutorService prefetchExecutor(MeterRegistry meterRegistry) {
+    return ExecutorServiceMetrics.monitor(meterRegistry,
+        new ThreadPoolExecutor(maxConcurrentPrefetches, maxConcurrentPrefetches, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(maxQueuedPrefetches), Thread.ofVirtual().name("prefetch-", 0).factory()),
+        PREFETCH_EXECUTOR);
+  }
+
+  /**
+   * Executor refreshing stale cache entries in the background. Like the prefetches, the refreshes
+   * are best effort and further refreshes are rejected once the queue is full.
+   */
+  @Bean(name = REFRESH_EXECUTOR, destroyMethod = "shutdownNow")
+  public ExecutorService refreshExecutor(MeterRegistry meterRegistry) {
+    return ExecutorServiceMetrics.monitor(meterRegistry,
+        new ThreadPoolExecutor(maxConcurrentRefreshes, maxConcurrentRefreshes, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(maxQueuedRefreshes), Thread.ofVirtual().name("refresh-", 0).factory()),
+        REFRESH_EXECUTOR);
+  }
+}
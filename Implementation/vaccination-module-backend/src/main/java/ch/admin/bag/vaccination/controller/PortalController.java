@@ -24,6 +24,7 @@ import static ch.admin.bag.vaccination.service.husky.HuskyUtils.HCP;
 import ch.admin.bag.vaccination.config.ProfileConfig;
 import ch.admin.bag.vaccination.data.request.SignatureDataRequest;
 import ch.admin.bag.vaccination.utils.HttpSessionUtils;
+import ch.admin.bag.vaccination.service.PrefetchService;
 import ch.admin.bag.vaccination.service.SignatureService;
 import ch.admin.bag.vaccination.service.cache.Cache;
 import ch.admin.bag.vaccination.service.cache.CacheIdentifierKey;
@@ -76,6 +77,9 @@ public class PortalController {
   @Autowired
   private Cache cache;
 
+  @Autowired
+  private PrefetchService prefetchService;
+
   // A query string does start with the first parameter (no ?)
   // and has the sig parameter last, e.g. idp=test&sig=abc
   @PostMapping(ENDPOINT_VALIDATE)
@@ -131,6 +135,8 @@ public class PortalController {
       HttpSessionUtils.setParameterInSession(HttpSessionUtils.IDP, paramsList.get(IDP));
       HttpSessionUtils.setParameterInSession(HttpSessionUtils.PURPOSE, paramsList.get(PURPOSE));
       HttpSessionUtils.setParameterInSession(HttpSessionUtils.FRONTEND_HOST, frontendHost);
+      prefetchService.prefetchPatient(request.getSession(), paramsList.get(LOCAL_ASSIGNING_AUTHORITY_OID),
+          paramsList.get(LOCAL_PATIENT_ID));
 
       if (profileConfig.isLocalMode()) {
         samlService.createDummyAuthentication(request);
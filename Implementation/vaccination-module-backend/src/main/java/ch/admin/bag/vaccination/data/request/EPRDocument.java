@@ -18,20 +18,24 @@
  */
 package ch.admin.bag.vaccination.data.request;
 
+import ch.admin.bag.vaccination.utils.CompressionUtils;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.RetrievedDocument;
 
 /**
  * EPRDocument class was created to be able to validate if the Retrieved Document was created,
  * modified or deleted by an HCP or ASS or by a PAT or REP. It contains both validation information
  * and the document retrieved from EPD.
+ * <p>
+ * Documents read from the cache may hold their content compressed, it is decompressed on the first
+ * access of {@link #getJsonOrXmlFhirContent()}.
  */
-@AllArgsConstructor
 @NoArgsConstructor
 @Data
 public class EPRDocument implements Serializable {
@@ -40,6 +44,28 @@ public class EPRDocument implements Serializable {
   private String jsonOrXmlFhirContent;
   private transient RetrievedDocument retrievedDocument;
   private LocalDateTime creationDate;
+  /** unique id of the document within the EPD, used to address the parsed entities of a document */
+  private String documentUniqueId;
+  /** SHA-1 hash of the document registered in the EPD, identifies the content of a stored document */
+  private String documentHash;
+  /** deflate compressed UTF-8 content, only set as long as the content was not accessed */
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private byte[] compressedJsonOrXmlFhirContent;
+
+  public EPRDocument(boolean isTrusted, String jsonOrXmlFhirContent, RetrievedDocument retrievedDocument,
+      LocalDateTime creationDate, String documentUniqueId) {
+    this.isTrusted = isTrusted;
+    this.jsonOrXmlFhirContent = jsonOrXmlFhirContent;
+    this.retrievedDocument = retrievedDocument;
+    this.creationDate = creationDate;
+    this.documentUniqueId = documentUniqueId;
+  }
+
+  public EPRDocument(boolean isTrusted, String jsonOrXmlFhirContent, RetrievedDocument retrievedDocument,
+      LocalDateTime creationDate) {
+    this(isTrusted, jsonOrXmlFhirContent, retrievedDocument, creationDate, null);
+  }
 
   public EPRDocument(boolean isTrusted, RetrievedDocument retrievedDocument, LocalDateTime creationDate) {
     this(isTrusted, null, retrievedDocument, creationDate);
@@ -48,4 +74,33 @@ public class EPRDocument implements Serializable {
   public EPRDocument(boolean isTrusted, RetrievedDocument retrievedDocument) {
     this(isTrusted, retrievedDocument, null);
   }
+
+  public synchronized String getJsonOrXmlFhirContent() {
+    if (compressedJsonOrXmlFhirContent != null) {
+      jsonOrXmlFhirContent = CompressionUtils.inflate(compressedJsonOrXmlFhirContent);
+      compressedJsonOrXmlFhirContent = null;
+    }
+    return jsonOrXmlFhirContent;
+  }
+
+  public synchronized void setJsonOrXmlFhirContent(String jsonOrXmlFhirContent) {
+    this.jsonOrXmlFhirContent = jsonOrXmlFhirContent;
+    compressedJsonOrXmlFhirContent = null;
+  }
+
+  /**
+   * @return true, if the document has content, without decompressing it.
+   */
+  public synchronized boolean hasContent() {
+    return jsonOrXmlFhirContent != null || compressedJsonOrXmlFhirContent != null;
+  }
+
+  public synchronized byte[] getCompressedJsonOrXmlFhirContent() {
+    return compressedJsonOrXmlFhirContent;
+  }
+
+  public synchronized void setCompressedJsonOrXmlFhirContent(byte[] compressedJsonOrXmlFhirContent) {
+    this.compressedJsonOrXmlFhirContent = compressedJsonOrXmlFhirContent;
+    jsonOrXmlFhirContent = null;
+  }
 }
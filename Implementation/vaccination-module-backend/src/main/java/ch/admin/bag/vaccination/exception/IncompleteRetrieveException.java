@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.exception;
+
+import ch.fhir.epr.adapter.exception.TechnicalException;
+import java.util.List;
+import lombok.Getter;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.RetrievedDocument;
+
+/**
+ * Thrown if not all requested documents could be retrieved. The documents retrieved nevertheless
+ * can be used, but must not be cached as the documents of the patient.
+ */
+@Getter
+public class IncompleteRetrieveException extends TechnicalException {
+  private final List<RetrievedDocument> retrievedDocuments;
+
+  public IncompleteRetrieveException(String messageKey, List<RetrievedDocument> retrievedDocuments) {
+    super(messageKey);
+    this.retrievedDocuments = retrievedDocuments;
+  }
+}
@@ -18,13 +18,18 @@
  */
 package ch.admin.bag.vaccination.service;
 
+import ch.admin.bag.vaccination.config.ExecutorConfig;
 import ch.admin.bag.vaccination.config.ProfileConfig;
 import ch.admin.bag.vaccination.data.request.EPRDocument;
+import ch.admin.bag.vaccination.exception.CommunityUnavailableException;
+import ch.admin.bag.vaccination.exception.IncompleteRetrieveException;
 import ch.admin.bag.vaccination.service.cache.Cache;
 import ch.admin.bag.vaccination.service.cache.CacheIdentifierKey;
+import ch.admin.bag.vaccination.service.cache.DocumentSyncState;
 import ch.admin.bag.vaccination.service.config.VaccinationConfig;
 import ch.admin.bag.vaccination.service.husky.HuskyAdapterIfc;
 import ch.admin.bag.vaccination.service.husky.HuskyUtils;
+import ch.admin.bag.vaccination.service.husky.XuaAssertionCache;
 import ch.admin.bag.vaccination.utils.ContentFieldExtractor;
 import ch.admin.bag.vaccination.utils.HttpSessionUtils;
 import ch.fhir.epr.adapter.FhirAdapterIfc;
@@ -45,17 +50,26 @@ import ch.fhir.epr.adapter.exception.TechnicalException;
 import ch.fhir.epr.adapter.utils.ValidationUtils;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Bundle;
@@ -63,6 +77,8 @@ import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.RetrievedDocument;
 import org.projecthusky.xua.saml2.Assertion;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
@@ -74,6 +90,10 @@ import org.springframework.stereotype.Service;
 @Service
 public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
   private static final String LOAD_DATA_FOR_FROM = "Load data for {} from";
+  private static final List<Class<? extends BaseDTO>> DTO_CLASSES = List.of(VaccinationDTO.class, AllergyDTO.class,
+      MedicalProblemDTO.class, BasicImmunizationDTO.class, PastIllnessDTO.class, LaboratorySerologyDTO.class);
+  // internal repository first, so the documents are always merged in the same order
+  private static final List<Boolean> REPOSITORIES = List.of(true, false);
 
   @Autowired
   protected LifeCycleService lifeCycleService;
@@ -89,6 +109,13 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
   private Cache cache;
   @Autowired
   private ProfileConfig profileConfig;
+  @Autowired
+  @Qualifier(ExecutorConfig.EPD_EXECUTOR)
+  private ExecutorService epdExecutor;
+  @Value("${epdbackend.executor.fetchTimeoutInSeconds:30}")
+  private int fetchTimeoutInSeconds;
+  @Value("${epdbackend.cache.sync.overlapInSeconds:300}")
+  private int syncOverlapInSeconds;
 
   @Override
   public T create(String communityIdentifier, String oid, String localId,
@@ -116,12 +143,12 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     PatientIdentifier patientIdentifier = getPatientIdentifier(communityIdentifier, oid, localId);
 
     List<EPRDocument> eprDocuments = getData(patientIdentifier, assertion);
+    CacheIdentifierKey cacheIdentifier = cache.createCacheIdentifier(patientIdentifier);
 
     // Check if the deletion candidate was already deleted
     // If the EPRDocument contains the toDeleteUuid and also has the status entered-in-error, it means
     // that it was already deleted
-    eprDocuments = eprDocuments.stream()
-        .filter(eprDocument -> eprDocument.getJsonOrXmlFhirContent().contains(toDeleteUuid)).toList();
+    eprDocuments = findDocuments(cacheIdentifier, eprDocuments, toDeleteUuid, true);
     Optional<T> deletedResource = eprDocuments.stream()
         .filter(eprDocument -> eprDocument.getJsonOrXmlFhirContent().contains(FhirConstants.ENTERED_IN_ERROR))
         .map(eprDocument -> fhirAdapter.unmarshallFromString(eprDocument.getJsonOrXmlFhirContent()))
@@ -132,7 +159,7 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
       return deletedResource.get();
     }
 
-    for (EPRDocument doc : eprDocuments) {
+    for (EPRDocument doc : findDocuments(cacheIdentifier, eprDocuments, toDeleteUuid, false)) {
       Bundle bundleToDelete = fhirAdapter.unmarshallFromString(doc.getJsonOrXmlFhirContent());
 
       T dto = fhirAdapter.getDTO(getDtoClass(), bundleToDelete, toDeleteUuid);
@@ -159,37 +186,21 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     List<T> dtos = new ArrayList<>();
     List<T> dtoWithErrors = new ArrayList<>();
     List<EPRDocument> eprDocuments = getData(patientIdentifier, assertion);
-    List<EPRDocument> invalid = new ArrayList<>();
+    CacheIdentifierKey cacheIdentifier = cache.createCacheIdentifier(patientIdentifier);
 
     for (EPRDocument doc : eprDocuments) {
-      Bundle bundle = fhirAdapter.unmarshallFromString(doc.getJsonOrXmlFhirContent());
-      List<T> jsonDtos = new ArrayList<>();
-      if (bundle != null) {
-        jsonDtos.addAll(parseBundle(patientIdentifier, bundle));
+      List<T> jsonDtos = getDTOs(cacheIdentifier, patientIdentifier, doc);
+      if (jsonDtos != null) {
         jsonDtos.forEach(dto -> {
           dto.setValidated(doc.isTrusted() && dto.isValidated());
           dto.setJson(doc.getJsonOrXmlFhirContent());
         });
+        dtos.addAll(jsonDtos);
       } else {
         dtoWithErrors.add(createFailureDto(doc.getJsonOrXmlFhirContent()));
-        invalid.add(doc);
-      }
-      dtos.addAll(jsonDtos);
-    }
-
-    eprDocuments.removeAll(invalid);
-    CacheIdentifierKey cacheIdentifier = cache.createCacheIdentifier(patientIdentifier);
-    if (cache.dataCacheMiss(cacheIdentifier)) {
-      for (EPRDocument doc : eprDocuments) {
-        cache.putData(cacheIdentifier, doc);
       }
     }
 
-    // touch cache so entries are not reloaded.
-    if (eprDocuments.isEmpty()) {
-      cache.putData(cacheIdentifier, new EPRDocument());
-    }
-
     List<T> result = (List<T>) lifeCycleService.handle(dtos, !isLifecycleActive);
     result.addAll(dtoWithErrors);
     return result;
@@ -217,6 +228,28 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     return huskyAdapter.getPatientIdentifier(communityIdentifier, oid, localId);
   }
 
+  /**
+   * Loads the documents of a patient into the document cache unless they are cached already. Used to
+   * warm the cache outside of a request, therefore author and assertion are passed explicitly. A
+   * request for the same documents arriving meanwhile waits for this load.
+   *
+   * @param patientIdentifier {@link PatientIdentifier}
+   * @param author the author the documents are loaded for
+   * @param assertion {@link Assertion}
+   */
+  public void prefetch(PatientIdentifier patientIdentifier, AuthorDTO author, Assertion assertion) {
+    if (!cache.isEnabled() || !Boolean.FALSE.equals(profileConfig.getHuskyLocalMode())) {
+      return;
+    }
+
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(patientIdentifier, author);
+    if (cache.dataCacheMiss(cacheIdentifier)) {
+      log.debug("Prefetch documents of {}", cacheIdentifier);
+      cache.loadData(cacheIdentifier,
+          () -> loadDocuments(cacheIdentifier, patientIdentifier, author, assertion, false));
+    }
+  }
+
   @Override
   public T update(String communityIdentifier, String oid, String localId,
       String toUpdateUuid, T newDto, Assertion assertion) {
@@ -224,7 +257,8 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     PatientIdentifier patientIdentifier = getPatientIdentifier(communityIdentifier, oid, localId);
 
     List<EPRDocument> eprDocuments = getData(patientIdentifier, assertion);
-    for (EPRDocument doc : eprDocuments) {
+    CacheIdentifierKey cacheIdentifier = cache.createCacheIdentifier(patientIdentifier);
+    for (EPRDocument doc : findDocuments(cacheIdentifier, eprDocuments, toUpdateUuid, false)) {
       Bundle bundleToUpdate = fhirAdapter.unmarshallFromString(doc.getJsonOrXmlFhirContent());
 
       T dto = fhirAdapter.getDTO(getDtoClass(), bundleToUpdate, toUpdateUuid);
@@ -259,11 +293,18 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     return (Class<T>) BaseDTO.class;
   }
 
-  private EPRDocument createEPRDocument(DocumentEntry entry, Map<String, RetrievedDocument> docMap) {
+  private EPRDocument createEPRDocument(DocumentEntry entry, Map<String, RetrievedDocument> docMap,
+      Map<String, EPRDocument> cachedDocuments) {
     List<String> rolesMetadata = entry.getExtraMetadata().get(HuskyUtils.UPLOADER_ROLE_METADATA_KEY);
     String[] roles = rolesMetadata.getFirst().split("\\^", 2);
     boolean isTrusted = Arrays.asList(HuskyUtils.HCP, HuskyUtils.ASS, HuskyUtils.TCU).contains(roles[0]);
 
+    EPRDocument cachedDocument = cachedDocuments.get(entry.getUniqueId());
+    if (cachedDocument != null) {
+      cachedDocument.setTrusted(isTrusted);
+      return cachedDocument;
+    }
+
     RetrievedDocument retrievedDoc = docMap.get(entry.getUniqueId());
     if (Objects.isNull(retrievedDoc)) {
       log.error("Document not found for unique ID: " + entry.getUniqueId());
@@ -271,16 +312,47 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     }
 
     docMap.remove(retrievedDoc.getRequestData().getDocumentUniqueId());
-    return new EPRDocument(isTrusted, retrievedDoc, LocalDateTime.now());
+    EPRDocument eprDocument = new EPRDocument(isTrusted, retrievedDoc, LocalDateTime.now());
+    eprDocument.setDocumentUniqueId(entry.getUniqueId());
+    eprDocument.setDocumentHash(entry.getHash());
+    return eprDocument;
   }
 
-  private List<EPRDocument> createEPRDocuments(List<DocumentEntry> allDocumentEntries,
+  /**
+   * Creates the documents of the given entries. Documents already cached for another author are
+   * taken from the cache, as the registry query of this author returned them, and only the remaining
+   * documents are retrieved. If not all remaining documents could be retrieved, the created documents
+   * are marked as incomplete.
+   */
+  private CreatedDocuments createEPRDocuments(List<DocumentEntry> allDocumentEntries,
       PatientIdentifier patientIdentifier, List<DocumentEntry> filteredDocumentEntries, AuthorDTO author,
       Assertion assertion, boolean useInternal) {
+    Map<String, EPRDocument> cachedDocuments = cache.getDocuments(filteredDocumentEntries);
+    List<DocumentEntry> documentEntriesToRetrieve = filteredDocumentEntries.stream()
+        .filter(entry -> !cachedDocuments.containsKey(entry.getUniqueId()))
+        .toList();
 
-    List<RetrievedDocument> retrievedDocuments = huskyAdapter.getRetrievedDocuments(patientIdentifier,
-        filteredDocumentEntries, author, assertion, useInternal);
-    return processAndValidateDocuments(allDocumentEntries, retrievedDocuments);
+    List<RetrievedDocument> retrievedDocuments;
+    boolean isComplete = true;
+    try {
+      retrievedDocuments = documentEntriesToRetrieve.isEmpty() && !cachedDocuments.isEmpty()
+          ? List.of()
+          : huskyAdapter.getRetrievedDocuments(patientIdentifier, documentEntriesToRetrieve, author, assertion,
+              useInternal);
+    } catch (CommunityUnavailableException ex) {
+      throw ex;
+    } catch (IncompleteRetrieveException ex) {
+      log.warn("Not all documents could be retrieved: {}", ex.getMessage());
+      retrievedDocuments = ex.getRetrievedDocuments();
+      isComplete = false;
+    } catch (TechnicalException ex) {
+      // the documents taken from the cache are returned nevertheless
+      log.warn("No document could be retrieved: {}", ex.getMessage());
+      retrievedDocuments = List.of();
+      isComplete = false;
+    }
+    return new CreatedDocuments(
+        processAndValidateDocuments(allDocumentEntries, retrievedDocuments, cachedDocuments), isComplete);
   }
 
   @SuppressWarnings("unchecked")
@@ -306,9 +378,27 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     return dto;
   }
 
-  private EPRDocument createValidatedDocument(AuthorDTO author, String json) {
+  private EPRDocument createValidatedDocument(AuthorDTO author, String json, String documentUniqueId) {
     boolean isTrusted = Arrays.asList(HuskyUtils.HCP, HuskyUtils.ASS, HuskyUtils.TCU).contains(author.getRole());
-    return new EPRDocument(isTrusted, json, null, LocalDateTime.now());
+    return new EPRDocument(isTrusted, json, null, LocalDateTime.now(), documentUniqueId);
+  }
+
+  /**
+   * Extracts all entities of a bundle grouped by their class. Entity classes which cannot be
+   * extracted are left out, so the affected document is parsed again and reported as failure for
+   * those classes. The entry of {@link BaseDTO} is only present if all classes could be extracted.
+   */
+  private Map<Class<? extends BaseDTO>, List<BaseDTO>> extractDTOsByClass(Bundle bundle) {
+    Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass =
+        new LinkedHashMap<>(fhirAdapter.getDTOs(DTO_CLASSES, bundle));
+    if (dtosByClass.size() == DTO_CLASSES.size()) {
+      List<BaseDTO> all = new ArrayList<>();
+      dtosByClass.values().forEach(all::addAll);
+      dtosByClass.put(BaseDTO.class, all);
+    } else {
+      log.debug("Not all entity classes could be extracted from bundle {}.", FhirUtils.getUuidFromBundle(bundle));
+    }
+    return dtosByClass;
   }
 
   /**
@@ -373,17 +463,52 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     updatedDto.setVerificationStatus(status);
   }
 
-  private List<EPRDocument> fetchDocuments(PatientIdentifier patientIdentifier, AuthorDTO author,
+  /**
+   * Returns the registry entries of a patient in a repository. If the entries were queried before,
+   * only the entries created since the last query are queried and merged into the known entries. The
+   * query starts {@link #syncOverlapInSeconds} before the last query, as the clocks of the registry
+   * and of this service may differ and the creation time is set by the source of a document.
+   * Documents registered with an earlier creation time are found by the next query of all entries.
+   */
+  private List<DocumentEntry> getDocumentEntries(PatientIdentifier patientIdentifier, AuthorDTO author,
+      Assertion assertion, boolean useInternal) {
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(patientIdentifier, author);
+    DocumentSyncState syncState = cache.getSyncState(cacheIdentifier, useInternal);
+    Instant queryStart = Instant.now();
+    Instant createdSince = syncState != null ? syncState.getSyncedAt().minusSeconds(syncOverlapInSeconds) : null;
+    List<DocumentEntry> newEntries;
+    try {
+      newEntries = huskyAdapter.getDocumentEntries(patientIdentifier, author, assertion, useInternal, createdSince);
+    } catch (TechnicalException ex) {
+      // the last known entries are kept, so the next request queries the same time range again
+      log.warn("Error while retrieving document entries: {}", ex.getMessage());
+      return syncState != null ? syncState.merge(List.of()) : List.of();
+    }
+
+    if (syncState == null) {
+      cache.putSyncState(cacheIdentifier, useInternal, DocumentSyncState.of(queryStart, queryStart, newEntries));
+      return newEntries;
+    }
+
+    log.debug("Found {} document entries created since {}.", newEntries.size(), createdSince);
+    List<DocumentEntry> documentEntries = syncState.merge(newEntries);
+    cache.putSyncState(cacheIdentifier, useInternal,
+        DocumentSyncState.of(queryStart, syncState.getFullySyncedAt(), documentEntries));
+    return documentEntries;
+  }
+
+  private RepositoryDocuments fetchDocuments(PatientIdentifier patientIdentifier, AuthorDTO author,
       Assertion assertion, boolean useInternal) {
-    List<DocumentEntry> documentEntries =
-        huskyAdapter.getDocumentEntries(patientIdentifier, author, assertion, useInternal);
+    List<DocumentEntry> documentEntries = getDocumentEntries(patientIdentifier, author, assertion, useInternal);
     List<DocumentEntry> immunizationRecords = documentEntries.stream()
         .filter(doc -> doc.getFormatCode().getCode().equals(
             FhirConstants.COMPOSITION_IMMUNIZATON_CATEGORY.getFirst().getCoding().getFirst().getCode())).toList();
 
     if (!immunizationRecords.isEmpty()) {
       List<DocumentEntry> fhirImmunizationDocs = filterByMimeType(immunizationRecords);
-      return createEPRDocuments(immunizationRecords, patientIdentifier, fhirImmunizationDocs, author, assertion, useInternal);
+      CreatedDocuments documents = createEPRDocuments(immunizationRecords, patientIdentifier, fhirImmunizationDocs,
+          author, assertion, useInternal);
+      return new RepositoryDocuments(documents.documents(), Collections.emptyList(), documents.isComplete());
     }
 
     List<DocumentEntry> vaccinationRecords = documentEntries.stream()
@@ -395,17 +520,28 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     List<DocumentEntry> fhirVaccinations = filterByMimeType(vaccinationRecords);
 
     if (!vaccinationRecords.isEmpty()) {
-      List<EPRDocument> eprDocuments = createEPRDocuments(vaccinationRecords, patientIdentifier, fhirVaccinations, author,
-          assertion,useInternal);
-
-      CacheIdentifierKey cacheIdentifier = cache.createCacheIdentifier(patientIdentifier);
-      if (cache.dataCacheMiss(cacheIdentifier)) {
-        for (EPRDocument doc : eprDocuments) {
-          cache.putData(cacheIdentifier, doc, Cache.VACCINATION_RECORDS_CACHE_NAME);
-        }
-      }
+      CreatedDocuments records = createEPRDocuments(vaccinationRecords, patientIdentifier, fhirVaccinations, author,
+          assertion, useInternal);
+      return new RepositoryDocuments(Collections.emptyList(), records.documents(), records.isComplete());
     }
-    return Collections.emptyList();
+    return new RepositoryDocuments(Collections.emptyList(), Collections.emptyList(), true);
+  }
+
+  /**
+   * Returns the documents which contain the given entity, in the order of the given documents.
+   * Documents whose entities are cached are looked up in the id index of the cache, all other
+   * documents, e.g. the document just written, are searched for the id.
+   *
+   * @param includeReferences also return documents with entities referring to the given entity
+   */
+  private List<EPRDocument> findDocuments(CacheIdentifierKey cacheIdentifier, List<EPRDocument> eprDocuments,
+      String resourceId, boolean includeReferences) {
+    Set<String> indexedDocuments = cache.getDocumentUniqueIds(cacheIdentifier, resourceId, includeReferences);
+    return eprDocuments.stream()
+        .filter(doc -> cache.isIndexed(cacheIdentifier, doc.getDocumentUniqueId())
+            ? indexedDocuments.contains(doc.getDocumentUniqueId())
+            : doc.getJsonOrXmlFhirContent() != null && doc.getJsonOrXmlFhirContent().contains(resourceId))
+        .toList();
   }
 
   private List<DocumentEntry> filterByMimeType(List<DocumentEntry> documentEntries) {
@@ -428,31 +564,135 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
 
     AuthorDTO author = HttpSessionUtils.getAuthorFromSession();
     CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(patientIdentifier, author);
-    List<EPRDocument> eprDocuments = new ArrayList<>();
 
-    if (cache.isEnabled() && !cache.dataCacheMiss(cacheIdentifier)) {
+    List<EPRDocument> cachedDocuments = cache.isEnabled()
+        ? cache.getDataIfPresent(cacheIdentifier, createRefresh(cacheIdentifier, patientIdentifier, author, assertion))
+        : null;
+    if (cachedDocuments != null) {
       log.debug(LOAD_DATA_FOR_FROM + " cache.", patientIdentifier.getPatientInfo().getFullName());
-      return cache.getData(cacheIdentifier);
+      return cachedDocuments;
     }
 
     if (Boolean.FALSE.equals(profileConfig.getHuskyLocalMode())) {
-      log.debug(LOAD_DATA_FOR_FROM + " EPD Backend", patientIdentifier.getPatientInfo().getFullName());
-      log.debug("Fetching documents from internal repository.");
-      eprDocuments.addAll(fetchDocuments(patientIdentifier, author, assertion, true));
-      log.debug("Fetching documents from external repository.");
-      eprDocuments.addAll(fetchDocuments(patientIdentifier, author, assertion, false));
+      return cache.loadData(cacheIdentifier,
+          () -> loadDocuments(cacheIdentifier, patientIdentifier, author, assertion, false));
+    }
+
+    log.debug(LOAD_DATA_FOR_FROM + " Filesystem", patientIdentifier.getPatientInfo().getFullName());
+    List<EPRDocument> eprDocuments = fhirAdapter.getLocalEntities().stream()
+        .map(localEntity -> new EPRDocument(true, localEntity, null,
+            ContentFieldExtractor.extractFieldAsLocalDateTime(localEntity, "timestamp")))
+        .collect(Collectors.toList());
+    putData(cacheIdentifier, patientIdentifier, eprDocuments, false);
+    return eprDocuments;
+  }
+
+  /**
+   * Returns the refresh of the cached documents of a patient. Documents read from the file system and
+   * documents whose assertion expires before a reload could time out are not refreshed.
+   *
+   * @return the refresh or <code>null</code> if the documents cannot be refreshed.
+   */
+  private Supplier<List<EPRDocument>> createRefresh(CacheIdentifierKey cacheIdentifier,
+      PatientIdentifier patientIdentifier, AuthorDTO author, Assertion assertion) {
+    if (!Boolean.FALSE.equals(profileConfig.getHuskyLocalMode())
+        || !XuaAssertionCache.isValid(assertion, fetchTimeoutInSeconds)) {
+      return null;
+    }
+
+    return () -> loadDocuments(cacheIdentifier, patientIdentifier, author, assertion, true);
+  }
+
+  /**
+   * Loads the documents of a patient from all repositories of the EPD. The repositories are queried
+   * concurrently, each within {@link #fetchTimeoutInSeconds}. If a repository fails or not all of its
+   * documents could be retrieved, the other documents are still returned but not cached, so the next
+   * request tries again.
+   * <p>
+   * If the cache is enabled, the valid documents are stored in the cache before the load is finished,
+   * so concurrent requests waiting for this load find them there.
+   *
+   * @param isRefresh the documents replace the cached documents of the patient
+   */
+  private List<EPRDocument> loadDocuments(CacheIdentifierKey cacheIdentifier, PatientIdentifier patientIdentifier,
+      AuthorDTO author, Assertion assertion, boolean isRefresh) {
+    log.debug(LOAD_DATA_FOR_FROM + " EPD Backend", patientIdentifier.getPatientInfo().getFullName());
+    List<Future<RepositoryDocuments>> fetches = REPOSITORIES.stream()
+        .map(useInternal -> epdExecutor.submit(() -> fetchDocuments(patientIdentifier, author, assertion, useInternal)))
+        .toList();
+
+    List<EPRDocument> eprDocuments = new ArrayList<>();
+    List<EPRDocument> vaccinationRecords = new ArrayList<>();
+    boolean isComplete = true;
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(fetchTimeoutInSeconds);
+    for (int i = 0; i < fetches.size(); i++) {
+      String repository = REPOSITORIES.get(i) ? "internal" : "external";
+      Future<RepositoryDocuments> fetch = fetches.get(i);
+      try {
+        RepositoryDocuments documents = fetch.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        log.debug("Fetched {} documents from {} repository.", documents.documents().size(), repository);
+        eprDocuments.addAll(documents.documents());
+        vaccinationRecords.addAll(documents.vaccinationRecords());
+        if (!documents.isComplete()) {
+          log.warn("Not all documents of {} repository could be retrieved.", repository);
+          isComplete = false;
+        }
+      } catch (TimeoutException ex) {
+        log.warn("Fetching documents from {} repository timed out after {}s.", repository, fetchTimeoutInSeconds);
+        fetch.cancel(true);
+        isComplete = false;
+      } catch (ExecutionException ex) {
+        log.warn("Fetching documents from {} repository failed: {}", repository, ex.getCause().getMessage());
+        isComplete = false;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        fetches.forEach(remainingFetch -> remainingFetch.cancel(true));
+        throw new TechnicalException("Fetching documents was interrupted.");
+      }
+    }
 
-      for (EPRDocument doc : eprDocuments) {
+    if (isComplete && !vaccinationRecords.isEmpty() && cache.dataCacheMiss(cacheIdentifier)) {
+      cache.putAll(cacheIdentifier, vaccinationRecords, Cache.VACCINATION_RECORDS_CACHE_NAME);
+    }
+
+    for (EPRDocument doc : eprDocuments) {
+      // documents taken from the cache already have their content
+      if (!doc.hasContent()) {
         handleRetrievedDocument(doc);
       }
+    }
 
-      return eprDocuments;
+    if (isComplete) {
+      putData(cacheIdentifier, patientIdentifier, eprDocuments, isRefresh);
+    } else {
+      log.warn("Documents of {} are incomplete and therefore not cached.", cacheIdentifier);
     }
 
-    log.debug(LOAD_DATA_FOR_FROM + " Filesystem", patientIdentifier.getPatientInfo().getFullName());
-    return fhirAdapter.getLocalEntities().stream().map(localEntity -> new EPRDocument(true, localEntity, null,
-            ContentFieldExtractor.extractFieldAsLocalDateTime(localEntity, "timestamp")))
-        .collect(Collectors.toList());
+    return eprDocuments;
+  }
+
+  /**
+   * Stores the valid documents of a patient in the document cache if the cache is enabled.
+   *
+   * @param replace the documents replace the cached documents of the patient
+   */
+  private void putData(CacheIdentifierKey cacheIdentifier, PatientIdentifier patientIdentifier,
+      List<EPRDocument> eprDocuments, boolean replace) {
+    if (!cache.isEnabled()) {
+      return;
+    }
+
+    List<EPRDocument> validDocuments = eprDocuments.stream()
+        .filter(doc -> getDTOs(cacheIdentifier, patientIdentifier, doc) != null)
+        .toList();
+    if (replace) {
+      cache.replaceAll(cacheIdentifier, validDocuments);
+    } else if (cache.dataCacheMiss(cacheIdentifier)) {
+      cache.putAll(cacheIdentifier, validDocuments);
+    } else if (validDocuments.isEmpty()) {
+      // touch cache so entries are not reloaded.
+      cache.putAll(cacheIdentifier, List.of());
+    }
   }
 
   private String getDocumentData(RetrievedDocument retrievedDocument) {
@@ -467,14 +707,67 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     }
   }
 
+  /**
+   * Writes the bundle and returns its entity. The entities are extracted once from the bundle in
+   * memory and stored in the parsed entity cache, so the written document is not parsed again when
+   * it is read from the cache.
+   */
+  @SuppressWarnings("unchecked")
   private T getDTOAfterParsingBundle(T newOrUpdatedDto, Assertion assertion, Bundle newOrUpdatedBundle,
       PatientIdentifier patientIdentifier,
       AuthorDTO author) {
-    String updatedJson = fhirAdapter.convertBundleToJson(newOrUpdatedBundle);
-    huskyAdapter.writeDocument(patientIdentifier, FhirUtils.getUuidFromBundle(newOrUpdatedBundle), updatedJson,
-        newOrUpdatedDto, assertion);
-    cache.putData(cache.createCacheIdentifier(patientIdentifier), createValidatedDocument(author, updatedJson));
-    return parseBundle(patientIdentifier, newOrUpdatedBundle).getFirst();
+    String updatedJson = fhirAdapter.convertBundleToJson(newOrUpdatedBundle, false);
+    String uuid = FhirUtils.getUuidFromBundle(newOrUpdatedBundle);
+    huskyAdapter.writeDocument(patientIdentifier, uuid, updatedJson, newOrUpdatedDto, assertion);
+
+    // same unique id as in the submitted metadata, so a reload matches the cached document
+    String documentUniqueId = Objects.requireNonNullElse(HuskyUtils.getDocumentUniqueId(uuid), uuid);
+    CacheIdentifierKey cacheIdentifier = cache.createCacheIdentifier(patientIdentifier);
+    Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass = extractDTOsByClass(newOrUpdatedBundle);
+    cache.putData(cacheIdentifier, createValidatedDocument(author, updatedJson, documentUniqueId));
+    cache.putParsedData(cacheIdentifier, documentUniqueId, dtosByClass);
+
+    // the cache returns copies, otherwise the extracted entities are not shared with anyone
+    List<T> dtos = cache.isEnabled()
+        ? cache.getParsedData(cacheIdentifier, documentUniqueId, getDtoClass())
+        : null;
+    if (dtos == null) {
+      dtos = dtosByClass.containsKey(getDtoClass())
+          ? (List<T>) dtosByClass.get(getDtoClass())
+          : parseBundle(patientIdentifier, newOrUpdatedBundle);
+    }
+    return dtos.getFirst();
+  }
+
+  /**
+   * Returns the entities of a document. Parsed entities are taken from the cache if available,
+   * otherwise the document is parsed once and all its entities are cached for subsequent requests.
+   *
+   * @return the entities or <code>null</code> if the document is not a valid bundle.
+   */
+  private List<T> getDTOs(CacheIdentifierKey cacheIdentifier, PatientIdentifier patientIdentifier, EPRDocument doc) {
+    boolean useParsedCache = cache.isEnabled() && doc.getDocumentUniqueId() != null;
+    List<T> cachedDtos = useParsedCache
+        ? cache.getParsedData(cacheIdentifier, doc.getDocumentUniqueId(), getDtoClass())
+        : null;
+    if (cachedDtos != null) {
+      return cachedDtos;
+    }
+
+    Bundle bundle = fhirAdapter.unmarshallFromString(doc.getJsonOrXmlFhirContent());
+    if (bundle == null) {
+      return null;
+    }
+
+    if (useParsedCache) {
+      cache.putParsedData(cacheIdentifier, doc.getDocumentUniqueId(), extractDTOsByClass(bundle));
+      cachedDtos = cache.getParsedData(cacheIdentifier, doc.getDocumentUniqueId(), getDtoClass());
+      if (cachedDtos != null) {
+        return cachedDtos;
+      }
+    }
+
+    return new ArrayList<>(parseBundle(patientIdentifier, bundle));
   }
 
   private void handleRetrievedDocument(EPRDocument doc) {
@@ -492,15 +785,14 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
         return fhirAdapter.getDTOs(dtoClass, bundle);
       }
 
-      // for base class, fetch all entities
-      List<BaseDTO> results = new ArrayList<>();
-      results.addAll(fhirAdapter.getDTOs(VaccinationDTO.class, bundle));
-      results.addAll(fhirAdapter.getDTOs(AllergyDTO.class, bundle));
-      results.addAll(fhirAdapter.getDTOs(MedicalProblemDTO.class, bundle));
-      results.addAll(fhirAdapter.getDTOs(BasicImmunizationDTO.class, bundle));
-      results.addAll(fhirAdapter.getDTOs(PastIllnessDTO.class, bundle));
-      results.addAll(fhirAdapter.getDTOs(LaboratorySerologyDTO.class, bundle));
+      // for base class, fetch all entities in a single pass over the bundle
+      Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass = fhirAdapter.getDTOs(DTO_CLASSES, bundle);
+      if (dtosByClass.size() != DTO_CLASSES.size()) {
+        throw new TechnicalException("Not all entity classes could be extracted.");
+      }
 
+      List<BaseDTO> results = new ArrayList<>();
+      dtosByClass.values().forEach(results::addAll);
       return (List<T>) results;
     } catch (Exception ex) {
       log.error("Bundle from patient with ID {} could not be parsed.", patientIdentifier.getSpidExtension());
@@ -508,18 +800,40 @@ public class BaseService<T extends BaseDTO> implements BaseServiceIfc<T> {
     }
   }
 
-  private List<EPRDocument> processAndValidateDocuments(
-      List<DocumentEntry> documentEntries, List<RetrievedDocument> retrievedDocuments) {
+  private List<EPRDocument> processAndValidateDocuments(List<DocumentEntry> documentEntries,
+      List<RetrievedDocument> retrievedDocuments, Map<String, EPRDocument> cachedDocuments) {
     Map<String, RetrievedDocument> docMap = retrievedDocuments.stream()
         .collect(Collectors.toMap(retrievedDocument -> retrievedDocument.getRequestData().getDocumentUniqueId(),
             Function.identity()));
 
     List<EPRDocument> eprDocuments = documentEntries.stream()
-        .map(entry -> createEPRDocument(entry, docMap))
+        .map(entry -> createEPRDocument(entry, docMap, cachedDocuments))
         .filter(Objects::nonNull)
         .collect(Collectors.toList());
 
-    docMap.values().forEach(retrievedDoc -> eprDocuments.add(new EPRDocument(true, retrievedDoc)));
+    docMap.values().forEach(retrievedDoc -> {
+      EPRDocument eprDocument = new EPRDocument(true, retrievedDoc);
+      eprDocument.setDocumentUniqueId(retrievedDoc.getRequestData().getDocumentUniqueId());
+      eprDocuments.add(eprDocument);
+    });
     return eprDocuments;
   }
+
+  /**
+   * Documents created from the entries of a registry query.
+   *
+   * @param isComplete whether all documents could be retrieved
+   */
+  private record CreatedDocuments(List<EPRDocument> documents, boolean isComplete) {
+  }
+
+  /**
+   * Documents fetched from one repository, the vaccination records are only cached for their
+   * conversion to immunization administration documents.
+   *
+   * @param isComplete whether all documents of the repository could be retrieved
+   */
+  private record RepositoryDocuments(List<EPRDocument> documents, List<EPRDocument> vaccinationRecords,
+      boolean isComplete) {
+  }
 }
@@ -22,11 +22,19 @@ import ch.fhir.epr.adapter.data.dto.AllergyDTO;
 import ch.fhir.epr.adapter.data.dto.BaseDTO;
 import ch.fhir.epr.adapter.data.dto.PastIllnessDTO;
 import ch.fhir.epr.adapter.data.dto.VaccinationDTO;
+import ch.fhir.epr.adapter.data.dto.ValueDTO;
 import ch.fhir.epr.adapter.utils.ValidationUtils;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -42,6 +50,9 @@ import org.springframework.stereotype.Service;
  * <li>I1, I2=update(I1), I3=delete(I2)-> Nothing</li>
  * </ul>
  *
+ * The items are indexed once by id and by code and day of event, so that the previous entry of an
+ * item is found in logarithmic time and the whole list is handled in O(n log n).
+ *
  */
 @Service
 @Slf4j
@@ -68,23 +79,12 @@ public class LifeCycleService {
     List<BaseDTO> sortedByCreatedAt = map.values().stream()
         .sorted(Comparator.comparing(BaseDTO::getCreatedAt))
         .toList();
+    Index index = new Index(map);
 
-    for (BaseDTO entry : sortedByCreatedAt) {
-      BaseDTO previous = previous(map, entry);
-      if (previous != null) {
-        boolean isDeleted = checkDeletedFlag(map, entry, keepModifiedEntries);
-        entry.setValidated(ValidationUtils.shouldRecordBeValidated(previous, entry));
-        while (previous != null) {
-          previous.setDeleted(isDeleted);
-          previous.setUpdated(true);
-          if (!keepModifiedEntries) {
-            remove(map, previous);
-          }
-          previous = previous(map, previous);
-        }
-      } else if (entry.isDeleted() && !keepModifiedEntries) {
-        remove(map, entry);
-      }
+    if (keepModifiedEntries) {
+      markModifiedEntries(index, sortedByCreatedAt);
+    } else {
+      removeModifiedEntries(index, sortedByCreatedAt);
     }
 
     List<BaseDTO> result = new ArrayList<>(map.values());
@@ -133,59 +133,304 @@ public class LifeCycleService {
       }
     }
 
-    for (BaseDTO item1 : items.values()) {
-      BaseDTO toKeep = item1;
-      for (BaseDTO item2 : items.values()) {
-        if (!item1.getId().equals(item2.getId()) &&
-            item1.getRelatedId().equals(item2.getRelatedId())) {
-          if (item2.getCreatedAt().isAfter(toKeep.getCreatedAt())) {
-            toKeep = item2;
-          }
-        }
-      }
+    // the first latest item of all items referring to the same previous item
+    Map<String, BaseDTO> latestByRelatedId = new HashMap<>();
+    for (BaseDTO item : items.values()) {
+      latestByRelatedId.merge(item.getRelatedId(), item,
+          (latest, other) -> other.getCreatedAt().isAfter(latest.getCreatedAt()) ? other : latest);
+    }
+
+    for (BaseDTO item : items.values()) {
+      BaseDTO latest = latestByRelatedId.get(item.getRelatedId());
+      BaseDTO toKeep = latest.getCreatedAt().isAfter(item.getCreatedAt()) ? latest : item;
       mapWithAtMostOnePreviousEntry.put(toKeep.getId(), toKeep);
     }
 
     return mapWithAtMostOnePreviousEntry;
   }
 
+  /**
+   * Removes all previous versions of an item as well as deleted items.
+   */
+  private void removeModifiedEntries(Index index, List<BaseDTO> sortedByCreatedAt) {
+    for (BaseDTO entry : sortedByCreatedAt) {
+      BaseDTO previous = index.previous(entry);
+      if (previous != null) {
+        boolean isDeleted = entry.isDeleted();
+        if (isDeleted) {
+          index.remove(entry);
+        }
+        entry.setValidated(ValidationUtils.shouldRecordBeValidated(previous, entry));
+        while (previous != null) {
+          previous.setDeleted(isDeleted);
+          previous.setUpdated(true);
+          index.remove(previous);
+          previous = index.previous(previous);
+        }
+      } else if (entry.isDeleted()) {
+        index.remove(entry);
+      }
+    }
+  }
 
-  private boolean checkDeletedFlag(Map<String, BaseDTO> map, BaseDTO current,
-      boolean keepModifiedEntries) {
-    boolean isDeleted = current.isDeleted();
-    if (!keepModifiedEntries && isDeleted) {
-      remove(map, current);
+  /**
+   * Marks all previous versions of an item as updated and takes over the deleted flag of the item.
+   * <p>
+   * An item is processed after all items created before it, so an item of the history gets the
+   * deleted flag of the last processed item of which it is a previous version. This is evaluated
+   * on the tree of previous versions, where the items of which an item is a previous version form
+   * its subtree. The last processed item of a subtree is found by a range maximum query over the
+   * preorder numbering of the tree.
+   */
+  private void markModifiedEntries(Index index, List<BaseDTO> sortedByCreatedAt) {
+    int size = sortedByCreatedAt.size();
+    Map<BaseDTO, Integer> positions = new IdentityHashMap<>();
+    for (int i = 0; i < size; i++) {
+      positions.put(sortedByCreatedAt.get(i), i);
     }
 
-    return isDeleted;
+    int[] previous = new int[size];
+    boolean[] wasDeleted = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      BaseDTO previousEntry = index.previous(sortedByCreatedAt.get(i));
+      previous[i] = previousEntry != null ? positions.get(previousEntry) : -1;
+      wasDeleted[i] = sortedByCreatedAt.get(i).isDeleted();
+    }
+
+    HistoryTree tree = new HistoryTree(previous);
+    MaxSegmentTree lastProcessed = new MaxSegmentTree(size);
+    boolean[] deletedOnProcessing = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      if (previous[i] < 0) {
+        continue;
+      }
+
+      BaseDTO entry = sortedByCreatedAt.get(i);
+      BaseDTO previousEntry = sortedByCreatedAt.get(previous[i]);
+      entry.setDeleted(isDeleted(tree, lastProcessed, deletedOnProcessing, wasDeleted, i));
+      previousEntry.setDeleted(isDeleted(tree, lastProcessed, deletedOnProcessing, wasDeleted, previous[i]));
+      entry.setValidated(ValidationUtils.shouldRecordBeValidated(previousEntry, entry));
+
+      deletedOnProcessing[i] = entry.isDeleted();
+      lastProcessed.set(tree.preorder[i], i);
+    }
+
+    for (int i = 0; i < size; i++) {
+      int last = lastProcessed.max(tree.preorder[i] + 1, tree.subtreeEnd[i]);
+      if (last >= 0) {
+        sortedByCreatedAt.get(i).setDeleted(deletedOnProcessing[last]);
+        sortedByCreatedAt.get(i).setUpdated(true);
+      }
+    }
   }
 
-  private BaseDTO previous(Map<String, BaseDTO> map, BaseDTO item) {
-    log.debug("  previous {}", item);
-    if (item == null) {
-      return null;
+  private boolean isDeleted(HistoryTree tree, MaxSegmentTree lastProcessed, boolean[] deletedOnProcessing,
+      boolean[] wasDeleted, int position) {
+    int last = lastProcessed.max(tree.preorder[position] + 1, tree.subtreeEnd[position]);
+    return last >= 0 ? deletedOnProcessing[last] : wasDeleted[position];
+  }
+
+  /**
+   * Items of the lifecycle indexed by id and by code and day of event. The order of items created
+   * at the same time follows the iteration order of the item map.
+   */
+  private static final class Index {
+    private final Map<String, BaseDTO> items;
+    private final Map<BaseDTO, Integer> ranks = new IdentityHashMap<>();
+    private final Map<CandidateKey, TreeMap<Position, BaseDTO>> candidates = new HashMap<>();
+
+    private Index(Map<String, BaseDTO> items) {
+      this.items = items;
+      int rank = 0;
+      for (BaseDTO item : items.values()) {
+        ranks.put(item, rank++);
+        candidates.computeIfAbsent(CandidateKey.of(item), key -> new TreeMap<>())
+            .put(new Position(item.getCreatedAt(), ranks.get(item)), item);
+      }
     }
-    BaseDTO previous = null;
-    if (item.getRelatedId() != null) {
-      previous = map.get(item.getRelatedId());
-      if (previous == null) {
-        previous = extrapolatedPrevious(map, item);
+
+    private BaseDTO previous(BaseDTO item) {
+      log.debug("  previous {}", item);
+      if (item == null || item.getRelatedId() == null) {
+        return null;
       }
+
+      BaseDTO previous = items.get(item.getRelatedId());
+      return previous != null ? previous : extrapolatedPrevious(item);
     }
 
-    return previous;
+    /**
+     * Latest item with same code and day of event, created at the same time or before the given item.
+     */
+    private BaseDTO extrapolatedPrevious(BaseDTO item) {
+      TreeMap<Position, BaseDTO> sameCodeAndDay = candidates.get(CandidateKey.of(item));
+      if (sameCodeAndDay == null) {
+        return null;
+      }
+
+      Entry<Position, BaseDTO> candidate = sameCodeAndDay.floorEntry(new Position(item.getCreatedAt(), -1));
+      if (candidate != null && candidate.getValue().getId().equals(item.getId())) {
+        candidate = sameCodeAndDay.lowerEntry(candidate.getKey());
+      }
+      return candidate != null ? candidate.getValue() : null;
+    }
+
+    private void remove(BaseDTO item) {
+      log.debug("  remove {}", item);
+      BaseDTO removed = items.remove(item.getId());
+      if (removed != null) {
+        candidates.get(CandidateKey.of(removed)).remove(new Position(removed.getCreatedAt(), ranks.get(removed)));
+      }
+    }
+  }
+
+  /**
+   * Key of items which are candidates to be a previous version of each other. Codes are compared
+   * ignoring case like {@link ValueDTO#equals(Object)}.
+   */
+  private record CandidateKey(String code, String name, String system, LocalDate dateOfEvent) {
+    private static CandidateKey of(BaseDTO item) {
+      ValueDTO code = item.getCode();
+      return code == null
+          ? new CandidateKey(null, null, null, item.getDateOfEvent())
+          : new CandidateKey(normalize(code.getCode()), normalize(code.getName()), normalize(code.getSystem()),
+              item.getDateOfEvent());
+    }
+
+    private static String normalize(String value) {
+      if (value == null) {
+        return null;
+      }
+
+      StringBuilder normalized = new StringBuilder(value.length());
+      value.codePoints().forEach(codePoint ->
+          normalized.appendCodePoint(Character.toLowerCase(Character.toUpperCase(codePoint))));
+      return normalized.toString();
+    }
+  }
+
+  /**
+   * Position of an item in the order of creation, items created at the same time are ordered by
+   * descending rank so that the floor of a time is its item of lowest rank.
+   */
+  private record Position(LocalDateTime createdAt, int rank) implements Comparable<Position> {
+    @Override
+    public int compareTo(Position other) {
+      int result = createdAt.compareTo(other.createdAt);
+      return result != 0 ? result : Integer.compare(other.rank, rank);
+    }
+  }
+
+  /**
+   * Tree of the previous versions, numbered in preorder so that a subtree is a range of numbers.
+   * References forming a cycle are ignored.
+   */
+  private static final class HistoryTree {
+    private final int[] preorder;
+    private final int[] subtreeEnd;
+
+    private HistoryTree(int[] previous) {
+      int size = previous.length;
+      int[] parent = withoutCycles(previous);
+      int[] firstChild = new int[size];
+      int[] nextSibling = new int[size];
+      Arrays.fill(firstChild, -1);
+      for (int i = size - 1; i >= 0; i--) {
+        if (parent[i] >= 0) {
+          nextSibling[i] = firstChild[parent[i]];
+          firstChild[parent[i]] = i;
+        }
+      }
+
+      preorder = new int[size];
+      subtreeEnd = new int[size];
+      int[] stack = new int[size];
+      int[] nextChild = new int[size];
+      int number = 0;
+      for (int root = 0; root < size; root++) {
+        if (parent[root] >= 0) {
+          continue;
+        }
+
+        int depth = 0;
+        stack[depth] = root;
+        preorder[root] = number++;
+        nextChild[root] = firstChild[root];
+        while (depth >= 0) {
+          int node = stack[depth];
+          int child = nextChild[node];
+          if (child >= 0) {
+            nextChild[node] = nextSibling[child];
+            preorder[child] = number++;
+            nextChild[child] = firstChild[child];
+            stack[++depth] = child;
+          } else {
+            subtreeEnd[node] = number;
+            depth--;
+          }
+        }
+      }
+    }
+
+    private static int[] withoutCycles(int[] previous) {
+      int size = previous.length;
+      int[] parent = previous.clone();
+      int[] state = new int[size];
+      for (int start = 0; start < size; start++) {
+        int node = start;
+        while (node >= 0 && state[node] == 0) {
+          state[node] = 1;
+          if (parent[node] >= 0 && state[parent[node]] == 1) {
+            parent[node] = -1;
+          }
+          node = parent[node];
+        }
+
+        node = start;
+        while (node >= 0 && state[node] == 1) {
+          state[node] = 2;
+          node = parent[node];
+        }
+      }
+      return parent;
+    }
   }
 
-  private void remove(Map<String, BaseDTO> map, BaseDTO item) {
-    log.debug("  remove {}", item);
-    if (item == null) {
-      return;
+  /**
+   * Segment tree answering the maximum of a range, empty positions are -1.
+   */
+  private static final class MaxSegmentTree {
+    private final int size;
+    private final int[] values;
+
+    private MaxSegmentTree(int size) {
+      this.size = size;
+      values = new int[2 * Math.max(size, 1)];
+      Arrays.fill(values, -1);
     }
 
-    BaseDTO currentOrPrevious = item;
-    while (currentOrPrevious != null) {
-      map.remove(item.getId());
-      currentOrPrevious = previous(map, currentOrPrevious);
+    private void set(int index, int value) {
+      int node = index + size;
+      values[node] = value;
+      for (node /= 2; node >= 1; node /= 2) {
+        values[node] = Math.max(values[2 * node], values[2 * node + 1]);
+      }
+    }
+
+    /**
+     * @return maximum of the range [from, to)
+     */
+    private int max(int from, int to) {
+      int result = -1;
+      for (int left = from + size, right = to + size; left < right; left /= 2, right /= 2) {
+        if ((left & 1) == 1) {
+          result = Math.max(result, values[left++]);
+        }
+        if ((right & 1) == 1) {
+          result = Math.max(result, values[--right]);
+        }
+      }
+      return result;
     }
   }
 }
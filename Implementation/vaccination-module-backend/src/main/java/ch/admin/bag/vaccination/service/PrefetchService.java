@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service;
+
+import ch.admin.bag.vaccination.config.ExecutorConfig;
+import ch.admin.bag.vaccination.controller.AssertionUtils;
+import ch.admin.bag.vaccination.service.cache.Cache;
+import ch.admin.bag.vaccination.service.husky.HuskyAdapterIfc;
+import ch.admin.bag.vaccination.service.husky.config.CommunitiesConfig;
+import ch.admin.bag.vaccination.service.husky.config.CommunityConfig;
+import ch.admin.bag.vaccination.utils.HttpSessionUtils;
+import ch.fhir.epr.adapter.data.PatientIdentifier;
+import ch.fhir.epr.adapter.data.dto.AuthorDTO;
+import ch.fhir.epr.adapter.data.dto.BaseDTO;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionIdListener;
+import jakarta.servlet.http.HttpSessionListener;
+import lombok.extern.slf4j.Slf4j;
+import org.projecthusky.xua.saml2.Assertion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Warms the cache for a session launched by the portal, so the first data call of the frontend
+ * does not wait for the EPD. The patient is resolved by a PDQ query as soon as the portal call is
+ * validated, the documents are loaded once the user is authenticated by the IdP.
+ * <p>
+ * Prefetches are best effort: they run on the bounded {@link ExecutorConfig#PREFETCH_EXECUTOR}, are
+ * skipped if it is saturated and are cancelled once the session is destroyed. Their state is kept
+ * by session id instead of in the session, so the session stays serializable.
+ */
+@Slf4j
+@Service
+public class PrefetchService implements HttpSessionListener, HttpSessionIdListener {
+  private final Map<String, SessionPrefetch> prefetches = new ConcurrentHashMap<>();
+
+  @Autowired
+  private HuskyAdapterIfc huskyAdapter;
+  @Autowired
+  private BaseService<BaseDTO> baseService;
+  @Autowired
+  private Cache cache;
+  @Autowired
+  private CommunitiesConfig communitiesConfig;
+  @Autowired
+  @Qualifier(ExecutorConfig.PREFETCH_EXECUTOR)
+  private ExecutorService prefetchExecutor;
+
+  @Value("${epdbackend.prefetch.enabled:false}")
+  private boolean isPrefetchEnabled;
+  /** community the portal launches into, may be omitted if only one community is configured */
+  @Value("${epdbackend.prefetch.communityIdentifier:}")
+  private String communityIdentifier;
+
+  /**
+   * Resolves the patient of a validated portal call in the background.
+   *
+   * @param session session of the portal call
+   * @param localAssigningAuthorityOid local assigning authority of the patient
+   * @param localId local id of the patient
+   */
+  public void prefetchPatient(HttpSession session, String localAssigningAuthorityOid, String localId) {
+    String community = getCommunityIdentifier();
+    if (!isPrefetchEnabled || !cache.isEnabled() || community == null) {
+      return;
+    }
+
+    cancel(session);
+    try {
+      SessionPrefetch prefetch = new SessionPrefetch(CompletableFuture.supplyAsync(
+          () -> huskyAdapter.getPatientIdentifier(community, localAssigningAuthorityOid, localId), prefetchExecutor));
+      prefetches.put(session.getId(), prefetch);
+      log.debug("Prefetching patient {} {}", localAssigningAuthorityOid, localId);
+    } catch (RejectedExecutionException ex) {
+      log.debug("Prefetch of patient {} {} skipped, too many prefetches.", localAssigningAuthorityOid, localId);
+    }
+  }
+
+  /**
+   * Loads the documents of the patient resolved by {@link #prefetchPatient(HttpSession, String, String)}
+   * into the cache, once the patient is resolved.
+   *
+   * @param session the authenticated session
+   * @param idpAssertion IdP assertion of the user
+   */
+  public void prefetchDocuments(HttpSession session, org.opensaml.saml.saml2.core.Assertion idpAssertion) {
+    SessionPrefetch prefetch = prefetches.get(session.getId());
+    if (prefetch == null || !(session.getAttribute(HttpSessionUtils.AUTHOR) instanceof AuthorDTO author)) {
+      return;
+    }
+
+    Assertion assertion = idpAssertion != null ? AssertionUtils.convertSamlToHuskyAssertion(idpAssertion) : null;
+    prefetch.patientIdentifier.thenAccept(patientIdentifier -> prefetch.submit(prefetchExecutor,
+        () -> baseService.prefetch(patientIdentifier, author, assertion)));
+  }
+
+  @Override
+  public void sessionDestroyed(HttpSessionEvent event) {
+    cancel(event.getSession());
+  }
+
+  /**
+   * Keeps the prefetch of a session whose id is changed on login.
+   */
+  @Override
+  public void sessionIdChanged(HttpSessionEvent event, String oldSessionId) {
+    SessionPrefetch prefetch = prefetches.remove(oldSessionId);
+    if (prefetch != null) {
+      prefetches.put(event.getSession().getId(), prefetch);
+    }
+  }
+
+  private void cancel(HttpSession session) {
+    SessionPrefetch prefetch = prefetches.remove(session.getId());
+    if (prefetch != null) {
+      prefetch.cancel();
+    }
+  }
+
+  private String getCommunityIdentifier() {
+    if (communityIdentifier != null && !communityIdentifier.isBlank()) {
+      return communityIdentifier;
+    }
+
+    List<CommunityConfig> communities = communitiesConfig.getCommunities();
+    return communities != null && communities.size() == 1 ? communities.getFirst().getIdentifier() : null;
+  }
+
+  /**
+   * Prefetches of a session, kept so they can be cancelled with it.
+   */
+  static final class SessionPrefetch {
+    private final CompletableFuture<PatientIdentifier> patientIdentifier;
+    private Future<?> documents;
+    private boolean isCancelled;
+
+    SessionPrefetch(CompletableFuture<PatientIdentifier> patientIdentifier) {
+      this.patientIdentifier = patientIdentifier;
+    }
+
+    synchronized void cancel() {
+      isCancelled = true;
+      patientIdentifier.cancel(true);
+      if (documents != null) {
+        documents.cancel(true);
+      }
+    }
+
+    private synchronized void submit(ExecutorService executor, Runnable prefetch) {
+      if (isCancelled || documents != null) {
+        return;
+      }
+
+      try {
+        documents = executor.submit(() -> {
+          try {
+            prefetch.run();
+          } catch (RuntimeException ex) {
+            log.debug("Prefetch of documents failed: {}", ex.getMessage());
+          }
+        });
+      } catch (RejectedExecutionException ex) {
+        log.debug("Prefetch of documents skipped, too many prefetches.");
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.data.request.EPRDocument;
+import com.hazelcast.map.EntryProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Appends documents to a cache entry on the member owning the entry. Hazelcast executes entry
+ * processors of the same key one after the other, so concurrent appends of several members do not
+ * overwrite each other as a get followed by a put would.
+ * <p>
+ * The entry is created if it does not exist yet, even if there is nothing to append.
+ */
+class AppendDocumentsProcessor implements EntryProcessor<CacheIdentifierKey, List<EPRDocument>, Integer> {
+  private static final long serialVersionUID = 1L;
+
+  private final ArrayList<EPRDocument> documents;
+
+  AppendDocumentsProcessor(List<EPRDocument> documents) {
+    this.documents = new ArrayList<>(documents);
+  }
+
+  @Override
+  public Integer process(Entry<CacheIdentifierKey, List<EPRDocument>> entry) {
+    List<EPRDocument> current = entry.getValue();
+    List<EPRDocument> eprDocuments = current == null ? new ArrayList<>() : new ArrayList<>(current);
+    eprDocuments.addAll(documents);
+    entry.setValue(eprDocuments);
+    return eprDocuments.size();
+  }
+}
@@ -18,25 +18,69 @@
  */
 package ch.admin.bag.vaccination.service.cache;
 
+import ch.admin.bag.vaccination.config.ExecutorConfig;
 import ch.admin.bag.vaccination.data.request.EPRDocument;
+import ch.admin.bag.vaccination.service.cache.config.CacheConfig;
+import ch.admin.bag.vaccination.service.cache.config.CacheMapConfig;
 import ch.admin.bag.vaccination.utils.HttpSessionUtils;
 import ch.fhir.epr.adapter.data.PatientIdentifier;
 import ch.fhir.epr.adapter.data.dto.AuthorDTO;
-import com.hazelcast.config.Config;
-import com.hazelcast.config.MapConfig;
-import com.hazelcast.core.Hazelcast;
-import com.hazelcast.core.HazelcastInstance;
+import ch.fhir.epr.adapter.data.dto.BaseDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
  * The cache of the Impfmodul.
- *
+ * <p>
+ * The entries are stored by a {@link CacheBackend}: an embedded Hazelcast member shared with the
+ * other members of the cluster, a client of a separately deployed Hazelcast cluster or, for
+ * installations with a single member, a local in-process cache. If the cache is disabled, patients
+ * and documents are not stored at all. Only the vaccination records, which are handed over within a
+ * request, are then kept locally.
+ * <p>
+ * Documents are stored once by their unique id, regardless of how many authors opened the record
+ * of the patient. The entry of a patient and author only references the documents returned by the
+ * registry query of this author, so the confidentiality filtering of the EPD is preserved.
+ * <p>
+ * As a document never changes once it is registered, the documents are kept longer than the entries
+ * referencing them, by default for an hour (<code>epdbackend.cache.maps.document-content.ttlInSeconds</code>).
+ * The registry entries known by the last registry query of a patient are kept as long, see
+ * {@link DocumentSyncState}. Once the entry of a patient expires, the registry is only queried for
+ * the entries created since the last query and only their documents are retrieved. All entries are
+ * queried again every <code>epdbackend.cache.sync.fullSyncIntervalInSeconds</code>, so deprecated
+ * documents and documents registered with an earlier creation time are noticed.
+ * <p>
+ * If refresh-ahead is enabled, documents are kept for <code>maxStaleInSeconds</code> after their
+ * time to live. Within this time they are still served, while they are reloaded in the background.
+ * <p>
+ * Patient identifiers are additionally kept on each member for the time to live of their community,
+ * see {@link PatientIdentifierCache}.
  */
 @Service
 @Slf4j
@@ -44,15 +88,57 @@ public class Cache {
   private static final String PATIENT_IDENTIFIER_CACHE_NAME = "patient-identifier";
   public static final String DOCUMENT_CACHE_NAME = "document";
   public static final String VACCINATION_RECORDS_CACHE_NAME = "vaccination-records";
-  private HazelcastInstance hazelcast;
+  static final String DOCUMENT_CONTENT_CACHE_NAME = "document-content";
+  static final String DOCUMENT_SYNC_CACHE_NAME = "document-sync";
+  private static final int DEFAULT_VACCINATION_RECORDS_TTL_IN_SECONDS = 60;
+  private static final int DEFAULT_DOCUMENT_CONTENT_TTL_IN_SECONDS = 3600;
+  private static final int DEFAULT_MAX_PARSED_PATIENTS = 10000;
+  private static final Set<String> NEAR_CACHED_MAPS = Set.of(DOCUMENT_CACHE_NAME, PATIENT_IDENTIFIER_CACHE_NAME);
+  static final String HAZELCAST_TYPE = "hazelcast";
+  static final String HAZELCAST_CLIENT_TYPE = "hazelcast-client";
+  static final String LOCAL_TYPE = "local";
+  private CacheBackend backend;
+  private CacheBackend vaccinationRecordsBackend;
+  private ParsedDocumentCache parsedDocuments;
+  private PatientIdentifierCache patientIdentifiers;
+  private DocumentCompressor compressor;
+  private final Map<CacheIdentifierKey, CompletableFuture<List<EPRDocument>>> runningLoads = new ConcurrentHashMap<>();
+  private final Map<String, Timer> readTimers = new ConcurrentHashMap<>();
+
+  @Autowired
+  private ObjectMapper objectMapper;
+  @Autowired
+  @Qualifier(ExecutorConfig.REFRESH_EXECUTOR)
+  private ExecutorService refreshExecutor;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Autowired
+  private CacheConfig cacheConfig;
 
   @Value("${epdbackend.cache.enabled:false}")
   private boolean isCacheEnabled;
+  @Value("${epdbackend.cache.type:" + HAZELCAST_TYPE + "}")
+  private String cacheType;
   @Value("${epdbackend.cache.clustername:vaccination-module-cache}")
   private String clustername;
   @Value("${epdbackend.cache.ttlInSeconds:300}")
   private int cacheTTLInSeconds;
-  private int vaccinationRecordsTTLInSeconds = 60;
+  @Value("${epdbackend.cache.loadLockLeaseInSeconds:120}")
+  private int loadLockLeaseInSeconds;
+  @Value("${epdbackend.cache.compression.enabled:true}")
+  private boolean isCompressionEnabled;
+  @Value("${epdbackend.cache.compression.thresholdInBytes:1024}")
+  private int compressionThresholdInBytes;
+  @Value("${epdbackend.cache.compression.level:6}")
+  private int compressionLevel;
+  @Value("${epdbackend.cache.refreshAhead.enabled:false}")
+  private boolean isRefreshAheadEnabled;
+  @Value("${epdbackend.cache.refreshAhead.maxStaleInSeconds:60}")
+  private int maxStaleInSeconds;
+  @Value("${epdbackend.cache.sync.enabled:true}")
+  private boolean isSyncEnabled;
+  @Value("${epdbackend.cache.sync.fullSyncIntervalInSeconds:1800}")
+  private int fullSyncIntervalInSeconds;
 
   public CacheIdentifierKey createCacheIdentifier(PatientIdentifier patientIdentifier) {
     AuthorDTO author = HttpSessionUtils.getAuthorFromSession();
@@ -61,9 +147,13 @@ public class Cache {
 
   public void clear() {
     log.debug("Clearing both patient identifier and document cache.");
-    hazelcast.getMap(PATIENT_IDENTIFIER_CACHE_NAME).clear();
-    hazelcast.getMap(DOCUMENT_CACHE_NAME).clear();
-    hazelcast.getMap(VACCINATION_RECORDS_CACHE_NAME).clear();
+    backend.clear(PATIENT_IDENTIFIER_CACHE_NAME);
+    backend.clear(DOCUMENT_CACHE_NAME);
+    backend.clear(DOCUMENT_CONTENT_CACHE_NAME);
+    backend.clear(DOCUMENT_SYNC_CACHE_NAME);
+    vaccinationRecordsBackend.clear(VACCINATION_RECORDS_CACHE_NAME);
+    parsedDocuments.clear();
+    patientIdentifiers.clear();
   }
 
   /**
@@ -74,8 +164,13 @@ public class Cache {
    */
   public void clear(CacheIdentifierKey cacheIdentifier, String cacheName) {
     log.debug("Clearing document cache for {}.", cacheIdentifier);
-    Map<CacheIdentifierKey, List<String>> mapDocument = hazelcast.getMap(cacheName);
-    mapDocument.remove(cacheIdentifier);
+    getBackend(cacheName).remove(cacheName, cacheIdentifier);
+    if (DOCUMENT_CACHE_NAME.equals(cacheName)) {
+      parsedDocuments.clear(cacheIdentifier);
+      // e.g. an emergency access may show documents not returned by the last registry query
+      backend.remove(DOCUMENT_SYNC_CACHE_NAME, getSyncKey(cacheIdentifier, true));
+      backend.remove(DOCUMENT_SYNC_CACHE_NAME, getSyncKey(cacheIdentifier, false));
+    }
   }
 
   public void clear(CacheIdentifierKey cacheIdentifier) {
@@ -83,17 +178,25 @@ public class Cache {
   }
 
   public boolean dataCacheMiss(CacheIdentifierKey cacheIdentifier) {
-    Map<CacheIdentifierKey, List<String>> map = hazelcast.getMap(DOCUMENT_CACHE_NAME);
-    boolean miss = !map.containsKey(cacheIdentifier);
+    boolean miss = !backend.containsKey(DOCUMENT_CACHE_NAME, cacheIdentifier);
     if (!miss) {
       log.debug("Missed cache entry for {}", cacheIdentifier);
     }
     return miss;
   }
 
+  /**
+   * @return UTF-8 size divided by compressed size of the documents compressed by this member.
+   */
+  public double getCompressionRatio() {
+    return compressor.getCompressionRatio();
+  }
+
   public List<EPRDocument> getData(CacheIdentifierKey identifier, String cacheName) {
-    Map<CacheIdentifierKey, List<EPRDocument>> map = hazelcast.getMap(cacheName);
-    List<EPRDocument> documents = getData(map, identifier);
+    List<EPRDocument> cachedDocuments = DOCUMENT_CACHE_NAME.equals(cacheName)
+        ? readDocuments(identifier)
+        : read(cacheName, identifier);
+    List<EPRDocument> documents = cachedDocuments != null ? new ArrayList<>(cachedDocuments) : new ArrayList<>();
     log.debug("Load cache data for {}. Found {} entries", identifier, documents.size());
     return documents;
   }
@@ -102,64 +205,633 @@ public class Cache {
     return getData(identifier, DOCUMENT_CACHE_NAME);
   }
 
+  /**
+   * Reads the documents of a patient with a single cache access, instead of checking
+   * {@link #dataCacheMiss(CacheIdentifierKey)} before calling {@link #getData(CacheIdentifierKey)}.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @return the cached documents or <code>null</code> if the documents of the patient are not cached.
+   */
+  public List<EPRDocument> getDataIfPresent(CacheIdentifierKey identifier) {
+    List<EPRDocument> cachedDocuments = readDocuments(identifier);
+    if (cachedDocuments == null) {
+      log.debug("Missed cache entry for {}", identifier);
+      return null;
+    }
+
+    log.debug("Load cache data for {}. Found {} entries", identifier, cachedDocuments.size());
+    return cachedDocuments;
+  }
+
+  /**
+   * Reads the documents of a patient like {@link #getDataIfPresent(CacheIdentifierKey)}. If
+   * refresh-ahead is enabled and the documents are stale, they are returned nevertheless and
+   * refreshed in the background on the refresh executor. A refresh is a load like
+   * {@link #loadData(CacheIdentifierKey, Supplier)}: it is skipped while a load of the entry is
+   * running on this member, and it holds the lock of the entry, so other members do not refresh the
+   * entry at the same time. If the executor is busy, the refresh is skipped.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @param refresh reloads the documents and replaces them by {@link #replaceAll(CacheIdentifierKey, List)},
+   *        <code>null</code> if the documents cannot be refreshed, e.g. because the assertion expires
+   * @return the cached documents or <code>null</code> if the documents of the patient are not cached.
+   */
+  public List<EPRDocument> getDataIfPresent(CacheIdentifierKey identifier, Supplier<List<EPRDocument>> refresh) {
+    List<EPRDocument> documents = getDataIfPresent(identifier);
+    if (documents == null) {
+      countDocumentRequest("miss");
+      return null;
+    }
+
+    if (!isRefreshAheadEnabled || !isStale(identifier)) {
+      countDocumentRequest("hit");
+      return documents;
+    }
+
+    countDocumentRequest("stale");
+    if (refresh == null) {
+      countRefresh("skipped");
+    } else if (!runningLoads.containsKey(identifier)) {
+      try {
+        refreshExecutor.execute(() -> refresh(identifier, refresh));
+      } catch (RejectedExecutionException ex) {
+        countRefresh("rejected");
+      }
+    }
+    return documents;
+  }
+
+  /**
+   * Returns the stored documents of the given registry entries, no matter for which patient and
+   * author they were loaded. Only entries the current author is allowed to see, e.g. the entries
+   * returned by the registry query of this author, may be passed, so the documents need not be
+   * retrieved again. A stored document is only returned if its hash matches the hash of the entry.
+   *
+   * @param documentEntries registry entries of the documents
+   * @return copies of the stored documents by their unique id, documents not stored are missing
+   */
+  public Map<String, EPRDocument> getDocuments(List<DocumentEntry> documentEntries) {
+    if (!isCacheEnabled || documentEntries.isEmpty()) {
+      return Map.of();
+    }
+
+    Map<String, DocumentEntry> entriesByUniqueId = documentEntries.stream()
+        .filter(entry -> entry.getUniqueId() != null)
+        .collect(Collectors.toMap(DocumentEntry::getUniqueId, Function.identity(), (first, second) -> first));
+    Map<String, EPRDocument> documents = new HashMap<>();
+    long savedBytes = 0;
+    Map<String, EPRDocument> storedDocuments =
+        backend.getAll(DOCUMENT_CONTENT_CACHE_NAME, entriesByUniqueId.keySet());
+    for (Map.Entry<String, EPRDocument> storedDocument : storedDocuments.entrySet()) {
+      DocumentEntry entry = entriesByUniqueId.get(storedDocument.getKey());
+      if (isSameDocument(entry, storedDocument.getValue())) {
+        documents.put(storedDocument.getKey(), withContent(storedDocument.getValue(), storedDocument.getValue()));
+        savedBytes += entry.getSize() != null ? entry.getSize() : 0;
+      }
+    }
+
+    log.debug("Found {} of {} documents in the cache", documents.size(), entriesByUniqueId.size());
+    countDocumentContentRequests("hit", documents.size());
+    countDocumentContentRequests("miss", entriesByUniqueId.size() - documents.size());
+    Counter.builder("cache.document.content.saved.bytes")
+        .description("Registered size of the documents served from the cache instead of the repository")
+        .register(meterRegistry).increment(savedBytes);
+    if (!documents.isEmpty() && documents.size() == entriesByUniqueId.size()) {
+      Counter.builder("cache.document.content.saved.requests")
+          .description("Retrieve requests not sent, as all documents were served from the cache")
+          .register(meterRegistry).increment();
+    }
+    return documents;
+  }
+
+  /**
+   * Returns the registry entries of a patient known by the last registry query of a repository, so
+   * only the entries created since this query have to be queried.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @param useInternal whether the entries of the internal or the external repository are requested
+   * @return the state or <code>null</code> if all entries have to be queried, because they were not
+   *         queried yet or the last query of all entries is older than
+   *         <code>epdbackend.cache.sync.fullSyncIntervalInSeconds</code>.
+   */
+  public DocumentSyncState getSyncState(CacheIdentifierKey identifier, boolean useInternal) {
+    if (!isCacheEnabled || !isSyncEnabled) {
+      return null;
+    }
+
+    DocumentSyncState syncState = backend.get(DOCUMENT_SYNC_CACHE_NAME, getSyncKey(identifier, useInternal));
+    if (syncState == null
+        || syncState.getFullySyncedAt().plusSeconds(fullSyncIntervalInSeconds).isBefore(Instant.now())) {
+      countSync("full");
+      return null;
+    }
+
+    countSync("delta");
+    return syncState;
+  }
+
+  /**
+   * Loads the documents of a patient exactly once, even if several requests ask for the same
+   * {@link CacheIdentifierKey} concurrently. Requests on this member wait for the running load and
+   * share its result. If the cache is enabled, the load is additionally guarded by the lock of the
+   * document cache entry, so other members of a cluster wait as well and read the documents from the
+   * cache once they are available.
+   * <p>
+   * The loader is responsible for storing the documents in the document cache.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @param loader loads the documents from the EPD and stores them in the cache
+   * @return the loaded documents, each caller receives its own list
+   */
+  public List<EPRDocument> loadData(CacheIdentifierKey identifier, Supplier<List<EPRDocument>> loader) {
+    CompletableFuture<List<EPRDocument>> load = new CompletableFuture<>();
+    CompletableFuture<List<EPRDocument>> runningLoad = runningLoads.putIfAbsent(identifier, load);
+    if (runningLoad != null) {
+      log.debug("Wait for running load of {}", identifier);
+      return new ArrayList<>(join(runningLoad));
+    }
+
+    try {
+      List<EPRDocument> documents = isCacheEnabled ? loadDataWithLock(identifier, loader) : loader.get();
+      load.complete(documents);
+      return new ArrayList<>(documents);
+    } catch (RuntimeException ex) {
+      load.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      runningLoads.remove(identifier, load);
+    }
+  }
+
+  /**
+   * Returns the entities which were already extracted from a cached document.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @param documentUniqueId unique id of the document
+   * @param dtoClass requested entity class, {@link BaseDTO} for all entities of the document
+   * @return copies of the cached entities or <code>null</code> if the document was not parsed yet.
+   */
+  public <T extends BaseDTO> List<T> getParsedData(CacheIdentifierKey identifier, String documentUniqueId,
+      Class<T> dtoClass) {
+    if (!isCacheEnabled) {
+      return null;
+    }
+
+    return parsedDocuments.get(identifier, documentUniqueId, dtoClass);
+  }
+
+  /**
+   * Returns the unique ids of the cached documents containing the entity with the given id. Only
+   * documents for which {@link #isIndexed(CacheIdentifierKey, String)} is true are considered.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @param resourceId id of the entity
+   * @param includeReferences also return the documents with entities whose related id is the given id
+   * @return the unique ids of the documents
+   */
+  public Set<String> getDocumentUniqueIds(CacheIdentifierKey identifier, String resourceId,
+      boolean includeReferences) {
+    if (!isCacheEnabled) {
+      return Set.of();
+    }
+
+    return parsedDocuments.getDocumentUniqueIds(identifier, resourceId, includeReferences);
+  }
+
+  /**
+   * Returns the identifier of a patient. If it is neither cached on this member nor in the cluster,
+   * it is resolved by the given PDQ query, concurrent lookups of the same patient share this query.
+   * Patients unknown to the community are remembered for
+   * <code>epdbackend.cache.patientIdentifiers.notFoundTtlInSeconds</code>.
+   *
+   * @param communityIdentifier community of the patient, defines the time to live of the identifier
+   * @param localAssigningAuthorityId local assigning authority of the patient
+   * @param localId local id of the patient
+   * @param pdqQuery returns the identifier or <code>null</code> if the patient is unknown
+   * @return the identifier or <code>null</code> if the patient is unknown
+   */
+  public PatientIdentifier getPatientIdentifier(String communityIdentifier, String localAssigningAuthorityId,
+      String localId, Supplier<PatientIdentifier> pdqQuery) {
+    if (!isCacheEnabled) {
+      return queryPatientIdentifier(pdqQuery);
+    }
+
+    CacheIdentifierKey key = new CacheIdentifierKey(localAssigningAuthorityId, localId, null);
+    return patientIdentifiers.get(communityIdentifier, key, () -> {
+      PatientIdentifier patientIdentifier = read(PATIENT_IDENTIFIER_CACHE_NAME, key);
+      if (patientIdentifier != null) {
+        countPatientIdentifierRequest("cluster");
+        return patientIdentifier;
+      }
+
+      countPatientIdentifierRequest("miss");
+      patientIdentifier = queryPatientIdentifier(pdqQuery);
+      if (patientIdentifier != null) {
+        putPatientIdentifier(patientIdentifier);
+      }
+      return patientIdentifier;
+    });
+  }
+
   public PatientIdentifier getPatientIdentifier(String localAssigningAuthorityId, String localId) {
     CacheIdentifierKey key = new CacheIdentifierKey(localAssigningAuthorityId, localId, null);
     log.debug("Load cache data for {}", key);
-    Map<CacheIdentifierKey, PatientIdentifier> map = hazelcast.getMap(PATIENT_IDENTIFIER_CACHE_NAME);
-    return map.get(key);
+    return read(PATIENT_IDENTIFIER_CACHE_NAME, key);
   }
 
   public boolean isEnabled() {
     return isCacheEnabled;
   }
 
+  /**
+   * Returns whether all entities of a cached document are indexed by their id.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @param documentUniqueId unique id of the document
+   * @return true, if the document can be found by {@link #getDocumentUniqueIds(CacheIdentifierKey, String, boolean)}
+   */
+  public boolean isIndexed(CacheIdentifierKey identifier, String documentUniqueId) {
+    return isCacheEnabled && parsedDocuments.isIndexed(identifier, documentUniqueId);
+  }
+
+  /**
+   * Appends documents to the cache entry in one atomic operation. Documents without content are
+   * skipped, but the entry is created anyway so the documents of the patient are not reloaded.
+   * <p>
+   * The content of documents with a unique id is put into the document store, the entry of the
+   * patient only references it.
+   *
+   * @param cacheIdentifier {@link CacheIdentifierKey}
+   * @param documents documents to append
+   * @param cacheName name of the cache
+   */
+  public void putAll(CacheIdentifierKey cacheIdentifier, List<EPRDocument> documents, String cacheName) {
+    List<EPRDocument> eprDocuments = documents.stream()
+        .filter(EPRDocument::hasContent)
+        .map(document -> DOCUMENT_CACHE_NAME.equals(cacheName) ? storeContent(document) : document)
+        .toList();
+    int size = getBackend(cacheName).append(cacheName, cacheIdentifier, eprDocuments);
+    log.debug("Save cache data for {}. Number of entries: {}", cacheIdentifier, size);
+  }
+
+  public void putAll(CacheIdentifierKey cacheIdentifier, List<EPRDocument> documents) {
+    putAll(cacheIdentifier, documents, DOCUMENT_CACHE_NAME);
+  }
+
+  /**
+   * Replaces the cached documents of a patient, e.g. after they were refreshed. The time to live of
+   * the entry starts again.
+   *
+   * @param cacheIdentifier {@link CacheIdentifierKey}
+   * @param documents documents replacing the cached ones, documents without content are skipped
+   */
+  public void replaceAll(CacheIdentifierKey cacheIdentifier, List<EPRDocument> documents) {
+    List<EPRDocument> eprDocuments = documents.stream()
+        .filter(EPRDocument::hasContent)
+        .map(this::storeContent)
+        .collect(Collectors.toCollection(ArrayList::new));
+    backend.put(DOCUMENT_CACHE_NAME, cacheIdentifier, eprDocuments);
+    log.debug("Replaced cache data for {}. Number of entries: {}", cacheIdentifier, eprDocuments.size());
+  }
+
   public void putData(CacheIdentifierKey cacheIdentifier, EPRDocument document, String cacheName) {
-    Map<CacheIdentifierKey, List<EPRDocument>> map = hazelcast.getMap(cacheName);
-    List<EPRDocument> eprDocuments = getData(map, cacheIdentifier);
-    if (document.getJsonOrXmlFhirContent() != null) {
-      eprDocuments.add(document);
-    }
-    log.debug("Save cache data for {}. Number of entries: {}", cacheIdentifier, eprDocuments.size());
-    map.put(cacheIdentifier, eprDocuments);
+    putAll(cacheIdentifier, List.of(document), cacheName);
   }
 
   public void putData(CacheIdentifierKey cacheIdentifier, EPRDocument document) {
     putData(cacheIdentifier, document, DOCUMENT_CACHE_NAME);
   }
 
+  /**
+   * Stores the entities extracted from a cached document, grouped by their class. The entry of
+   * {@link BaseDTO} contains all entities of the document.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @param documentUniqueId unique id of the document
+   * @param dtosByClass extracted entities, must not be modified afterwards
+   */
+  public void putParsedData(CacheIdentifierKey identifier, String documentUniqueId,
+      Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass) {
+    if (isCacheEnabled) {
+      parsedDocuments.put(identifier, documentUniqueId, dtosByClass);
+    }
+  }
+
+  /**
+   * Stores the registry entries of a patient known after a registry query of a repository.
+   *
+   * @param identifier {@link CacheIdentifierKey}
+   * @param useInternal whether the entries of the internal or the external repository were queried
+   * @param syncState {@link DocumentSyncState}
+   */
+  public void putSyncState(CacheIdentifierKey identifier, boolean useInternal, DocumentSyncState syncState) {
+    if (isCacheEnabled && isSyncEnabled) {
+      backend.put(DOCUMENT_SYNC_CACHE_NAME, getSyncKey(identifier, useInternal), syncState);
+    }
+  }
+
   public void putPatientIdentifier(PatientIdentifier patientIdentifier) {
-    Map<CacheIdentifierKey, PatientIdentifier> map = hazelcast.getMap(PATIENT_IDENTIFIER_CACHE_NAME);
     CacheIdentifierKey key = new CacheIdentifierKey(patientIdentifier, null);
     log.debug("Store patient information in cache {}", key);
-    map.put(key, patientIdentifier);
+    backend.put(PATIENT_IDENTIFIER_CACHE_NAME, key, patientIdentifier);
+  }
+
+  private void countPatientIdentifierRequest(String result) {
+    Counter.builder("cache.patient.identifier.requests").tag("result", result)
+        .description("Lookups of patient identifiers, misses are resolved by a PDQ query")
+        .register(meterRegistry).increment();
+  }
+
+  private PatientIdentifier queryPatientIdentifier(Supplier<PatientIdentifier> pdqQuery) {
+    return Timer.builder("pdq.requests").description("Latency of the PDQ queries resolving patient identifiers")
+        .register(meterRegistry).record(pdqQuery);
+  }
+
+  private void countDocumentContentRequests(String result, int count) {
+    Counter.builder("cache.document.content.requests").tag("result", result)
+        .description("Documents listed by a registry query, misses are retrieved from the repository")
+        .register(meterRegistry).increment(count);
+  }
+
+  private void countDocumentRequest(String result) {
+    Counter.builder("cache.document.requests").tag("result", result)
+        .description("Requests of the documents of a patient, stale documents are refreshed")
+        .register(meterRegistry).increment();
+  }
+
+  private void countSync(String type) {
+    Counter.builder("cache.document.sync.requests").tag("type", type)
+        .description("Registry queries of all entries of a patient or of the entries created since the last query")
+        .register(meterRegistry).increment();
+  }
+
+  private static String getSyncKey(CacheIdentifierKey identifier, boolean useInternal) {
+    return identifier.getOid() + "|" + identifier.getLocalId() + "|" + identifier.getGln() + "|"
+        + (useInternal ? "internal" : "external");
+  }
+
+  private void countRefresh(String outcome) {
+    Counter.builder("cache.document.refreshes").tag("outcome", outcome)
+        .description("Background refreshes of stale documents").register(meterRegistry).increment();
+  }
+
+  /**
+   * @return true, if the entry is within the stale window before it expires.
+   */
+  private boolean isStale(CacheIdentifierKey identifier) {
+    long expirationTime = backend.getExpirationTime(DOCUMENT_CACHE_NAME, identifier);
+    return expirationTime > 0
+        && expirationTime - System.currentTimeMillis() < TimeUnit.SECONDS.toMillis(maxStaleInSeconds);
+  }
+
+  private void refresh(CacheIdentifierKey identifier, Supplier<List<EPRDocument>> refresh) {
+    CompletableFuture<List<EPRDocument>> load = new CompletableFuture<>();
+    if (runningLoads.putIfAbsent(identifier, load) != null) {
+      log.debug("Documents of {} are loaded already.", identifier);
+      return;
+    }
+
+    try {
+      List<EPRDocument> documents = backend.executeLocked(DOCUMENT_CACHE_NAME, identifier, () -> {
+        List<EPRDocument> cachedDocuments = getDataIfPresent(identifier);
+        if (cachedDocuments != null && !isStale(identifier)) {
+          log.debug("Documents of {} were refreshed by another member.", identifier);
+          countRefresh("skipped");
+          return cachedDocuments;
+        }
+        List<EPRDocument> refreshedDocuments = refresh.get();
+        countRefresh("success");
+        log.debug("Refreshed documents of {}", identifier);
+        return refreshedDocuments;
+      });
+      load.complete(documents);
+    } catch (RuntimeException ex) {
+      countRefresh("failure");
+      log.warn("Refreshing documents of {} failed: {}", identifier, ex.getMessage());
+      load.completeExceptionally(ex);
+    } finally {
+      runningLoads.remove(identifier, load);
+    }
+  }
+
+  private List<EPRDocument> join(CompletableFuture<List<EPRDocument>> runningLoad) {
+    try {
+      return runningLoad.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw ex;
+    }
+  }
+
+  private List<EPRDocument> loadDataWithLock(CacheIdentifierKey identifier, Supplier<List<EPRDocument>> loader) {
+    return backend.executeLocked(DOCUMENT_CACHE_NAME, identifier, () -> {
+      List<EPRDocument> documents = getDataIfPresent(identifier);
+      if (documents != null) {
+        log.debug("Documents of {} were loaded by another member.", identifier);
+        return documents;
+      }
+      return loader.get();
+    });
+  }
+
+  /**
+   * Reads the documents referenced by the entry of a patient from the document store. If one of them
+   * was evicted or expired meanwhile, the entry is removed, so the documents are loaded again.
+   *
+   * @return copies of the documents or <code>null</code> if they are not cached completely.
+   */
+  private List<EPRDocument> readDocuments(CacheIdentifierKey identifier) {
+    List<EPRDocument> references = read(DOCUMENT_CACHE_NAME, identifier);
+    if (references == null) {
+      return null;
+    }
+
+    Set<String> documentUniqueIds = references.stream()
+        .filter(reference -> !reference.hasContent())
+        .map(EPRDocument::getDocumentUniqueId)
+        .collect(Collectors.toSet());
+    Map<String, EPRDocument> contents = documentUniqueIds.isEmpty()
+        ? Map.of()
+        : backend.getAll(DOCUMENT_CONTENT_CACHE_NAME, documentUniqueIds);
+    List<EPRDocument> documents = new ArrayList<>(references.size());
+    for (EPRDocument reference : references) {
+      if (reference.hasContent()) {
+        // copied, so the stored document is not decompressed by the caller
+        documents.add(withContent(reference, reference));
+        continue;
+      }
+
+      EPRDocument content = contents.get(reference.getDocumentUniqueId());
+      if (content == null) {
+        log.debug("Document {} of {} is no longer cached.", reference.getDocumentUniqueId(), identifier);
+        backend.remove(DOCUMENT_CACHE_NAME, identifier);
+        return null;
+      }
+      documents.add(withContent(reference, content));
+    }
+    return documents;
+  }
+
+  /**
+   * Puts the document into the document store, if it has a unique id. The content is compressed
+   * before, so every backend stores the compressed content.
+   *
+   * @return the reference to store in the entry of the patient or the compressed document itself, if
+   *         it has no unique id
+   */
+  private EPRDocument storeContent(EPRDocument document) {
+    EPRDocument compressedDocument = compress(document);
+    if (document.getDocumentUniqueId() == null) {
+      return compressedDocument;
+    }
+
+    backend.put(DOCUMENT_CONTENT_CACHE_NAME, document.getDocumentUniqueId(), compressedDocument);
+    return new EPRDocument(document.isTrusted(), null, null, document.getCreationDate(),
+        document.getDocumentUniqueId());
+  }
+
+  /**
+   * Creates a copy of the document with compressed content, the document itself is still used by
+   * the caller and is therefore not changed.
+   */
+  private EPRDocument compress(EPRDocument document) {
+    EPRDocument compressedDocument = new EPRDocument(document.isTrusted(), null, null, document.getCreationDate(),
+        document.getDocumentUniqueId());
+    compressedDocument.setDocumentHash(document.getDocumentHash());
+    byte[] compressedContent = document.getCompressedJsonOrXmlFhirContent();
+    if (compressedContent == null) {
+      String content = document.getJsonOrXmlFhirContent();
+      compressedContent = compressor.compress(content);
+      if (compressedContent == null) {
+        compressedDocument.setJsonOrXmlFhirContent(content);
+        return compressedDocument;
+      }
+    }
+    compressedDocument.setCompressedJsonOrXmlFhirContent(compressedContent);
+    return compressedDocument;
+  }
+
+  /** Whether the stored document has the hash of the entry, a missing hash matches any document. */
+  private static boolean isSameDocument(DocumentEntry entry, EPRDocument document) {
+    return entry.getHash() == null || document.getDocumentHash() == null
+        || entry.getHash().equalsIgnoreCase(document.getDocumentHash());
+  }
+
+  /**
+   * Creates a document with the metadata of the reference and the content of the stored document.
+   * Compressed content is shared, it is only decompressed by the copy when accessed.
+   */
+  private static EPRDocument withContent(EPRDocument reference, EPRDocument content) {
+    EPRDocument document = new EPRDocument(reference.isTrusted(), null, null, reference.getCreationDate(),
+        reference.getDocumentUniqueId());
+    document.setDocumentHash(content.getDocumentHash());
+    byte[] compressedContent = content.getCompressedJsonOrXmlFhirContent();
+    if (compressedContent != null) {
+      document.setCompressedJsonOrXmlFhirContent(compressedContent);
+    } else {
+      document.setJsonOrXmlFhirContent(content.getJsonOrXmlFhirContent());
+    }
+    return document;
+  }
+
+  /**
+   * Reads an entry and records the latency, tagged by whether this member owns the entry.
+   */
+  private <V> V read(String cacheName, CacheIdentifierKey key) {
+    CacheBackend cacheBackend = getBackend(cacheName);
+    String owner = cacheBackend.isLocal(cacheName, key) ? "local" : "remote";
+    Timer timer = readTimers.computeIfAbsent(cacheName + "/" + owner, name -> Timer.builder("cache.reads")
+        .tag("cache", cacheName)
+        .tag("owner", owner)
+        .description("Latency of cache reads, remote reads may be served by the near cache")
+        .register(meterRegistry));
+    return timer.record(() -> cacheBackend.<V>get(cacheName, key));
+  }
+
+  private CacheBackend getBackend(String cacheName) {
+    return VACCINATION_RECORDS_CACHE_NAME.equals(cacheName) ? vaccinationRecordsBackend : backend;
   }
 
-  private List<EPRDocument> getData(Map<CacheIdentifierKey, List<EPRDocument>> map,
-      CacheIdentifierKey key) {
-    List<EPRDocument> eprDocuments = map.get(key);
-    if (eprDocuments == null) {
-      eprDocuments = new ArrayList<>();
+  private CacheBackend createBackend(Map<String, CacheMapConfig> mapConfigs) {
+    return switch (cacheType) {
+      case HAZELCAST_TYPE -> new HazelcastCacheBackend(clustername, mapConfigs, NEAR_CACHED_MAPS, compressor,
+          loadLockLeaseInSeconds);
+      case HAZELCAST_CLIENT_TYPE -> new HazelcastClientCacheBackend(clustername, mapConfigs, cacheConfig.getClient(),
+          NEAR_CACHED_MAPS, compressor, loadLockLeaseInSeconds);
+      case LOCAL_TYPE -> new LocalCacheBackend(mapConfigs);
+      default -> throw new IllegalStateException("Unknown cache type " + cacheType);
+    };
+  }
+
+  private CacheMapConfig getMapConfig(String cacheName, int defaultTtlInSeconds) {
+    return new CacheMapConfig(cacheConfig.getMap(cacheName), defaultTtlInSeconds);
+  }
+
+  /**
+   * Returns the config of a map holding documents, whose entries are kept for the stale window if
+   * refresh-ahead is enabled.
+   */
+  private CacheMapConfig getDocumentMapConfig(String cacheName, int defaultTtlInSeconds) {
+    CacheMapConfig mapConfig = getMapConfig(cacheName, defaultTtlInSeconds);
+    if (isRefreshAheadEnabled) {
+      mapConfig.setTtlInSeconds(mapConfig.getTtlInSeconds() + maxStaleInSeconds);
     }
-    return eprDocuments;
+    return mapConfig;
+  }
+
+  private void registerEvictionCounter(String cacheName) {
+    Counter evictions = Counter.builder("cache.evictions").tag("cache", cacheName)
+        .description("Entries evicted because the cache map reached its size limit").register(meterRegistry);
+    getBackend(cacheName).addEvictionListener(cacheName, evictions::increment);
   }
 
   @PostConstruct
   private void init() {
-    log.info("Cache enabled: " + (isCacheEnabled));
-    Config config = Config.load();
-    config.setClusterName(clustername);
-    MapConfig patientMapConfig = config.getMapConfig(PATIENT_IDENTIFIER_CACHE_NAME);
-    patientMapConfig
-        .setBackupCount(0)
-        .setTimeToLiveSeconds(isCacheEnabled ? cacheTTLInSeconds : 1);
-    MapConfig documentMapConfig = config.getMapConfig(DOCUMENT_CACHE_NAME);
-    documentMapConfig
-        .setBackupCount(0)
-        .setTimeToLiveSeconds(isCacheEnabled ? cacheTTLInSeconds : 1);
-    MapConfig vaccinationRecordsMapConfig = config.getMapConfig(VACCINATION_RECORDS_CACHE_NAME);
-    vaccinationRecordsMapConfig
-        .setBackupCount(0)
-        .setTimeToLiveSeconds(vaccinationRecordsTTLInSeconds);
-    hazelcast = Hazelcast.newHazelcastInstance(config);
+    log.info("Cache enabled: {}, type: {}, refresh-ahead: {}", isCacheEnabled, cacheType, isRefreshAheadEnabled);
+    shutdown();
+    compressor = new DocumentCompressor(isCompressionEnabled, compressionThresholdInBytes, compressionLevel);
+    CacheMapConfig vaccinationRecordsConfig =
+        getMapConfig(VACCINATION_RECORDS_CACHE_NAME, DEFAULT_VACCINATION_RECORDS_TTL_IN_SECONDS);
+    CacheMapConfig documentConfig = getDocumentMapConfig(DOCUMENT_CACHE_NAME, cacheTTLInSeconds);
+    if (isCacheEnabled) {
+      backend = createBackend(Map.of(
+          PATIENT_IDENTIFIER_CACHE_NAME, getMapConfig(PATIENT_IDENTIFIER_CACHE_NAME, cacheTTLInSeconds),
+          DOCUMENT_CACHE_NAME, documentConfig,
+          DOCUMENT_CONTENT_CACHE_NAME, getDocumentMapConfig(DOCUMENT_CONTENT_CACHE_NAME,
+              Math.max(cacheTTLInSeconds, DEFAULT_DOCUMENT_CONTENT_TTL_IN_SECONDS)),
+          DOCUMENT_SYNC_CACHE_NAME, getMapConfig(DOCUMENT_SYNC_CACHE_NAME,
+              Math.max(cacheTTLInSeconds, DEFAULT_DOCUMENT_CONTENT_TTL_IN_SECONDS)),
+          VACCINATION_RECORDS_CACHE_NAME, vaccinationRecordsConfig));
+      vaccinationRecordsBackend = backend;
+    } else {
+      backend = new NoOpCacheBackend();
+      vaccinationRecordsBackend = new LocalCacheBackend(Map.of(VACCINATION_RECORDS_CACHE_NAME, vaccinationRecordsConfig));
+    }
+
+    parsedDocuments = new ParsedDocumentCache(objectMapper,
+        documentConfig.getMaxEntries() > 0 ? documentConfig.getMaxEntries() : DEFAULT_MAX_PARSED_PATIENTS,
+        documentConfig.getTtlInSeconds());
+    patientIdentifiers =
+        new PatientIdentifierCache(cacheConfig.getPatientIdentifiers(), this::countPatientIdentifierRequest);
+    backend.addRemovalListener(DOCUMENT_CACHE_NAME, parsedDocuments::clear, parsedDocuments::clear);
+    registerEvictionCounter(PATIENT_IDENTIFIER_CACHE_NAME);
+    registerEvictionCounter(DOCUMENT_CACHE_NAME);
+    registerEvictionCounter(DOCUMENT_CONTENT_CACHE_NAME);
+    registerEvictionCounter(DOCUMENT_SYNC_CACHE_NAME);
+    registerEvictionCounter(VACCINATION_RECORDS_CACHE_NAME);
+    Gauge.builder("cache.document.compression.ratio", this, Cache::getCompressionRatio)
+        .description("UTF-8 size divided by compressed size of the cached documents").register(meterRegistry);
+  }
+
+  @PreDestroy
+  private void shutdown() {
+    if (backend != null) {
+      backend.shutdown();
+    }
+    if (vaccinationRecordsBackend != null && vaccinationRecordsBackend != backend) {
+      vaccinationRecordsBackend.shutdown();
+    }
   }
 }
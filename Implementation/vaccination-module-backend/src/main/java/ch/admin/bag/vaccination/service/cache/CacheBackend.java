@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.data.request.EPRDocument;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Storage behind the {@link Cache}. A backend consists of named maps, the expiry and size limits of
+ * each map are given when the backend is created. Which backend is used is configured by
+ * <code>epdbackend.cache.type</code>.
+ */
+public interface CacheBackend {
+
+  /**
+   * Adds documents to the list stored for the key in one atomic operation. The entry is created if
+   * it does not exist yet, even if there is nothing to add.
+   *
+   * @return the number of documents stored for the key afterwards
+   */
+  int append(String cacheName, CacheIdentifierKey key, List<EPRDocument> documents);
+
+  /**
+   * Registers callbacks called when an entry of a map is removed, evicted or expires, or the whole
+   * map is cleared. They are not called when an entry is replaced.
+   *
+   * @param onRemoved called with the key of the removed entry
+   * @param onCleared called after the map was cleared
+   */
+  void addRemovalListener(String cacheName, Consumer<CacheIdentifierKey> onRemoved, Runnable onCleared);
+
+  /**
+   * Registers a callback called whenever an entry of this member is evicted because the map reached
+   * its size limit. A client of a cluster is called for the evictions of all members.
+   */
+  void addEvictionListener(String cacheName, Runnable onEvicted);
+
+  void clear(String cacheName);
+
+  boolean containsKey(String cacheName, Object key);
+
+  /**
+   * Executes the action while holding the lock of the key. Backends not shared with other members
+   * do not need a lock and simply execute the action.
+   */
+  <T> T executeLocked(String cacheName, CacheIdentifierKey key, Supplier<T> action);
+
+  <V> V get(String cacheName, Object key);
+
+  /**
+   * Reads several entries of a map, backends shared with other members read them with one call per
+   * member instead of one call per key.
+   *
+   * @return the values of the keys found in the map
+   */
+  <K, V> Map<K, V> getAll(String cacheName, Set<K> keys);
+
+  /**
+   * @return the time in epoch milliseconds at which the entry expires, 0 if the entry does not exist
+   */
+  long getExpirationTime(String cacheName, Object key);
+
+  /**
+   * @return true, if the entry is owned by this member and therefore read without a remote call.
+   */
+  boolean isLocal(String cacheName, Object key);
+
+  void put(String cacheName, Object key, Object value);
+
+  void remove(String cacheName, Object key);
+
+  /**
+   * Releases all resources of the backend, it must not be used afterwards.
+   */
+  void shutdown();
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.data.request.EPRDocument;
+import ch.admin.bag.vaccination.service.cache.DocumentSyncState.SyncedEntry;
+import ch.fhir.epr.adapter.data.PatientIdentifier;
+import ch.fhir.epr.adapter.data.dto.HumanNameDTO;
+import com.hazelcast.config.CompactSerializationConfig;
+import com.hazelcast.nio.serialization.FieldKind;
+import com.hazelcast.nio.serialization.compact.CompactReader;
+import com.hazelcast.nio.serialization.compact.CompactSerializer;
+import com.hazelcast.nio.serialization.compact.CompactWriter;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact serializers of the objects stored in the Hazelcast maps. Compact serialization writes the
+ * field names only once per schema and does not need reflection, which makes entries smaller and
+ * faster to read and write than Java serialization.
+ * <p>
+ * Every change of the fields results in a new schema. Members of a rolling upgrade may therefore
+ * read entries written by an older or newer version: fields added later have to be read with
+ * {@link #readString(CompactReader, String)} or a similar check of the {@link FieldKind}, removed
+ * fields are simply no longer read.
+ */
+final class CacheSerializers {
+
+  private CacheSerializers() {
+  }
+
+  static void register(CompactSerializationConfig config, DocumentCompressor compressor) {
+    config.addSerializer(new CacheIdentifierKeySerializer());
+    config.addSerializer(new DocumentSyncStateSerializer());
+    config.addSerializer(new EPRDocumentSerializer(compressor));
+    config.addSerializer(new HumanNameSerializer());
+    config.addSerializer(new PatientIdentifierSerializer());
+    config.addSerializer(new SyncedEntrySerializer());
+  }
+
+  private static String readString(CompactReader reader, String fieldName) {
+    return reader.getFieldKind(fieldName) == FieldKind.STRING ? reader.readString(fieldName) : null;
+  }
+
+  static class CacheIdentifierKeySerializer implements CompactSerializer<CacheIdentifierKey> {
+    @Override
+    public CacheIdentifierKey read(CompactReader reader) {
+      return new CacheIdentifierKey(reader.readString("oid"), reader.readString("localId"),
+          reader.readString("gln"));
+    }
+
+    @Override
+    public void write(CompactWriter writer, CacheIdentifierKey key) {
+      writer.writeString("oid", key.getOid());
+      writer.writeString("localId", key.getLocalId());
+      writer.writeString("gln", key.getGln());
+    }
+
+    @Override
+    public String getTypeName() {
+      return "CacheIdentifierKey";
+    }
+
+    @Override
+    public Class<CacheIdentifierKey> getCompactClass() {
+      return CacheIdentifierKey.class;
+    }
+  }
+
+  /**
+   * The retrieved document is transient and therefore not part of the cache entry. The content is
+   * either stored as string or compressed, compressed content is only decompressed when it is
+   * accessed.
+   */
+  static class EPRDocumentSerializer implements CompactSerializer<EPRDocument> {
+    private final DocumentCompressor compressor;
+
+    EPRDocumentSerializer(DocumentCompressor compressor) {
+      this.compressor = compressor;
+    }
+
+    @Override
+    public EPRDocument read(CompactReader reader) {
+      EPRDocument document = new EPRDocument(reader.readBoolean("isTrusted"),
+          reader.readString("jsonOrXmlFhirContent"), null, reader.readTimestamp("creationDate"),
+          readString(reader, "documentUniqueId"));
+      document.setDocumentHash(readString(reader, "documentHash"));
+      if (reader.getFieldKind("compressedContent") == FieldKind.ARRAY_OF_INT8) {
+        byte[] compressedContent = reader.readArrayOfInt8("compressedContent");
+        if (compressedContent != null) {
+          document.setCompressedJsonOrXmlFhirContent(compressedContent);
+        }
+      }
+      return document;
+    }
+
+    @Override
+    public void write(CompactWriter writer, EPRDocument document) {
+      byte[] compressedContent = document.getCompressedJsonOrXmlFhirContent();
+      String content = null;
+      if (compressedContent == null) {
+        content = document.getJsonOrXmlFhirContent();
+        compressedContent = compressor.compress(content);
+        if (compressedContent != null) {
+          content = null;
+        }
+      }
+
+      writer.writeBoolean("isTrusted", document.isTrusted());
+      writer.writeString("jsonOrXmlFhirContent", content);
+      writer.writeArrayOfInt8("compressedContent", compressedContent);
+      writer.writeTimestamp("creationDate", document.getCreationDate());
+      writer.writeString("documentUniqueId", document.getDocumentUniqueId());
+      writer.writeString("documentHash", document.getDocumentHash());
+    }
+
+    @Override
+    public String getTypeName() {
+      return "EPRDocument";
+    }
+
+    @Override
+    public Class<EPRDocument> getCompactClass() {
+      return EPRDocument.class;
+    }
+  }
+
+  static class DocumentSyncStateSerializer implements CompactSerializer<DocumentSyncState> {
+    @Override
+    public DocumentSyncState read(CompactReader reader) {
+      return new DocumentSyncState(Instant.ofEpochMilli(reader.readInt64("syncedAt")),
+          Instant.ofEpochMilli(reader.readInt64("fullySyncedAt")),
+          List.of(reader.readArrayOfCompact("entries", SyncedEntry.class)));
+    }
+
+    @Override
+    public void write(CompactWriter writer, DocumentSyncState syncState) {
+      writer.writeInt64("syncedAt", syncState.getSyncedAt().toEpochMilli());
+      writer.writeInt64("fullySyncedAt", syncState.getFullySyncedAt().toEpochMilli());
+      writer.writeArrayOfCompact("entries", syncState.getEntries().toArray(SyncedEntry[]::new));
+    }
+
+    @Override
+    public String getTypeName() {
+      return "DocumentSyncState";
+    }
+
+    @Override
+    public Class<DocumentSyncState> getCompactClass() {
+      return DocumentSyncState.class;
+    }
+  }
+
+  static class SyncedEntrySerializer implements CompactSerializer<SyncedEntry> {
+    @Override
+    public SyncedEntry read(CompactReader reader) {
+      String[] extraMetadataNames = reader.readArrayOfString("extraMetadataNames");
+      String[] extraMetadataValues = reader.readArrayOfString("extraMetadataValues");
+      Map<String, String> extraMetadata = new LinkedHashMap<>();
+      for (int i = 0; i < extraMetadataNames.length; i++) {
+        extraMetadata.put(extraMetadataNames[i], extraMetadataValues[i]);
+      }
+      return new SyncedEntry(reader.readString("uniqueId"), reader.readString("formatCode"),
+          reader.readString("formatCodeSystem"), reader.readString("mimeType"), reader.readString("creationTime"),
+          reader.readString("hash"), reader.readNullableInt64("size"), reader.readString("repositoryUniqueId"),
+          reader.readString("homeCommunityId"), extraMetadata);
+    }
+
+    @Override
+    public void write(CompactWriter writer, SyncedEntry entry) {
+      writer.writeString("uniqueId", entry.uniqueId());
+      writer.writeString("formatCode", entry.formatCode());
+      writer.writeString("formatCodeSystem", entry.formatCodeSystem());
+      writer.writeString("mimeType", entry.mimeType());
+      writer.writeString("creationTime", entry.creationTime());
+      writer.writeString("hash", entry.hash());
+      writer.writeNullableInt64("size", entry.size());
+      writer.writeString("repositoryUniqueId", entry.repositoryUniqueId());
+      writer.writeString("homeCommunityId", entry.homeCommunityId());
+      writer.writeArrayOfString("extraMetadataNames", entry.extraMetadata().keySet().toArray(String[]::new));
+      writer.writeArrayOfString("extraMetadataValues", entry.extraMetadata().values().toArray(String[]::new));
+    }
+
+    @Override
+    public String getTypeName() {
+      return "SyncedEntry";
+    }
+
+    @Override
+    public Class<SyncedEntry> getCompactClass() {
+      return SyncedEntry.class;
+    }
+  }
+
+  static class HumanNameSerializer implements CompactSerializer<HumanNameDTO> {
+    @Override
+    public HumanNameDTO read(CompactReader reader) {
+      return new HumanNameDTO(reader.readString("firstName"), reader.readString("lastName"),
+          reader.readString("prefix"), reader.readDate("birthday"), reader.readString("gender"));
+    }
+
+    @Override
+    public void write(CompactWriter writer, HumanNameDTO humanName) {
+      writer.writeString("firstName", humanName.getFirstName());
+      writer.writeString("lastName", humanName.getLastName());
+      writer.writeString("prefix", humanName.getPrefix());
+      writer.writeDate("birthday", humanName.getBirthday());
+      writer.writeString("gender", humanName.getGender());
+    }
+
+    @Override
+    public String getTypeName() {
+      return "HumanName";
+    }
+
+    @Override
+    public Class<HumanNameDTO> getCompactClass() {
+      return HumanNameDTO.class;
+    }
+  }
+
+  static class PatientIdentifierSerializer implements CompactSerializer<PatientIdentifier> {
+    @Override
+    public PatientIdentifier read(CompactReader reader) {
+      PatientIdentifier patientIdentifier = new PatientIdentifier(reader.readString("communityIdentifier"),
+          reader.readString("localExtension"), reader.readString("localAssigningAuthority"));
+      patientIdentifier.setSpidExtension(reader.readString("spidExtension"));
+      patientIdentifier.setSpidRootAuthority(reader.readString("spidRootAuthority"));
+      patientIdentifier.setGlobalExtension(reader.readString("globalExtension"));
+      patientIdentifier.setGlobalAuthority(reader.readString("globalAuthority"));
+      patientIdentifier.setPatientInfo(reader.readCompact("patientInfo"));
+      return patientIdentifier;
+    }
+
+    @Override
+    public void write(CompactWriter writer, PatientIdentifier patientIdentifier) {
+      writer.writeString("communityIdentifier", patientIdentifier.getCommunityIdentifier());
+      writer.writeString("localExtension", patientIdentifier.getLocalExtension());
+      writer.writeString("localAssigningAuthority", patientIdentifier.getLocalAssigningAuthority());
+      writer.writeString("spidExtension", patientIdentifier.getSpidExtension());
+      writer.writeString("spidRootAuthority", patientIdentifier.getSpidRootAuthority());
+      writer.writeString("globalExtension", patientIdentifier.getGlobalExtension());
+      writer.writeString("globalAuthority", patientIdentifier.getGlobalAuthority());
+      writer.writeCompact("patientInfo", patientIdentifier.getPatientInfo());
+    }
+
+    @Override
+    public String getTypeName() {
+      return "PatientIdentifier";
+    }
+
+    @Override
+    public Class<PatientIdentifier> getCompactClass() {
+      return PatientIdentifier.class;
+    }
+  }
+}
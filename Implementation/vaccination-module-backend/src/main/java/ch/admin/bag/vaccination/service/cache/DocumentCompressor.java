@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.utils.CompressionUtils;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresses the content of the documents stored in the cache. Small documents are stored as they
+ * are, since compression would not save enough to be worth the effort.
+ */
+class DocumentCompressor {
+  private final boolean isEnabled;
+  private final int thresholdInBytes;
+  private final int level;
+  private final AtomicLong uncompressedBytes = new AtomicLong();
+  private final AtomicLong compressedBytes = new AtomicLong();
+
+  DocumentCompressor(boolean isEnabled, int thresholdInBytes, int level) {
+    this.isEnabled = isEnabled;
+    this.thresholdInBytes = thresholdInBytes;
+    this.level = level;
+  }
+
+  /**
+   * @param content content of a document
+   * @return the compressed content or <code>null</code> if the content should be stored as it is.
+   */
+  byte[] compress(String content) {
+    if (!isEnabled || content == null || content.length() < thresholdInBytes) {
+      return null;
+    }
+
+    byte[] compressed = CompressionUtils.deflate(content, level);
+    uncompressedBytes.addAndGet(content.getBytes(StandardCharsets.UTF_8).length);
+    compressedBytes.addAndGet(compressed.length);
+    return compressed;
+  }
+
+  /**
+   * @return UTF-8 size divided by compressed size of all documents compressed so far, 1 if none
+   *         was compressed yet.
+   */
+  double getCompressionRatio() {
+    long compressed = compressedBytes.get();
+    return compressed == 0 ? 1 : (double) uncompressedBytes.get() / compressed;
+  }
+}
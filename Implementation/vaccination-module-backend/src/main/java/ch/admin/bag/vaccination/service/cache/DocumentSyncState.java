@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2022 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the “Software”), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Code;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Timestamp;
+
+/**
+ * Registry entries of the documents of a patient in one repository, as known by the last registry
+ * query. Later queries only ask for the entries created since this query and merge them into the
+ * known entries.
+ */
+@Getter
+@AllArgsConstructor
+public class DocumentSyncState {
+  /** start of the last registry query, the high-water mark of the entries */
+  private final Instant syncedAt;
+  /** start of the last registry query of all entries */
+  private final Instant fullySyncedAt;
+  private final List<SyncedEntry> entries;
+
+  /**
+   * Creates the state after a registry query.
+   *
+   * @param syncedAt start of the query
+   * @param fullySyncedAt start of the last query of all entries
+   * @param documentEntries all entries known after the query
+   */
+  public static DocumentSyncState of(Instant syncedAt, Instant fullySyncedAt, List<DocumentEntry> documentEntries) {
+    return new DocumentSyncState(syncedAt, fullySyncedAt,
+        documentEntries.stream().map(SyncedEntry::of).toList());
+  }
+
+  /**
+   * Merges the entries created since the last query into the known entries. An entry known already
+   * is replaced by its new version.
+   *
+   * @return the known and the new entries, in the order of the known entries followed by the new ones
+   */
+  public List<DocumentEntry> merge(List<DocumentEntry> newEntries) {
+    Map<String, DocumentEntry> entriesByUniqueId = new LinkedHashMap<>();
+    entries.forEach(entry -> entriesByUniqueId.put(entry.uniqueId(), entry.toDocumentEntry()));
+    newEntries.forEach(entry -> entriesByUniqueId.put(entry.getUniqueId(), entry));
+    return new ArrayList<>(entriesByUniqueId.values());
+  }
+
+  /**
+   * The metadata of a registry entry needed to select, retrieve and validate its document.
+   *
+   * @param creationTime creation time in HL7 format
+   * @param extraMetadata first value of each extra metadata attribute, e.g. the role of the uploader
+   */
+  public record SyncedEntry(String uniqueId, String formatCode, String formatCodeSystem, String mimeType,
+      String creationTime, String hash, Long size, String repositoryUniqueId, String homeCommunityId,
+      Map<String, String> extraMetadata) {
+
+    static SyncedEntry of(DocumentEntry entry) {
+      Map<String, String> extraMetadata = new LinkedHashMap<>();
+      if (entry.getExtraMetadata() != null) {
+        entry.getExtraMetadata().forEach((name, values) -> {
+          if (values != null && !values.isEmpty()) {
+            extraMetadata.put(name, values.getFirst());
+          }
+        });
+      }
+      Code formatCode = entry.getFormatCode();
+      return new SyncedEntry(entry.getUniqueId(),
+          formatCode != null ? formatCode.getCode() : null,
+          formatCode != null ? formatCode.getSchemeName() : null,
+          entry.getMimeType(),
+          Timestamp.toHL7(entry.getCreationTime()),
+          entry.getHash(),
+          entry.getSize(),
+          entry.getRepositoryUniqueId(),
+          entry.getHomeCommunityId(),
+          extraMetadata);
+    }
+
+    DocumentEntry toDocumentEntry() {
+      DocumentEntry entry = new DocumentEntry();
+      entry.setUniqueId(uniqueId);
+      if (formatCode != null) {
+        entry.setFormatCode(new Code(formatCode, null, formatCodeSystem));
+      }
+      entry.setMimeType(mimeType);
+      entry.setCreationTime(Timestamp.fromHL7(creationTime));
+      entry.setHash(hash);
+      entry.setSize(size);
+      entry.setRepositoryUniqueId(repositoryUniqueId);
+      entry.setHomeCommunityId(homeCommunityId);
+      Map<String, List<String>> entryExtraMetadata = new LinkedHashMap<>();
+      extraMetadata.forEach((name, value) -> entryExtraMetadata.put(name, List.of(value)));
+      entry.setExtraMetadata(entryExtraMetadata);
+      return entry;
+    }
+  }
+}
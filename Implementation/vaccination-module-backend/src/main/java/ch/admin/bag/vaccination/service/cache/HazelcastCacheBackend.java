@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.data.request.EPRDocument;
+import ch.admin.bag.vaccination.service.cache.config.CacheMapConfig;
+import com.hazelcast.cluster.Member;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.EvictionConfig;
+import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MaxSizePolicy;
+import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.EntryView;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.MapEvent;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.MapClearedListener;
+import com.hazelcast.map.listener.MapEvictedListener;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link CacheBackend} based on an embedded Hazelcast member, the maps are shared with all members
+ * of the cluster. The configuration is loaded from the Hazelcast configuration file, see
+ * {@link Config#load()}. The size limits of a map are only applied if the map has no eviction
+ * configured in this file, the near cache only if the map has none configured.
+ */
+@Slf4j
+class HazelcastCacheBackend implements CacheBackend {
+  private final HazelcastInstance hazelcast;
+  private final int lockLeaseInSeconds;
+
+  HazelcastCacheBackend(String clustername, Map<String, CacheMapConfig> mapConfigs, Set<String> nearCachedMaps,
+      DocumentCompressor compressor, int lockLeaseInSeconds) {
+    this(createMember(clustername, mapConfigs, nearCachedMaps, compressor), lockLeaseInSeconds);
+  }
+
+  HazelcastCacheBackend(HazelcastInstance hazelcast, int lockLeaseInSeconds) {
+    this.hazelcast = hazelcast;
+    this.lockLeaseInSeconds = lockLeaseInSeconds;
+  }
+
+  @Override
+  public int append(String cacheName, CacheIdentifierKey key, List<EPRDocument> documents) {
+    IMap<CacheIdentifierKey, List<EPRDocument>> map = hazelcast.getMap(cacheName);
+    return map.executeOnKey(key, new AppendDocumentsProcessor(documents));
+  }
+
+  @Override
+  public void addRemovalListener(String cacheName, Consumer<CacheIdentifierKey> onRemoved, Runnable onCleared) {
+    hazelcast.getMap(cacheName).addEntryListener(new RemovalListener(onRemoved, onCleared), false);
+  }
+
+  @Override
+  public void addEvictionListener(String cacheName, Runnable onEvicted) {
+    IMap<CacheIdentifierKey, Object> map = hazelcast.getMap(cacheName);
+    map.addLocalEntryListener((EntryEvictedListener<CacheIdentifierKey, Object>) event -> onEvicted.run());
+  }
+
+  @Override
+  public void clear(String cacheName) {
+    hazelcast.getMap(cacheName).clear();
+  }
+
+  @Override
+  public boolean containsKey(String cacheName, Object key) {
+    return hazelcast.getMap(cacheName).containsKey(key);
+  }
+
+  @Override
+  public <T> T executeLocked(String cacheName, CacheIdentifierKey key, Supplier<T> action) {
+    IMap<CacheIdentifierKey, Object> map = hazelcast.getMap(cacheName);
+    map.lock(key, lockLeaseInSeconds, TimeUnit.SECONDS);
+    try {
+      return action.get();
+    } finally {
+      try {
+        map.unlock(key);
+      } catch (IllegalMonitorStateException ex) {
+        log.warn("Lock of {} was released after {}s.", key, lockLeaseInSeconds);
+      }
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <V> V get(String cacheName, Object key) {
+    IMap<Object, Object> map = hazelcast.getMap(cacheName);
+    return (V) map.get(key);
+  }
+
+  @Override
+  public <K, V> Map<K, V> getAll(String cacheName, Set<K> keys) {
+    IMap<K, V> map = hazelcast.getMap(cacheName);
+    return map.getAll(keys);
+  }
+
+  @Override
+  public long getExpirationTime(String cacheName, Object key) {
+    IMap<Object, Object> map = hazelcast.getMap(cacheName);
+    EntryView<Object, Object> entry = map.getEntryView(key);
+    return entry != null ? entry.getExpirationTime() : 0;
+  }
+
+  HazelcastInstance getHazelcastInstance() {
+    return hazelcast;
+  }
+
+  @Override
+  public boolean isLocal(String cacheName, Object key) {
+    Member owner = hazelcast.getPartitionService().getPartition(key).getOwner();
+    return owner != null && owner.localMember();
+  }
+
+  @Override
+  public void put(String cacheName, Object key, Object value) {
+    hazelcast.getMap(cacheName).put(key, value);
+  }
+
+  @Override
+  public void remove(String cacheName, Object key) {
+    hazelcast.getMap(cacheName).remove(key);
+  }
+
+  @Override
+  public void shutdown() {
+    hazelcast.shutdown();
+  }
+
+  static void configureMap(MapConfig mapConfig, CacheMapConfig cacheMapConfig) {
+    mapConfig
+        .setBackupCount(cacheMapConfig.getBackupCount())
+        .setAsyncBackupCount(cacheMapConfig.getAsyncBackupCount())
+        .setTimeToLiveSeconds(cacheMapConfig.getTtlInSeconds());
+    if (cacheMapConfig.getMaxIdleSeconds() > 0) {
+      mapConfig.setMaxIdleSeconds(cacheMapConfig.getMaxIdleSeconds());
+    }
+
+    EvictionConfig evictionConfig = mapConfig.getEvictionConfig();
+    if (evictionConfig.getEvictionPolicy() != EvictionPolicy.NONE) {
+      return;
+    }
+    if (cacheMapConfig.getMaxHeapInMegabytes() > 0) {
+      evictionConfig
+          .setEvictionPolicy(EvictionPolicy.valueOf(cacheMapConfig.getEvictionPolicy()))
+          .setMaxSizePolicy(MaxSizePolicy.USED_HEAP_SIZE)
+          .setSize(cacheMapConfig.getMaxHeapInMegabytes());
+    } else if (cacheMapConfig.getMaxEntries() > 0) {
+      evictionConfig
+          .setEvictionPolicy(EvictionPolicy.valueOf(cacheMapConfig.getEvictionPolicy()))
+          .setMaxSizePolicy(MaxSizePolicy.PER_NODE)
+          .setSize(cacheMapConfig.getMaxEntries());
+    }
+  }
+
+  /**
+   * @return the near cache of the map or <code>null</code> if it is disabled.
+   */
+  static NearCacheConfig createNearCacheConfig(String cacheName, CacheMapConfig cacheMapConfig) {
+    if (cacheMapConfig.getNearCacheMaxEntries() <= 0) {
+      return null;
+    }
+
+    return new NearCacheConfig(cacheName)
+        .setInvalidateOnChange(true)
+        .setTimeToLiveSeconds(cacheMapConfig.getTtlInSeconds())
+        .setMaxIdleSeconds(cacheMapConfig.getNearCacheMaxIdleSeconds())
+        .setEvictionConfig(new EvictionConfig()
+            .setEvictionPolicy(EvictionPolicy.LRU)
+            .setMaxSizePolicy(MaxSizePolicy.ENTRY_COUNT)
+            .setSize(cacheMapConfig.getNearCacheMaxEntries()));
+  }
+
+  private static HazelcastInstance createMember(String clustername, Map<String, CacheMapConfig> mapConfigs,
+      Set<String> nearCachedMaps, DocumentCompressor compressor) {
+    Config config = Config.load();
+    config.setClusterName(clustername);
+    CacheSerializers.register(config.getSerializationConfig().getCompactSerializationConfig(), compressor);
+    mapConfigs.forEach((cacheName, cacheMapConfig) -> {
+      MapConfig mapConfig = config.getMapConfig(cacheName);
+      configureMap(mapConfig, cacheMapConfig);
+      if (nearCachedMaps.contains(cacheName) && mapConfig.getNearCacheConfig() == null) {
+        mapConfig.setNearCacheConfig(createNearCacheConfig(cacheName, cacheMapConfig));
+      }
+    });
+    return Hazelcast.newHazelcastInstance(config);
+  }
+
+  private record RemovalListener(Consumer<CacheIdentifierKey> onRemoved, Runnable onCleared)
+      implements EntryRemovedListener<CacheIdentifierKey, Object>, EntryEvictedListener<CacheIdentifierKey, Object>,
+      EntryExpiredListener<CacheIdentifierKey, Object>, MapClearedListener, MapEvictedListener {
+
+    @Override
+    public void entryEvicted(EntryEvent<CacheIdentifierKey, Object> event) {
+      onRemoved.accept(event.getKey());
+    }
+
+    @Override
+    public void entryExpired(EntryEvent<CacheIdentifierKey, Object> event) {
+      onRemoved.accept(event.getKey());
+    }
+
+    @Override
+    public void entryRemoved(EntryEvent<CacheIdentifierKey, Object> event) {
+      onRemoved.accept(event.getKey());
+    }
+
+    @Override
+    public void mapCleared(MapEvent event) {
+      onCleared.run();
+    }
+
+    @Override
+    public void mapEvicted(MapEvent event) {
+      onCleared.run();
+    }
+  }
+}
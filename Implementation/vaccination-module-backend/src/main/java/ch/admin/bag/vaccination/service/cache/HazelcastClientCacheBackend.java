@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.data.request.EPRDocument;
+import ch.admin.bag.vaccination.service.cache.config.CacheClientConfig;
+import ch.admin.bag.vaccination.service.cache.config.CacheMapConfig;
+import com.hazelcast.client.HazelcastClient;
+import com.hazelcast.client.config.ClientConfig;
+import com.hazelcast.config.InvalidConfigurationException;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.core.EntryView;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link CacheBackend} connecting as client to a separately deployed Hazelcast cluster, so the
+ * number of application nodes can change without moving cache entries. The client configuration
+ * is loaded from hazelcast-client.yml, see {@link ClientConfig#load()}.
+ * <p>
+ * The cluster members do not know the classes of the Impfmodul, therefore documents are appended by
+ * compare and set instead of an entry processor. The map configurations are added to the cluster
+ * as dynamic configuration unless the cluster already configures the map. The document and
+ * patient identifier maps are additionally kept in a near cache on the client.
+ */
+@Slf4j
+class HazelcastClientCacheBackend extends HazelcastCacheBackend {
+
+  HazelcastClientCacheBackend(String clustername, Map<String, CacheMapConfig> mapConfigs,
+      CacheClientConfig clientConfig, Set<String> nearCachedMaps, DocumentCompressor compressor,
+      int lockLeaseInSeconds) {
+    super(createClient(clustername, mapConfigs, clientConfig, nearCachedMaps, compressor), lockLeaseInSeconds);
+    mapConfigs.forEach(this::addMapConfig);
+  }
+
+  @Override
+  public int append(String cacheName, CacheIdentifierKey key, List<EPRDocument> documents) {
+    IMap<CacheIdentifierKey, List<EPRDocument>> map = getHazelcastInstance().getMap(cacheName);
+    while (true) {
+      // the entry view is read from the cluster, the near cache might not be up to date yet
+      EntryView<CacheIdentifierKey, List<EPRDocument>> entry = map.getEntryView(key);
+      List<EPRDocument> current = entry != null ? entry.getValue() : null;
+      List<EPRDocument> eprDocuments = current != null ? new ArrayList<>(current) : new ArrayList<>();
+      eprDocuments.addAll(documents);
+      boolean isStored = current == null
+          ? map.putIfAbsent(key, eprDocuments) == null
+          : map.replace(key, current, eprDocuments);
+      if (isStored) {
+        return eprDocuments.size();
+      }
+      log.debug("Concurrent update of {}, retry append.", key);
+    }
+  }
+
+  /**
+   * Registers a cluster-wide listener, as a client holds no entries itself. Each client therefore
+   * counts the evictions of all members, the counts of several clients must not be summed up.
+   */
+  @Override
+  public void addEvictionListener(String cacheName, Runnable onEvicted) {
+    IMap<CacheIdentifierKey, Object> map = getHazelcastInstance().getMap(cacheName);
+    map.addEntryListener((EntryEvictedListener<CacheIdentifierKey, Object>) event -> onEvicted.run(), false);
+  }
+
+  private void addMapConfig(String cacheName, CacheMapConfig cacheMapConfig) {
+    MapConfig mapConfig = new MapConfig(cacheName);
+    configureMap(mapConfig, cacheMapConfig);
+    try {
+      getHazelcastInstance().getConfig().addMapConfig(mapConfig);
+    } catch (InvalidConfigurationException ex) {
+      log.info("Map {} is configured by the cluster: {}", cacheName, ex.getMessage());
+    }
+  }
+
+  private static HazelcastInstance createClient(String clustername, Map<String, CacheMapConfig> mapConfigs,
+      CacheClientConfig clientConfig, Set<String> nearCachedMaps, DocumentCompressor compressor) {
+    ClientConfig config = ClientConfig.load();
+    config.setClusterName(clustername);
+    CacheSerializers.register(config.getSerializationConfig().getCompactSerializationConfig(), compressor);
+    if (!clientConfig.getAddresses().isEmpty()) {
+      config.getNetworkConfig().setAddresses(new ArrayList<>(clientConfig.getAddresses()));
+    }
+    for (String cacheName : nearCachedMaps) {
+      NearCacheConfig nearCacheConfig = createNearCacheConfig(cacheName, mapConfigs.get(cacheName));
+      if (nearCacheConfig != null && !config.getNearCacheConfigMap().containsKey(cacheName)) {
+        config.addNearCacheConfig(nearCacheConfig);
+      }
+    }
+    return HazelcastClient.newHazelcastClient(config);
+  }
+}
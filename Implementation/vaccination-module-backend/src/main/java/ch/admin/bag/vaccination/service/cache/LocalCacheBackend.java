@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.data.request.EPRDocument;
+import ch.admin.bag.vaccination.service.cache.config.CacheMapConfig;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link CacheBackend} keeping the maps in the heap of this member only, for installations running
+ * a single member. Once a map reaches its size limit, the entries to evict are chosen by frequency
+ * and recency of their use (W-TinyLFU).
+ * <p>
+ * Values are not copied, so they must not be modified after they were stored or read.
+ */
+class LocalCacheBackend implements CacheBackend {
+  /** node of the map with its references and the expiry and frequency data of the entry */
+  private static final int ENTRY_OVERHEAD_IN_BYTES = 128;
+  /** header and fields of an object */
+  private static final int OBJECT_OVERHEAD_IN_BYTES = 24;
+  /** header and length of an array */
+  private static final int ARRAY_OVERHEAD_IN_BYTES = 16;
+  private static final int REFERENCE_SIZE_IN_BYTES = 8;
+  /** document with its creation date, without unique id, hash and content */
+  private static final int DOCUMENT_OVERHEAD_IN_BYTES = 128;
+  /** registry entry of a {@link DocumentSyncState} with its strings and extra metadata */
+  private static final int SYNCED_ENTRY_OVERHEAD_IN_BYTES = 1024;
+  /** values other than documents, i.e. patient identifiers with their strings */
+  private static final int VALUE_OVERHEAD_IN_BYTES = 2048;
+  private final Map<String, LocalMap> maps = new HashMap<>();
+
+  LocalCacheBackend(Map<String, CacheMapConfig> mapConfigs) {
+    mapConfigs.forEach((cacheName, mapConfig) -> maps.put(cacheName, new LocalMap(mapConfig)));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public int append(String cacheName, CacheIdentifierKey key, List<EPRDocument> documents) {
+    Object eprDocuments = getMap(cacheName).entries.compute(key, (k, current) -> {
+      List<EPRDocument> result = current == null ? new ArrayList<>() : new ArrayList<>((List<EPRDocument>) current);
+      result.addAll(documents);
+      return result;
+    });
+    return ((List<EPRDocument>) eprDocuments).size();
+  }
+
+  @Override
+  public void addRemovalListener(String cacheName, Consumer<CacheIdentifierKey> onRemoved, Runnable onCleared) {
+    getMap(cacheName).removalCallbacks.add(new RemovalCallbacks(onRemoved, onCleared));
+  }
+
+  @Override
+  public void addEvictionListener(String cacheName, Runnable onEvicted) {
+    getMap(cacheName).evictionCallbacks.add(onEvicted);
+  }
+
+  @Override
+  public void clear(String cacheName) {
+    LocalMap map = getMap(cacheName);
+    map.entries.clear();
+    map.removalCallbacks.forEach(callback -> callback.onCleared().run());
+  }
+
+  @Override
+  public boolean containsKey(String cacheName, Object key) {
+    return getMap(cacheName).entries.containsKey(key);
+  }
+
+  @Override
+  public <T> T executeLocked(String cacheName, CacheIdentifierKey key, Supplier<T> action) {
+    return action.get();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <V> V get(String cacheName, Object key) {
+    return (V) getMap(cacheName).entries.get(key);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <K, V> Map<K, V> getAll(String cacheName, Set<K> keys) {
+    Map<K, V> values = new HashMap<>();
+    ConcurrentMap<Object, Object> entries = getMap(cacheName).entries;
+    for (K key : keys) {
+      Object value = entries.get(key);
+      if (value != null) {
+        values.put(key, (V) value);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public long getExpirationTime(String cacheName, Object key) {
+    LocalMap map = getMap(cacheName);
+    OptionalLong age = map.expiration.ageOf(key, TimeUnit.MILLISECONDS);
+    return age.isPresent()
+        ? System.currentTimeMillis() - age.getAsLong() + map.expiration.getExpiresAfter(TimeUnit.MILLISECONDS)
+        : 0;
+  }
+
+  @Override
+  public boolean isLocal(String cacheName, Object key) {
+    return true;
+  }
+
+  @Override
+  public void put(String cacheName, Object key, Object value) {
+    getMap(cacheName).entries.put(key, value);
+  }
+
+  @Override
+  public void remove(String cacheName, Object key) {
+    getMap(cacheName).entries.remove(key);
+  }
+
+  @Override
+  public void shutdown() {
+    maps.values().forEach(map -> map.entries.clear());
+  }
+
+  /**
+   * Estimates the heap used by an entry in bytes: the stored content as it is held in the heap, i.e.
+   * the compressed bytes or two bytes per character, the strings of the key and the metadata, and a
+   * fixed overhead for the objects around them.
+   */
+  static int estimateSize(Object key, Object value) {
+    long size = ENTRY_OVERHEAD_IN_BYTES + estimateKeySize(key);
+    if (value instanceof EPRDocument eprDocument) {
+      size += estimateDocumentSize(eprDocument);
+    } else if (value instanceof List<?> documents) {
+      size += ARRAY_OVERHEAD_IN_BYTES + (long) REFERENCE_SIZE_IN_BYTES * documents.size();
+      for (Object document : documents) {
+        if (document instanceof EPRDocument eprDocument) {
+          size += estimateDocumentSize(eprDocument);
+        }
+      }
+    } else if (value instanceof DocumentSyncState syncState) {
+      size += OBJECT_OVERHEAD_IN_BYTES + (long) SYNCED_ENTRY_OVERHEAD_IN_BYTES * syncState.getEntries().size();
+    } else {
+      size += VALUE_OVERHEAD_IN_BYTES;
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  private static long estimateKeySize(Object key) {
+    if (key instanceof CacheIdentifierKey identifier) {
+      return OBJECT_OVERHEAD_IN_BYTES + estimateStringSize(identifier.getOid())
+          + estimateStringSize(identifier.getLocalId()) + estimateStringSize(identifier.getGln());
+    }
+    return key instanceof String string ? estimateStringSize(string) : OBJECT_OVERHEAD_IN_BYTES;
+  }
+
+  private static long estimateDocumentSize(EPRDocument document) {
+    long size = DOCUMENT_OVERHEAD_IN_BYTES + estimateStringSize(document.getDocumentUniqueId())
+        + estimateStringSize(document.getDocumentHash());
+    byte[] compressedContent = document.getCompressedJsonOrXmlFhirContent();
+    if (compressedContent != null) {
+      return size + ARRAY_OVERHEAD_IN_BYTES + compressedContent.length;
+    }
+    // without compressed content, the content is read without decompressing it
+    return size + estimateStringSize(document.getJsonOrXmlFhirContent());
+  }
+
+  /** Upper bound of the heap of a string, characters outside of Latin-1 need two bytes. */
+  private static long estimateStringSize(String string) {
+    return string == null ? 0 : OBJECT_OVERHEAD_IN_BYTES + ARRAY_OVERHEAD_IN_BYTES + 2L * string.length();
+  }
+
+  private LocalMap getMap(String cacheName) {
+    LocalMap map = maps.get(cacheName);
+    if (map == null) {
+      throw new IllegalArgumentException("Unknown cache " + cacheName);
+    }
+    return map;
+  }
+
+  private record RemovalCallbacks(Consumer<CacheIdentifierKey> onRemoved, Runnable onCleared) {
+  }
+
+  private static final class LocalMap {
+    private final List<RemovalCallbacks> removalCallbacks = new CopyOnWriteArrayList<>();
+    private final List<Runnable> evictionCallbacks = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<Object, Object> entries;
+    private final Policy.FixedExpiration<Object, Object> expiration;
+
+    private LocalMap(CacheMapConfig config) {
+      Caffeine<Object, Object> builder = Caffeine.newBuilder()
+          .expireAfterWrite(Duration.ofSeconds(config.getTtlInSeconds()))
+          .removalListener(this::onRemoval);
+      if (config.getMaxIdleSeconds() > 0) {
+        builder.expireAfterAccess(Duration.ofSeconds(config.getMaxIdleSeconds()));
+      }
+      if (config.getMaxHeapInMegabytes() > 0) {
+        builder.maximumWeight(config.getMaxHeapInMegabytes() * 1024L * 1024L)
+            .weigher(LocalCacheBackend::estimateSize);
+      } else if (config.getMaxEntries() > 0) {
+        builder.maximumSize(config.getMaxEntries());
+      }
+      com.github.benmanes.caffeine.cache.Cache<Object, Object> cache = builder.build();
+      entries = cache.asMap();
+      expiration = cache.policy().expireAfterWrite().orElseThrow();
+    }
+
+    private void onRemoval(Object key, Object value, RemovalCause cause) {
+      if (key == null || cause == RemovalCause.REPLACED) {
+        return;
+      }
+      if (key instanceof CacheIdentifierKey identifier) {
+        removalCallbacks.forEach(callback -> callback.onRemoved().accept(identifier));
+      }
+      if (cause == RemovalCause.SIZE) {
+        evictionCallbacks.forEach(Runnable::run);
+      }
+    }
+  }
+}
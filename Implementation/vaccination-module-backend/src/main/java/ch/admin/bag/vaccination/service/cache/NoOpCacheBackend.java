@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.data.request.EPRDocument;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link CacheBackend} used if caching is disabled, nothing is stored.
+ */
+class NoOpCacheBackend implements CacheBackend {
+
+  @Override
+  public int append(String cacheName, CacheIdentifierKey key, List<EPRDocument> documents) {
+    return 0;
+  }
+
+  @Override
+  public void addRemovalListener(String cacheName, Consumer<CacheIdentifierKey> onRemoved, Runnable onCleared) {
+    // nothing is stored, so nothing is ever removed
+  }
+
+  @Override
+  public void addEvictionListener(String cacheName, Runnable onEvicted) {
+    // nothing is stored, so nothing is ever evicted
+  }
+
+  @Override
+  public void clear(String cacheName) {
+    // nothing to clear
+  }
+
+  @Override
+  public boolean containsKey(String cacheName, Object key) {
+    return false;
+  }
+
+  @Override
+  public <T> T executeLocked(String cacheName, CacheIdentifierKey key, Supplier<T> action) {
+    return action.get();
+  }
+
+  @Override
+  public <V> V get(String cacheName, Object key) {
+    return null;
+  }
+
+  @Override
+  public <K, V> Map<K, V> getAll(String cacheName, Set<K> keys) {
+    return Map.of();
+  }
+
+  @Override
+  public long getExpirationTime(String cacheName, Object key) {
+    return 0;
+  }
+
+  @Override
+  public boolean isLocal(String cacheName, Object key) {
+    return true;
+  }
+
+  @Override
+  public void put(String cacheName, Object key, Object value) {
+    // caching is disabled
+  }
+
+  @Override
+  public void remove(String cacheName, Object key) {
+    // nothing to remove
+  }
+
+  @Override
+  public void shutdown() {
+    // no resources
+  }
+}
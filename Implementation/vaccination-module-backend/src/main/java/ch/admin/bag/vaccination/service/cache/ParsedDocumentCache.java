@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.fhir.epr.adapter.data.dto.BaseDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Node local cache tier holding the DTOs already extracted from the documents of the document
+ * cache. The entries are lifecycle independent, i.e. they represent the content of a single
+ * document exactly as it was parsed by the FHIR adapter.
+ * <p>
+ * As documents are immutable within the EPD, an entry is addressed by the {@link CacheIdentifierKey}
+ * and the unique id of the document. The tier is registered as removal listener of the document
+ * cache, so all entries of a patient are dropped as soon as the patient's documents are removed,
+ * evicted or expire on any member of the cluster. Entries without such an event, e.g. of loads
+ * which were not stored, expire after the time to live of the document cache and the number of
+ * patients is limited like the document cache.
+ * <p>
+ * Callers always receive copies, so lifecycle handling and validation flags set on the returned
+ * DTOs never leak back into the cache.
+ * <p>
+ * Additionally the ids and related ids of the entities are indexed per patient, so the document
+ * containing or referring to an entity is found without parsing the other documents.
+ */
+@Slf4j
+class ParsedDocumentCache {
+
+  private final Map<CacheIdentifierKey, PatientDocuments> entries;
+  private final ObjectMapper objectMapper;
+
+  /**
+   * @param maxPatients maximum number of patients whose DTOs are kept
+   * @param ttlInSeconds time to live of the DTOs of a patient
+   */
+  ParsedDocumentCache(ObjectMapper objectMapper, int maxPatients, int ttlInSeconds) {
+    this.objectMapper = objectMapper;
+    entries = Caffeine.newBuilder()
+        .maximumSize(maxPatients)
+        .expireAfterWrite(Duration.ofSeconds(ttlInSeconds))
+        .<CacheIdentifierKey, PatientDocuments>build()
+        .asMap();
+  }
+
+  void clear() {
+    entries.clear();
+  }
+
+  void clear(CacheIdentifierKey cacheIdentifier) {
+    entries.remove(cacheIdentifier);
+  }
+
+  /**
+   * Returns copies of the DTOs of the given class extracted from a document.
+   *
+   * @return the DTOs or <code>null</code> if the document was not yet parsed for this class.
+   */
+  @SuppressWarnings("unchecked")
+  <T extends BaseDTO> List<T> get(CacheIdentifierKey cacheIdentifier, String documentUniqueId, Class<T> dtoClass) {
+    if (documentUniqueId == null) {
+      return null;
+    }
+
+    PatientDocuments documents = entries.get(cacheIdentifier);
+    Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass =
+        documents != null ? documents.dtosByDocument.get(documentUniqueId) : null;
+    List<BaseDTO> dtos = dtosByClass != null ? dtosByClass.get(dtoClass) : null;
+    if (dtos == null) {
+      return null;
+    }
+
+    return (List<T>) dtos.stream().map(this::copy).collect(Collectors.toList());
+  }
+
+  /**
+   * Returns the unique ids of the indexed documents containing the entity with the given id.
+   *
+   * @param includeReferences also return the documents with entities referring to the given id
+   */
+  Set<String> getDocumentUniqueIds(CacheIdentifierKey cacheIdentifier, String resourceId,
+      boolean includeReferences) {
+    PatientDocuments documents = entries.get(cacheIdentifier);
+    if (documents == null || resourceId == null) {
+      return Set.of();
+    }
+
+    Set<String> result = new HashSet<>(documents.documentsById.getOrDefault(resourceId, Set.of()));
+    if (includeReferences) {
+      result.addAll(documents.documentsByRelatedId.getOrDefault(resourceId, Set.of()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns whether all entities of a document are cached and therefore contained in the id index.
+   */
+  boolean isIndexed(CacheIdentifierKey cacheIdentifier, String documentUniqueId) {
+    if (documentUniqueId == null) {
+      return false;
+    }
+
+    PatientDocuments documents = entries.get(cacheIdentifier);
+    Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass =
+        documents != null ? documents.dtosByDocument.get(documentUniqueId) : null;
+    return dtosByClass != null && dtosByClass.containsKey(BaseDTO.class);
+  }
+
+  /**
+   * Stores the DTOs extracted from a document. The given lists must not be modified afterwards.
+   */
+  void put(CacheIdentifierKey cacheIdentifier, String documentUniqueId,
+      Map<Class<? extends BaseDTO>, List<BaseDTO>> dtosByClass) {
+    if (documentUniqueId == null) {
+      return;
+    }
+
+    log.debug("Save parsed entities of document {} for {}", documentUniqueId, cacheIdentifier);
+    PatientDocuments documents = entries.computeIfAbsent(cacheIdentifier, key -> new PatientDocuments());
+    // index first, so a document is never reported as indexed before its ids are
+    for (List<BaseDTO> dtos : dtosByClass.values()) {
+      for (BaseDTO dto : dtos) {
+        documents.index(documents.documentsById, dto.getId(), documentUniqueId);
+        documents.index(documents.documentsByRelatedId, dto.getRelatedId(), documentUniqueId);
+      }
+    }
+    documents.dtosByDocument.put(documentUniqueId, Map.copyOf(dtosByClass));
+  }
+
+  int size() {
+    return entries.values().stream().mapToInt(documents -> documents.dtosByDocument.size()).sum();
+  }
+
+  private BaseDTO copy(BaseDTO dto) {
+    return objectMapper.convertValue(dto, dto.getClass());
+  }
+
+  private static final class PatientDocuments {
+    private final Map<String, Map<Class<? extends BaseDTO>, List<BaseDTO>>> dtosByDocument =
+        new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> documentsById = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> documentsByRelatedId = new ConcurrentHashMap<>();
+
+    private void index(Map<String, Set<String>> index, String id, String documentUniqueId) {
+      if (id != null) {
+        index.computeIfAbsent(id, key -> ConcurrentHashMap.newKeySet()).add(documentUniqueId);
+      }
+    }
+  }
+}
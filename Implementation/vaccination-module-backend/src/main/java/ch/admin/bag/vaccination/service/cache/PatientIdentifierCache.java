@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import ch.admin.bag.vaccination.service.cache.config.PatientIdentifierCacheConfig;
+import ch.fhir.epr.adapter.data.PatientIdentifier;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Node local cache tier in front of the patient identifier map. Resolved identifiers are kept for
+ * the time to live of their community, patients unknown to the community only for a short time, so
+ * a wrong id does not cause a PDQ query on every request. Lookups that fail are not cached.
+ * <p>
+ * The number of resolved identifiers and of unknown patients is limited separately, so lookups of
+ * arbitrary ids cannot displace the resolved identifiers or grow the heap without limit.
+ * <p>
+ * Concurrent lookups of the same patient wait for the first one instead of running their own
+ * query.
+ */
+@Slf4j
+class PatientIdentifierCache {
+  static final String HIT = "hit";
+  static final String NOT_FOUND = "not.found";
+  static final String COALESCED = "coalesced";
+
+  private final com.github.benmanes.caffeine.cache.Cache<CacheIdentifierKey, Entry> identifiers;
+  private final com.github.benmanes.caffeine.cache.Cache<CacheIdentifierKey, Entry> unknownPatients;
+  private final Map<CacheIdentifierKey, CompletableFuture<PatientIdentifier>> runningLookups =
+      new ConcurrentHashMap<>();
+  private final PatientIdentifierCacheConfig config;
+  private final Consumer<String> requestCounter;
+
+  PatientIdentifierCache(PatientIdentifierCacheConfig config, Consumer<String> requestCounter) {
+    this.config = config;
+    this.requestCounter = requestCounter;
+    identifiers = Caffeine.newBuilder()
+        .maximumSize(config.getMaxEntries())
+        .expireAfter(new EntryExpiry())
+        .build();
+    unknownPatients = Caffeine.newBuilder()
+        .maximumSize(config.getMaxNotFoundEntries())
+        .expireAfter(new EntryExpiry())
+        .build();
+  }
+
+  void clear() {
+    identifiers.invalidateAll();
+    unknownPatients.invalidateAll();
+  }
+
+  /**
+   * Returns the cached identifier or the one returned by the lookup.
+   *
+   * @param lookup returns the identifier or <code>null</code> if the patient is unknown
+   * @return the identifier or <code>null</code> if the patient is unknown
+   */
+  PatientIdentifier get(String communityIdentifier, CacheIdentifierKey key, Supplier<PatientIdentifier> lookup) {
+    Entry entry = identifiers.getIfPresent(key);
+    if (entry == null) {
+      entry = unknownPatients.getIfPresent(key);
+    }
+    if (entry != null && entry.expiresAt() > System.currentTimeMillis()) {
+      requestCounter.accept(entry.patientIdentifier() != null ? HIT : NOT_FOUND);
+      return entry.patientIdentifier();
+    }
+
+    CompletableFuture<PatientIdentifier> newLookup = new CompletableFuture<>();
+    CompletableFuture<PatientIdentifier> runningLookup = runningLookups.putIfAbsent(key, newLookup);
+    if (runningLookup != null) {
+      requestCounter.accept(COALESCED);
+      return join(runningLookup);
+    }
+
+    try {
+      PatientIdentifier patientIdentifier = lookup.get();
+      if (patientIdentifier != null) {
+        identifiers.put(key, new Entry(patientIdentifier, getExpiresAt(config.getTtlInSeconds(communityIdentifier))));
+        unknownPatients.invalidate(key);
+      } else {
+        unknownPatients.put(key, new Entry(null, getExpiresAt(config.getNotFoundTtlInSeconds())));
+      }
+      newLookup.complete(patientIdentifier);
+      return patientIdentifier;
+    } catch (RuntimeException ex) {
+      newLookup.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      runningLookups.remove(key, newLookup);
+    }
+  }
+
+  /**
+   * Runs the pending expiry and size maintenance, which Caffeine otherwise does lazily on later
+   * reads and writes.
+   */
+  void cleanUp() {
+    identifiers.cleanUp();
+    unknownPatients.cleanUp();
+  }
+
+  int size() {
+    return (int) (identifiers.estimatedSize() + unknownPatients.estimatedSize());
+  }
+
+  private static long getExpiresAt(int ttlInSeconds) {
+    return System.currentTimeMillis() + ttlInSeconds * 1000L;
+  }
+
+  private static PatientIdentifier join(CompletableFuture<PatientIdentifier> lookup) {
+    try {
+      return lookup.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw ex;
+    }
+  }
+
+  private record Entry(PatientIdentifier patientIdentifier, long expiresAt) {
+  }
+
+  /**
+   * Expires an entry at its own expiry time, as the time to live depends on the community.
+   */
+  private static final class EntryExpiry implements Expiry<CacheIdentifierKey, Entry> {
+    @Override
+    public long expireAfterCreate(CacheIdentifierKey key, Entry entry, long currentTime) {
+      return TimeUnit.MILLISECONDS.toNanos(Math.max(0, entry.expiresAt() - System.currentTimeMillis()));
+    }
+
+    @Override
+    public long expireAfterUpdate(CacheIdentifierKey key, Entry entry, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, entry, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(CacheIdentifierKey key, Entry entry, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration of the maps of the cache, addressed by the name of the map, e.g.
+ * <code>epdbackend.cache.maps.document.maxEntries</code>, of the connection to the cache cluster
+ * in client mode and of the lifetime of the patient identifiers.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "epdbackend.cache")
+@Getter
+@Setter
+public class CacheConfig {
+  private Map<String, CacheMapConfig> maps = new HashMap<>();
+  private CacheClientConfig client = new CacheClientConfig();
+  private PatientIdentifierCacheConfig patientIdentifiers = new PatientIdentifierCacheConfig();
+
+  /**
+   * @return the configuration of the map, the default configuration if none is configured.
+   */
+  public CacheMapConfig getMap(String cacheName) {
+    return maps.getOrDefault(cacheName, new CacheMapConfig());
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache.config;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Size limits and expiry of a single cache map.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class CacheMapConfig {
+  /** time to live of an entry, the default of the map is used if not set */
+  private Integer ttlInSeconds;
+  /** entries not read or written for this time are removed, 0 to keep them until they expire */
+  private int maxIdleSeconds;
+  /** maximum number of entries per member, 0 for no limit */
+  private int maxEntries = 10000;
+  /**
+   * maximum heap used by the entries per member, replaces maxEntries if set. The local cache
+   * estimates the heap of an entry from its stored content, its strings and a fixed overhead.
+   */
+  private int maxHeapInMegabytes;
+  /**
+   * LRU or LFU. The local cache always combines both (W-TinyLFU). An eviction configured for the map
+   * in hazelcast.yml takes precedence over the limits configured here.
+   */
+  private String evictionPolicy = "LRU";
+  /** number of members holding a synchronous backup of an entry */
+  private int backupCount;
+  /** number of members holding an asynchronous backup of an entry */
+  private int asyncBackupCount;
+  /**
+   * maximum number of entries owned by other members kept in the near cache of a member or client,
+   * 0 to disable it. Only the document and patient identifier maps use a near cache.
+   */
+  private int nearCacheMaxEntries = 1000;
+  /** entries not read for this time are removed from the near cache, 0 to keep them until they expire */
+  private int nearCacheMaxIdleSeconds;
+
+  public CacheMapConfig(CacheMapConfig config, int defaultTtlInSeconds) {
+    ttlInSeconds = config.ttlInSeconds != null ? config.ttlInSeconds : defaultTtlInSeconds;
+    maxIdleSeconds = config.maxIdleSeconds;
+    maxEntries = config.maxEntries;
+    maxHeapInMegabytes = config.maxHeapInMegabytes;
+    evictionPolicy = config.evictionPolicy;
+    backupCount = config.backupCount;
+    asyncBackupCount = config.asyncBackupCount;
+    nearCacheMaxEntries = config.nearCacheMaxEntries;
+    nearCacheMaxIdleSeconds = config.nearCacheMaxIdleSeconds;
+  }
+}
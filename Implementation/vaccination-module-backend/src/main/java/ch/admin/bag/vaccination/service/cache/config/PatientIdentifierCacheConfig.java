@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache.config;
+
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Lifetime of the patient identifiers resolved by PDQ queries, e.g.
+ * <code>epdbackend.cache.patientIdentifiers.communityTtlInSeconds.EPDPLAYGROUND</code>.
+ */
+@Getter
+@Setter
+public class PatientIdentifierCacheConfig {
+  /** time to live of a resolved identifier, used for communities without a configured value */
+  private int ttlInSeconds = 3600;
+  /** time to live of a resolved identifier by community identifier */
+  private Map<String, Integer> communityTtlInSeconds = new HashMap<>();
+  /** time to live of the information that a patient is unknown to the community */
+  private int notFoundTtlInSeconds = 30;
+  /** maximum number of resolved identifiers per member */
+  private int maxEntries = 10000;
+  /** maximum number of patients per member remembered as unknown to their community */
+  private int maxNotFoundEntries = 1000;
+
+  public int getTtlInSeconds(String communityIdentifier) {
+    return communityTtlInSeconds.getOrDefault(communityIdentifier, ttlInSeconds);
+  }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.husky;
+
+import ch.admin.bag.vaccination.exception.CommunityUnavailableException;
+import ch.admin.bag.vaccination.service.husky.config.EPDTransaction;
+import ch.admin.bag.vaccination.service.husky.config.ResilienceConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jakarta.annotation.PreDestroy;
+import jakarta.xml.ws.soap.SOAPFaultException;
+import javax.xml.namespace.QName;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.cxf.transport.http.HTTPException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Guards the calls to the communities. Each community has a limit of concurrent calls and a circuit
+ * breaker: after {@link ResilienceConfig#getFailureThreshold()} consecutive calls timed out or failed
+ * with a transport or server error, the calls to the community fail immediately with a
+ * {@link CommunityUnavailableException} until a trial call succeeds, so the cached data is served
+ * instead of waiting for an unavailable community. Other errors are passed on to the caller without
+ * affecting the circuit breaker.
+ * <p>
+ * The calls run on virtual threads, so the caller stops waiting after the timeout of the transaction.
+ * A timed out call keeps its place in the limit of concurrent calls until it returns.
+ */
+@Service
+@Slf4j
+public class CommunityCircuitBreakers {
+  /** fault codes of SOAP 1.2 and SOAP 1.1 for errors of the server */
+  private static final Set<String> SERVER_FAULT_CODES = Set.of("Receiver", "Server");
+
+  private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+  private final ExecutorService callExecutor =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("community-call-", 0).factory());
+
+  @Autowired
+  private ResilienceConfig resilienceConfig;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  /**
+   * Sends a call to a community.
+   *
+   * @param communityIdentifier the called community
+   * @param transaction the transaction, defines the timeout of the call
+   * @param call the call
+   * @return the result of the call
+   * @throws CommunityUnavailableException if the call was not sent or did not answer in time
+   * @throws Exception if the call failed
+   */
+  public <T> T execute(String communityIdentifier, EPDTransaction transaction, Callable<T> call) throws Exception {
+    if (!resilienceConfig.isEnabled()) {
+      return call.call();
+    }
+
+    CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(communityIdentifier, this::createCircuitBreaker);
+    if (!circuitBreaker.runningCalls.tryAcquire()) {
+      count(communityIdentifier, "rejected.concurrency");
+      throw new CommunityUnavailableException("Too many concurrent calls to " + communityIdentifier + ".");
+    }
+    if (!circuitBreaker.tryAcquirePermission(TimeUnit.SECONDS.toMillis(resilienceConfig.getOpenStateInSeconds()))) {
+      circuitBreaker.runningCalls.release();
+      count(communityIdentifier, "rejected.open");
+      throw new CommunityUnavailableException("Circuit breaker of " + communityIdentifier + " is open.");
+    }
+
+    // the call releases its place when it returns, the caller if it gives up before the call started
+    AtomicBoolean isStarted = new AtomicBoolean();
+    Runnable releaseIfNotStarted = () -> {
+      if (isStarted.compareAndSet(false, true)) {
+        circuitBreaker.runningCalls.release();
+      }
+    };
+    Future<T> future;
+    try {
+      future = callExecutor.submit(() -> {
+        if (!isStarted.compareAndSet(false, true)) {
+          return null;
+        }
+        try {
+          return call.call();
+        } finally {
+          circuitBreaker.runningCalls.release();
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      releaseIfNotStarted.run();
+      circuitBreaker.onAbort();
+      throw ex;
+    }
+    int timeoutInSeconds = resilienceConfig.getTimeoutInSeconds(transaction);
+    try {
+      T result = future.get(timeoutInSeconds, TimeUnit.SECONDS);
+      circuitBreaker.onSuccess(communityIdentifier);
+      count(communityIdentifier, "success");
+      return result;
+    } catch (TimeoutException ex) {
+      future.cancel(true);
+      releaseIfNotStarted.run();
+      circuitBreaker.onFailure(communityIdentifier, resilienceConfig.getFailureThreshold());
+      count(communityIdentifier, "timeout");
+      throw new CommunityUnavailableException(
+          transaction + " to " + communityIdentifier + " timed out after " + timeoutInSeconds + "s.");
+    } catch (ExecutionException ex) {
+      if (isCommunityFailure(ex.getCause())) {
+        circuitBreaker.onFailure(communityIdentifier, resilienceConfig.getFailureThreshold());
+        count(communityIdentifier, "failure");
+      } else {
+        circuitBreaker.onAbort();
+        count(communityIdentifier, "error");
+      }
+      if (ex.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw ex;
+    } catch (InterruptedException ex) {
+      future.cancel(true);
+      releaseIfNotStarted.run();
+      circuitBreaker.onAbort();
+      Thread.currentThread().interrupt();
+      throw ex;
+    }
+  }
+
+  /**
+   * Whether a failed call indicates that the community is unavailable, i.e. a transport error or a
+   * server error. Other errors are answered by the community, e.g. a rejected request, and do not
+   * count towards the circuit breaker.
+   */
+  static boolean isCommunityFailure(Throwable throwable) {
+    Set<Throwable> causes = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Throwable cause = throwable; cause != null && causes.add(cause); cause = cause.getCause()) {
+      // HTTPException is an IOException, the status code decides
+      if (cause instanceof HTTPException httpException) {
+        return httpException.getResponseCode() >= 500;
+      }
+      if (cause instanceof SOAPFaultException soapFault) {
+        QName faultCode = soapFault.getFault() != null ? soapFault.getFault().getFaultCodeAsQName() : null;
+        return faultCode != null && SERVER_FAULT_CODES.contains(faultCode.getLocalPart());
+      }
+      if (cause instanceof IOException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the state of the circuit breakers by community identifier.
+   */
+  public Map<String, CircuitBreakerState> getStates() {
+    Map<String, CircuitBreakerState> states = new TreeMap<>();
+    circuitBreakers.forEach((communityIdentifier, circuitBreaker) ->
+        states.put(communityIdentifier, circuitBreaker.getState()));
+    return states;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    callExecutor.shutdownNow();
+  }
+
+  private void count(String communityIdentifier, String result) {
+    Counter.builder("epd.community.calls")
+        .tag("community", communityIdentifier)
+        .tag("result", result)
+        .description("Calls to a community by their result")
+        .register(meterRegistry)
+        .increment();
+  }
+
+  private CircuitBreaker createCircuitBreaker(String communityIdentifier) {
+    CircuitBreaker circuitBreaker = new CircuitBreaker(resilienceConfig.getMaxConcurrentCalls());
+    Gauge.builder("epd.community.circuit.breaker.state", circuitBreaker,
+        breaker -> breaker.getState().state().ordinal())
+        .tag("community", communityIdentifier)
+        .description("State of the circuit breaker of a community, 0: closed, 1: open, 2: half open")
+        .register(meterRegistry);
+    return circuitBreaker;
+  }
+
+  public enum State {
+    /** calls are sent */
+    CLOSED,
+    /** calls fail immediately */
+    OPEN,
+    /** a single trial call is sent, all other calls fail immediately */
+    HALF_OPEN
+  }
+
+  public record CircuitBreakerState(State state, int consecutiveFailures, int runningCalls) {
+  }
+
+  private static final class CircuitBreaker {
+    private final Semaphore runningCalls;
+    private final int maxConcurrentCalls;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean isTrialCallRunning;
+
+    private CircuitBreaker(int maxConcurrentCalls) {
+      this.maxConcurrentCalls = maxConcurrentCalls;
+      runningCalls = new Semaphore(maxConcurrentCalls);
+    }
+
+    private synchronized boolean tryAcquirePermission(long openStateInMillis) {
+      if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openStateInMillis) {
+        state = State.HALF_OPEN;
+      }
+      if (state == State.HALF_OPEN) {
+        if (isTrialCallRunning) {
+          return false;
+        }
+        isTrialCallRunning = true;
+        return true;
+      }
+      return state == State.CLOSED;
+    }
+
+    private synchronized void onSuccess(String communityIdentifier) {
+      if (state != State.CLOSED) {
+        log.info("Circuit breaker of {} closed.", communityIdentifier);
+      }
+      state = State.CLOSED;
+      consecutiveFailures = 0;
+      isTrialCallRunning = false;
+    }
+
+    private synchronized void onFailure(String communityIdentifier, int failureThreshold) {
+      consecutiveFailures++;
+      isTrialCallRunning = false;
+      if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+        log.warn("Circuit breaker of {} opened after {} failed calls.", communityIdentifier, consecutiveFailures);
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+      }
+    }
+
+    private synchronized void onAbort() {
+      isTrialCallRunning = false;
+    }
+
+    private synchronized CircuitBreakerState getState() {
+      return new CircuitBreakerState(state, consecutiveFailures,
+          maxConcurrentCalls - runningCalls.availablePermits());
+    }
+  }
+}
@@ -20,13 +20,19 @@ package ch.admin.bag.vaccination.service.husky;
 
 import static ch.admin.bag.vaccination.service.husky.HuskyUtils.UPLOADER_ROLE_METADATA_KEY;
 
+import ch.admin.bag.vaccination.config.EpdTransportConfig;
+import ch.admin.bag.vaccination.config.ExecutorConfig;
 import ch.admin.bag.vaccination.config.ProfileConfig;
+import ch.admin.bag.vaccination.exception.CommunityUnavailableException;
+import ch.admin.bag.vaccination.exception.IncompleteRetrieveException;
 import ch.admin.bag.vaccination.utils.HttpSessionUtils;
 import ch.admin.bag.vaccination.service.config.VaccinationConfig;
 import ch.admin.bag.vaccination.service.cache.Cache;
 import ch.admin.bag.vaccination.service.husky.config.CommunitiesConfig;
 import ch.admin.bag.vaccination.service.husky.config.CommunityConfig;
 import ch.admin.bag.vaccination.service.husky.config.EPDRepository;
+import ch.admin.bag.vaccination.service.husky.config.EPDTransaction;
+import ch.admin.bag.vaccination.service.husky.config.OidConfig;
 import ch.admin.bag.vaccination.service.husky.config.RepositoryConfig;
 import ch.admin.bag.vaccination.service.husky.config.SenderConfig;
 import ch.fhir.epr.adapter.FhirAdapter;
@@ -46,16 +52,23 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.net.URI;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
@@ -90,6 +103,8 @@ import org.projecthusky.communication.requests.xua.XuaRequest;
 import org.projecthusky.communication.responses.pdq.PdqSearchResults;
 import org.projecthusky.communication.responses.xua.XuaResponse;
 import org.projecthusky.communication.services.HuskyService;
+import org.projecthusky.communication.xd.storedquery.DateTimeRange;
+import org.projecthusky.communication.xd.storedquery.DateTimeRangeAttributes;
 import org.projecthusky.fhir.structures.gen.FhirPatient;
 import org.projecthusky.xua.communication.xua.RequestType;
 import org.projecthusky.xua.communication.xua.TokenType;
@@ -97,6 +112,8 @@ import org.projecthusky.xua.communication.xua.impl.AppliesToBuilderImpl;
 import org.projecthusky.xua.hl7v3.CE;
 import org.projecthusky.xua.saml2.Assertion;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Slf4j
@@ -122,6 +139,24 @@ public class HuskyAdapter implements HuskyAdapterIfc {
   @Autowired
   private HuskyService huskyService;
 
+  @Autowired
+  private XuaAssertionCache xuaAssertionCache;
+
+  @Autowired
+  private CommunityCircuitBreakers circuitBreakers;
+
+  @Autowired
+  @Qualifier(ExecutorConfig.RETRIEVE_EXECUTOR)
+  private ExecutorService retrieveExecutor;
+
+  private final Map<DestinationKey, Destination> destinations = new ConcurrentHashMap<>();
+
+  /** maximal number of documents per retrieve request */
+  @Value("${epdbackend.retrieve.chunkSize:50}")
+  private int retrieveChunkSize;
+  @Value("${epdbackend.retrieve.maxAttempts:2}")
+  private int retrieveMaxAttempts;
+
   @Override
   public List<DocumentEntry> getDocumentEntries(PatientIdentifier patientIdentifier, AuthorDTO author,
       Assertion assertion, boolean useInternal) {
@@ -129,6 +164,30 @@ public class HuskyAdapter implements HuskyAdapterIfc {
         vaccinationConfig.getDocumentType(), author, assertion, useInternal);
   }
 
+  @Override
+  public List<DocumentEntry> getDocumentEntries(PatientIdentifier patientIdentifier, AuthorDTO author,
+      Assertion assertion, boolean useInternal, Instant createdSince) {
+    log.debug("Load {} document entries created since {} for {}", useInternal ? "local" : "cross-community",
+        createdSince, patientIdentifier);
+    var communityConfig = getCommunityConfig(patientIdentifier.getCommunityIdentifier());
+    var repositoryConfig = communityConfig.getRepositoryConfig(
+        useInternal ? EPDRepository.InternalRegistryStoredQuery : EPDRepository.ExternalRegistryStoredQuery);
+
+    if (repositoryConfig.getUri() == null) {
+      log.debug("No URL was specified for cross community repository.");
+      return Collections.emptyList();
+    }
+
+    try {
+      return queryDocumentEntries(communityConfig, repositoryConfig, patientIdentifier,
+          vaccinationConfig.getFormatCodes(), vaccinationConfig.getDocumentType(), author, assertion, createdSince);
+    } catch (CommunityUnavailableException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new TechnicalException("Querying the document entries failed: " + ex.getMessage(), ex);
+    }
+  }
+
   @Override
   public List<DocumentEntry> getDocumentEntries(PatientIdentifier patientIdentifier,
       List<Code> formatCodes, String documentType, AuthorDTO author, Assertion assertion, boolean useInternal) {
@@ -149,20 +208,17 @@ public class HuskyAdapter implements HuskyAdapterIfc {
   @Override
   public PatientIdentifier getPatientIdentifier(String communityIdentifier, String oid, String localId) {
     checkPatientParameter(communityIdentifier, oid, localId);
-    PatientIdentifier patientIdentifier = cache.getPatientIdentifier(oid, localId);
-
-    if (patientIdentifier != null) {
-      return patientIdentifier;
-    }
-
-    if (Boolean.FALSE.equals(profileConfig.getHuskyLocalMode())) {
-      patientIdentifier = getPatientIdentifierFromEPD(communityIdentifier, oid, localId);
-    } else {
-      patientIdentifier = createDummyPatientIdentifier(communityIdentifier, oid, localId);
+    PatientIdentifier patientIdentifier = cache.getPatientIdentifier(communityIdentifier, oid, localId,
+        () -> Boolean.FALSE.equals(profileConfig.getHuskyLocalMode())
+            ? getPatientIdentifierFromEPD(communityIdentifier, oid, localId)
+            : createDummyPatientIdentifier(communityIdentifier, oid, localId));
+
+    if (patientIdentifier == null) {
+      throw new TechnicalException(
+          "Patient was not found. Details: " + new PatientIdentifier(communityIdentifier, localId, oid));
     }
 
     HttpSessionUtils.setParameterInSession(HttpSessionUtils.CACHE_PATIENT_IDENTIFIER, patientIdentifier);
-    cache.putPatientIdentifier(patientIdentifier);
     return patientIdentifier;
   }
 
@@ -219,24 +275,27 @@ public class HuskyAdapter implements HuskyAdapterIfc {
 
       String resourceId = spid.getExtension() + "^^^&" + spid.getRoot() + "&ISO";
 
-      // build the X-User Assertion request
-      XuaRequest xuaRequest = huskyService.createXuaRequest()
-          .clientKeyStore(repository.getXua().getClientKeyStore())
-          .clientKeyStorePass(repository.getXua().getClientKeyStorePass())
-          .clientKeyStoreType(repository.getXua().getClientKeyStoreType())
-          .idpAssertion(idpAssertion)
-          .repositoryUri(repository.getUri())
-          .principalId(author.getPrincipalId())
-          .principalName(author.getPrincipalName())
-          .requestType(RequestType.WST_ISSUE)
-          .tokenType(TokenType.OASIS_WSS_SAML_PROFILE_11_SAMLV20)
-          .purposeOfUse(purposeOfUse)
-          .appliesTo(new AppliesToBuilderImpl().address(uriToAccess).create())
-          .subjectRole(role)
-          .resourceId(resourceId).build();
-
-      XuaResponse xuaResponse = huskyService.send(xuaRequest);
-      return xuaResponse.getAssertion();
+      return xuaAssertionCache.getAssertion(author, idpAssertion, resourceId, uriToAccess, () -> {
+        // build the X-User Assertion request
+        XuaRequest xuaRequest = huskyService.createXuaRequest()
+            .clientKeyStore(repository.getXua().getClientKeyStore())
+            .clientKeyStorePass(repository.getXua().getClientKeyStorePass())
+            .clientKeyStoreType(repository.getXua().getClientKeyStoreType())
+            .idpAssertion(idpAssertion)
+            .repositoryUri(repository.getUri())
+            .principalId(author.getPrincipalId())
+            .principalName(author.getPrincipalName())
+            .requestType(RequestType.WST_ISSUE)
+            .tokenType(TokenType.OASIS_WSS_SAML_PROFILE_11_SAMLV20)
+            .purposeOfUse(purposeOfUse)
+            .appliesTo(new AppliesToBuilderImpl().address(uriToAccess).create())
+            .subjectRole(role)
+            .resourceId(resourceId).build();
+
+        XuaResponse xuaResponse = circuitBreakers.execute(communityConfig.getIdentifier(), EPDTransaction.XUA,
+            () -> huskyService.send(xuaRequest));
+        return xuaResponse.getAssertion();
+      });
     } catch (Exception ex) {
       log.error("Error retrieving XUA token.\nError message: {}", ex);
       throw ex;
@@ -310,35 +369,118 @@ public class HuskyAdapter implements HuskyAdapterIfc {
 
     Identificator spid = new Identificator(patientIdentifier.getSpidRootAuthority(),
         patientIdentifier.getSpidExtension());
+    List<List<DocumentRequest>> chunks = createDocumentRequestChunks(documentEntries, retrieveChunkSize);
 
-    List<DocumentRequest> documentRequestList = new ArrayList<>();
-    documentEntries.forEach(documentEntry -> {
-      var documentRequest = new DocumentRequest(
-          documentEntry.getRepositoryUniqueId(),
-          null,
-          documentEntry.getUniqueId(),
-          documentEntry.getHomeCommunityId());
-      documentRequestList.add(documentRequest);
-    });
-
+    List<Future<List<RetrievedDocument>>> retrieves = new ArrayList<>();
+    List<RetrievedDocument> retrievedDocuments = new ArrayList<>();
     try {
       Assertion xuaAssertion = getXUserAssertion(author, assertion, spid, communityConfig, repositoryConfig.getUri());
-      XdsDocumentSetRequest documentSetRequest = XdsDocumentSetRequest.builder()
-          .destination(getDestination(repositoryConfig))
-          .xuaToken(xuaAssertion)
-          .documentRequests(documentRequestList)
-          .build();
-      log.debug("Retrieve entries for following documents {}", documentRequestList);
-      RetrievedDocumentSet documentSet = huskyService.send(documentSetRequest);
-      log.debug("Found {} documents.", documentSet.getDocuments().size());
-
-      return documentSet.getDocuments();
+      Destination destination = getDestination(repositoryConfig);
+      String communityIdentifier = communityConfig.getIdentifier();
+      if (chunks.size() == 1) {
+        retrievedDocuments.addAll(
+            retrieveDocuments(communityIdentifier, destination, xuaAssertion, chunks.getFirst()));
+        return retrievedDocuments;
+      }
+
+      for (List<DocumentRequest> chunk : chunks) {
+        retrieves.add(retrieveExecutor.submit(
+            () -> retrieveDocuments(communityIdentifier, destination, xuaAssertion, chunk)));
+      }
+      int failedRetrieves = 0;
+      for (Future<List<RetrievedDocument>> retrieve : retrieves) {
+        try {
+          retrievedDocuments.addAll(retrieve.get());
+        } catch (ExecutionException ex) {
+          if (ex.getCause() instanceof CommunityUnavailableException unavailable) {
+            retrieves.forEach(remainingRetrieve -> remainingRetrieve.cancel(true));
+            throw unavailable;
+          }
+          log.warn("Error while retrieving document data: {}", ex.getCause().getMessage());
+          failedRetrieves++;
+        }
+      }
+      log.debug("Found {} documents in {} requests.", retrievedDocuments.size(), chunks.size());
+      if (failedRetrieves == chunks.size()) {
+        throw new TechnicalException("All " + chunks.size() + " retrieve requests failed.");
+      }
+      if (failedRetrieves > 0) {
+        throw new IncompleteRetrieveException(failedRetrieves + " of " + chunks.size() + " retrieve requests failed.",
+            retrievedDocuments);
+      }
+      return retrievedDocuments;
+    } catch (TechnicalException ex) {
+      // also CommunityUnavailableException and IncompleteRetrieveException
+      throw ex;
+    } catch (InterruptedException ex) {
+      retrieves.forEach(retrieve -> retrieve.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IncompleteRetrieveException("Retrieving document data was interrupted.", retrievedDocuments);
     } catch (Exception ex) {
       log.warn("Error while retrieving document data: {}", ex.getMessage());
-      return Arrays.asList();
+      throw new TechnicalException(ex.getMessage(), ex);
     }
   }
 
+  /**
+   * Groups the requests of the documents by repository and home community and splits each group
+   * into chunks of at most <code>chunkSize</code> requests.
+   */
+  static List<List<DocumentRequest>> createDocumentRequestChunks(List<DocumentEntry> documentEntries,
+      int chunkSize) {
+    Map<List<String>, List<DocumentRequest>> requestsByRepository = new LinkedHashMap<>();
+    documentEntries.forEach(documentEntry -> requestsByRepository
+        .computeIfAbsent(Arrays.asList(documentEntry.getRepositoryUniqueId(), documentEntry.getHomeCommunityId()),
+            repository -> new ArrayList<>())
+        .add(new DocumentRequest(
+            documentEntry.getRepositoryUniqueId(),
+            null,
+            documentEntry.getUniqueId(),
+            documentEntry.getHomeCommunityId())));
+
+    List<List<DocumentRequest>> chunks = new ArrayList<>();
+    int size = Math.max(chunkSize, 1);
+    requestsByRepository.values().forEach(requests -> {
+      for (int i = 0; i < requests.size(); i += size) {
+        chunks.add(new ArrayList<>(requests.subList(i, Math.min(i + size, requests.size()))));
+      }
+    });
+    return chunks;
+  }
+
+  /**
+   * Retrieves a chunk of documents, a failed request is repeated up to
+   * <code>epdbackend.retrieve.maxAttempts</code> times.
+   *
+   * @return the retrieved documents
+   * @throws CommunityUnavailableException if the community is unavailable, the request is not repeated then.
+   * @throws TechnicalException if all attempts failed
+   */
+  private List<RetrievedDocument> retrieveDocuments(String communityIdentifier, Destination destination,
+      Assertion xuaAssertion, List<DocumentRequest> documentRequests) {
+    XdsDocumentSetRequest documentSetRequest = XdsDocumentSetRequest.builder()
+        .destination(destination)
+        .xuaToken(xuaAssertion)
+        .documentRequests(documentRequests)
+        .build();
+    log.debug("Retrieve entries for following documents {}", documentRequests);
+    for (int attempt = 1; attempt <= retrieveMaxAttempts; attempt++) {
+      try {
+        RetrievedDocumentSet documentSet = circuitBreakers.execute(communityIdentifier,
+            EPDTransaction.RETRIEVE_DOCUMENT_SET, () -> huskyService.send(documentSetRequest));
+        log.debug("Found {} documents.", documentSet.getDocuments().size());
+        return documentSet.getDocuments();
+      } catch (CommunityUnavailableException ex) {
+        throw ex;
+      } catch (Exception ex) {
+        log.warn("Error while retrieving document data, attempt {} of {}: {}", attempt, retrieveMaxAttempts,
+            ex.getMessage());
+      }
+    }
+    throw new TechnicalException("Retrieving " + documentRequests.size() + " documents failed after "
+        + retrieveMaxAttempts + " attempts.");
+  }
+
   protected DocumentMetadata setDocumentMetadata(Identificator localIdentifier, Identificator globalIdentifier,
       BaseDTO dto, boolean isVaccinationRecord) {
     DocumentMetadata metadata = new DocumentMetadata();
@@ -464,7 +606,19 @@ public class HuskyAdapter implements HuskyAdapterIfc {
     return communityConfig;
   }
 
+  /**
+   * Returns the destination of a repository. Destinations are created once per endpoint, the key
+   * and trust stores are taken from the <code>javax.net.ssl</code> system properties at this time.
+   * The connections to the endpoint are configured by {@link EpdTransportConfig}.
+   */
   private Destination getDestination(RepositoryConfig repositoryConfig) {
+    OidConfig receiver = repositoryConfig.getReceiver();
+    DestinationKey key = new DestinationKey(repositoryConfig.getUri(), receiver.getApplicationOid(),
+        receiver.getFacilityOid());
+    return destinations.computeIfAbsent(key, k -> createDestination(repositoryConfig));
+  }
+
+  private Destination createDestination(RepositoryConfig repositoryConfig) {
     var dest = new Destination();
 
     dest.setUri(URI.create(repositoryConfig.getUri()));
@@ -485,26 +639,40 @@ public class HuskyAdapter implements HuskyAdapterIfc {
   private List<DocumentEntry> getDocumentEntries(CommunityConfig communityConfig,
       RepositoryConfig repositoryConfig, PatientIdentifier patientIdentifier,
       List<Code> formatCodes, String documentType, AuthorDTO author, Assertion assertion) {
+    try {
+      return queryDocumentEntries(communityConfig, repositoryConfig, patientIdentifier, formatCodes, documentType,
+          author, assertion, null);
+    } catch (CommunityUnavailableException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      log.warn("Error while retrieving document entries: {}", ex.getMessage());
+      return List.of();
+    }
+  }
+
+  private List<DocumentEntry> queryDocumentEntries(CommunityConfig communityConfig,
+      RepositoryConfig repositoryConfig, PatientIdentifier patientIdentifier, List<Code> formatCodes,
+      String documentType, AuthorDTO author, Assertion assertion, Instant createdSince) throws Exception {
     Identificator globalId = new Identificator(patientIdentifier.getGlobalAuthority(),
         patientIdentifier.getGlobalExtension());
     Identificator spid = new Identificator(patientIdentifier.getSpidRootAuthority(),
         patientIdentifier.getSpidExtension());
 
-    try {
-      Assertion xUserAssertion = getXUserAssertion(author, assertion, spid, communityConfig, repositoryConfig.getUri());
-      XdsRegistryStoredFindDocumentsQuery xdsRegistryStoredFindDocumentsQuery = XdsRegistryStoredFindDocumentsQuery.builder()
-          .destination(getDestination(repositoryConfig))
-          .xuaToken(xUserAssertion)
-          .patientID(globalId)
-          .formatCodes(formatCodes).availabilityStatus(AvailabilityStatus.APPROVED)
-          .build();
-      log.debug("Request approved document entries for identificator {} and format codes {}", globalId, formatCodes);
-      QueryResponse response = huskyService.send(xdsRegistryStoredFindDocumentsQuery);
-      return filterDocumentsByType(response.getDocumentEntries(), documentType);
-    } catch (Exception ex) {
-      log.warn("Error while retrieving document entries: {}", ex.getMessage());
-      return List.of();
+    Assertion xUserAssertion = getXUserAssertion(author, assertion, spid, communityConfig, repositoryConfig.getUri());
+    var queryBuilder = XdsRegistryStoredFindDocumentsQuery.builder()
+        .destination(getDestination(repositoryConfig))
+        .xuaToken(xUserAssertion)
+        .patientID(globalId)
+        .formatCodes(formatCodes).availabilityStatus(AvailabilityStatus.APPROVED);
+    if (createdSince != null) {
+      queryBuilder.dateTimeRanges(List.of(new DateTimeRange(DateTimeRangeAttributes.DOCUMENT_ENTRY_CREATION_TIME,
+          createdSince.atZone(ZoneOffset.UTC), null)));
     }
+    XdsRegistryStoredFindDocumentsQuery xdsRegistryStoredFindDocumentsQuery = queryBuilder.build();
+    log.debug("Request approved document entries for identificator {} and format codes {}", globalId, formatCodes);
+    QueryResponse response = circuitBreakers.execute(communityConfig.getIdentifier(),
+        EPDTransaction.REGISTRY_STORED_QUERY, () -> huskyService.send(xdsRegistryStoredFindDocumentsQuery));
+    return filterDocumentsByType(response.getDocumentEntries(), documentType);
   }
 
   private PatientIdentifier getPatientIdentifierFromEPD(String communityIdentifier, String localAssigningAuthorityOid,
@@ -534,15 +702,19 @@ public class HuskyAdapter implements HuskyAdapterIfc {
 
     final PdqSearchResults pdqSearchResults;
     try {
-      pdqSearchResults = huskyService.send(pdqSearchQuery);
+      pdqSearchResults = circuitBreakers.execute(communityIdentifier, EPDTransaction.PDQ,
+          () -> huskyService.send(pdqSearchQuery));
       log.debug("Found: {} patient/s",
           pdqSearchResults.getPatients() == null ? 0 : pdqSearchResults.getPatients().size());
+    } catch (CommunityUnavailableException ex) {
+      throw ex;
     } catch(Exception ex) {
       throw new TechnicalException("Error while retrieving the patient data." + ex.getMessage());
     }
 
     if (pdqSearchResults.getPatients() == null || pdqSearchResults.getPatients().size() != 1) {
-      throw new TechnicalException("Patient was not found. Details: " + patientIdentifier);
+      log.debug("Patient was not found. Details: {}", patientIdentifier);
+      return null;
     }
 
     FhirPatient patient = pdqSearchResults.getPatients().getFirst();
@@ -626,6 +798,11 @@ public class HuskyAdapter implements HuskyAdapterIfc {
       Identificator localIdentifier, RepositoryConfig repositoryConfig) throws Exception {
     log.debug("Add document with confidentiality {} to the EPD {}.", dto.getConfidentiality().getName(), json);
     DocumentMetadata documentMetadata = setDocumentMetadata(localIdentifier, globalId, dto, isVaccinationRecord);
+    // the written document is cached under this id, so a reload finds it
+    String documentUniqueId = HuskyUtils.getDocumentUniqueId(uuid);
+    if (documentUniqueId != null) {
+      documentMetadata.getXDoc().setUniqueId(documentUniqueId);
+    }
     SubmissionSetMetadata subSet = new SubmissionSetMetadata();
     setSubmissionSetMetadata(subSet, globalId, dto.getAuthor());
 
@@ -648,7 +825,8 @@ public class HuskyAdapter implements HuskyAdapterIfc {
               .destination(getDestination(repositoryConfig))
               .xuaToken(xUserAssertion).build();
 
-      Response response = huskyService.send(provideAndRetrieveDocumentSetQuery);
+      Response response = circuitBreakers.execute(communityConfig.getIdentifier(),
+          EPDTransaction.PROVIDE_AND_REGISTER, () -> huskyService.send(provideAndRetrieveDocumentSetQuery));
       log.debug("writeDocument status {}", response);
       if (Status.FAILURE.equals(response.getStatus()) || Status.PARTIAL_SUCCESS.equals(response.getStatus())) {
         log.error("Error codes occured during writing: {}", response.getErrors());
@@ -666,4 +844,7 @@ public class HuskyAdapter implements HuskyAdapterIfc {
 
     return Status.SUCCESS.name();
   }
+
+  private record DestinationKey(String uri, String receiverApplicationOid, String receiverFacilityOid) {
+  }
 }
@@ -18,10 +18,14 @@
  */
 package ch.admin.bag.vaccination.service.husky;
 
+import ch.admin.bag.vaccination.exception.CommunityUnavailableException;
+import ch.admin.bag.vaccination.exception.IncompleteRetrieveException;
 import ch.admin.bag.vaccination.service.husky.config.CommunityConfig;
 import ch.fhir.epr.adapter.data.PatientIdentifier;
 import ch.fhir.epr.adapter.data.dto.AuthorDTO;
 import ch.fhir.epr.adapter.data.dto.BaseDTO;
+import ch.fhir.epr.adapter.exception.TechnicalException;
+import java.time.Instant;
 import java.util.List;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.RetrievedDocument;
@@ -44,6 +48,22 @@ public interface HuskyAdapterIfc {
   List<DocumentEntry> getDocumentEntries(PatientIdentifier patientIdentifier, AuthorDTO author,
       Assertion assertion, boolean useInternal);
 
+  /**
+   * Returns the list of DocumentEntries created since a given time.
+   *
+   * @param patientIdentifier contains all the required patientInfo
+   * @param author Author of the transaction
+   * @param assertion the assertion
+   * @param useInternal flag to distinguish between internal and external repository, external
+   *        repository is used for cross community communication.
+   * @param createdSince the earliest creation time of the entries, <code>null</code> for all entries
+   * @return the list of {@link DocumentEntry}
+   * @throws CommunityUnavailableException if the community is unavailable
+   * @throws TechnicalException if the registry could not be queried
+   */
+  List<DocumentEntry> getDocumentEntries(PatientIdentifier patientIdentifier, AuthorDTO author,
+      Assertion assertion, boolean useInternal, Instant createdSince);
+
   /**
    * Returns the list of DocumentEntries.
    *
@@ -55,6 +75,8 @@ public interface HuskyAdapterIfc {
    * @param useInternal flag to distinguish between internal and external repository, external
    *        repository is used for cross community communication.
    * @return the list of {@link DocumentEntry}
+   * @throws CommunityUnavailableException if the community is unavailable, other errors result in
+   *         an empty list
    */
   List<DocumentEntry> getDocumentEntries(PatientIdentifier patientIdentifier,
       List<Code> formatCodes, String documentType, AuthorDTO author, Assertion assertion, boolean useInternal);
@@ -82,6 +104,10 @@ public interface HuskyAdapterIfc {
    *        repository is used for cross community communication.
    *
    * @return the list of {@link RetrievedDocument}
+   * @throws CommunityUnavailableException if the community is unavailable
+   * @throws IncompleteRetrieveException if not all documents could be retrieved, it contains the
+   *         documents retrieved nevertheless
+   * @throws TechnicalException if no document could be retrieved
    */
   List<RetrievedDocument> getRetrievedDocuments(PatientIdentifier patientIdentifier,
       List<DocumentEntry> documentEntries, AuthorDTO author, Assertion assertion, boolean useInternal);
@@ -18,7 +18,11 @@
  */
 package ch.admin.bag.vaccination.service.husky;
 
+import ch.fhir.epr.adapter.FhirConstants;
 import ch.fhir.epr.adapter.data.dto.ValueDTO;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.UUID;
 import lombok.extern.slf4j.Slf4j;
 import org.projecthusky.common.enums.ValueSetEnumInterface;
 import org.projecthusky.common.model.Code;
@@ -102,6 +106,32 @@ public class HuskyUtils {
         org.projecthusky.xua.hl7v3.Role.DEFAULT_PREFIX);
   }
 
+  /**
+   * Get the XDS unique id of a document written from a bundle. The UUID of the bundle is converted
+   * to an OID (2.25.&lt;UUID as integer&gt;), so the written document is known by the same id when
+   * it is loaded again.
+   *
+   * @param bundleUuid the identifier of the bundle, with or without urn:uuid: prefix
+   * @return the unique id or <code>null</code> if the identifier is not a UUID
+   */
+  static public String getDocumentUniqueId(String bundleUuid) {
+    if (bundleUuid == null) {
+      return null;
+    }
+
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(bundleUuid.replace(FhirConstants.DEFAULT_ID_PREFIX, ""));
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+    byte[] bytes = ByteBuffer.allocate(16)
+        .putLong(uuid.getMostSignificantBits())
+        .putLong(uuid.getLeastSignificantBits())
+        .array();
+    return "2.25." + new BigInteger(1, bytes);
+  }
+
 
   static private CE getCodedWithEquivalent(ValueSetEnumInterface value, String nsURI, String elementLocalName,
       String prefix) {
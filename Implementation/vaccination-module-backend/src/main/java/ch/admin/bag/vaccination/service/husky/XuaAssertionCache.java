@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.husky;
+
+import ch.fhir.epr.adapter.data.dto.AuthorDTO;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Subject;
+import org.projecthusky.xua.saml2.Assertion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Cache of the X-User Assertions issued by the XUA security token service. An assertion is reused
+ * for the same user, role, purpose of use, patient and accessed repository until shortly before it
+ * expires, so the WS-Trust round trip is only done once per validity period.
+ * <p>
+ * An assertion is removed once it must be renewed, also if the session ending it is never removed,
+ * and the number of cached assertions is limited.
+ *
+ */
+@Service
+@Slf4j
+public class XuaAssertionCache {
+  private com.github.benmanes.caffeine.cache.Cache<XuaAssertionKey, Assertion> assertionCache;
+  private Map<XuaAssertionKey, Assertion> assertions;
+  private Counter hits;
+  private Counter misses;
+  private Counter avoidedStsSeconds;
+  private Timer stsTimer;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${epdbackend.xua.cache.enabled:true}")
+  private boolean isCacheEnabled;
+  @Value("${epdbackend.xua.cache.renewBeforeExpiryInSeconds:60}")
+  private int renewBeforeExpiryInSeconds;
+  @Value("${epdbackend.xua.cache.maxEntries:10000}")
+  private int maxEntries;
+
+  /**
+   * Removes all assertions issued for the given user, e.g. after a logout.
+   *
+   * @param subjectName name id of the user's IdP assertion
+   */
+  public void evict(String subjectName) {
+    if (subjectName != null && assertions.keySet().removeIf(key -> subjectName.equals(key.subjectName()))) {
+      log.debug("Removed cached XUA assertions of {}", subjectName);
+    }
+  }
+
+  /**
+   * Returns a valid X-User Assertion, either from the cache or by calling the security token service.
+   *
+   * @param author the author requesting access
+   * @param idpAssertion the IdP assertion of the author
+   * @param resourceId the EPR-SPID of the patient in XUA notation
+   * @param uriToAccess the URI the assertion is issued for
+   * @param stsCall the call to the security token service
+   * @return the X-User Assertion
+   * @throws Exception if the security token service could not be called
+   */
+  public Assertion getAssertion(AuthorDTO author, Assertion idpAssertion, String resourceId, String uriToAccess,
+      Callable<Assertion> stsCall) throws Exception {
+    if (!isCacheEnabled) {
+      return stsTimer.recordCallable(stsCall);
+    }
+
+    XuaAssertionKey key = new XuaAssertionKey(getSubjectName(idpAssertion), author.getPrincipalId(),
+        author.getGln(), author.getRole(), author.getPurpose(), resourceId, uriToAccess);
+    Assertion assertion = assertions.get(key);
+    if (assertion != null && isValid(assertion)) {
+      log.debug("Using cached XUA assertion for {}", uriToAccess);
+      hits.increment();
+      avoidedStsSeconds.increment(stsTimer.mean(TimeUnit.SECONDS));
+      return assertion;
+    }
+    if (assertion != null) {
+      assertions.remove(key, assertion);
+    }
+
+    misses.increment();
+    assertion = stsTimer.recordCallable(stsCall);
+    if (assertion != null && isValid(assertion)) {
+      assertions.put(key, assertion);
+    } else {
+      assertions.remove(key);
+    }
+    return assertion;
+  }
+
+  /**
+   * Checks whether an assertion is still valid for at least the given time.
+   *
+   * @param assertion the assertion, may be <code>null</code>
+   * @param minValidityInSeconds time the assertion must still be valid
+   * @return <code>true</code> if the assertion expires after the given time
+   */
+  public static boolean isValid(Assertion assertion, long minValidityInSeconds) {
+    Instant notOnOrAfter = assertion != null ? getNotOnOrAfter(assertion) : null;
+    return notOnOrAfter != null && Instant.now().plusSeconds(minValidityInSeconds).isBefore(notOnOrAfter);
+  }
+
+  @PostConstruct
+  void init() {
+    assertionCache = Caffeine.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfter(new AssertionExpiry())
+        .build();
+    assertions = assertionCache.asMap();
+    hits = Counter.builder("xua.assertion.cache.requests").tag("result", "hit")
+        .description("XUA assertions served from the cache").register(meterRegistry);
+    misses = Counter.builder("xua.assertion.cache.requests").tag("result", "miss")
+        .description("XUA assertions requested from the security token service").register(meterRegistry);
+    avoidedStsSeconds = Counter.builder("xua.assertion.cache.avoided.sts.seconds")
+        .description("Estimated security token service latency avoided by cache hits").register(meterRegistry);
+    stsTimer = Timer.builder("xua.assertion.sts.requests")
+        .description("Latency of the security token service").register(meterRegistry);
+    Gauge.builder("xua.assertion.cache.size", assertions, Map::size).register(meterRegistry);
+  }
+
+  @Scheduled(fixedDelay = 60000)
+  void removeExpiredAssertions() {
+    assertionCache.cleanUp();
+  }
+
+  private String getSubjectName(Assertion idpAssertion) {
+    Subject subject = ((org.opensaml.saml.saml2.core.Assertion) idpAssertion.getWrappedObject()).getSubject();
+    return subject != null && subject.getNameID() != null ? subject.getNameID().getValue() : null;
+  }
+
+  private static Instant getNotOnOrAfter(Assertion assertion) {
+    if (!(assertion.getWrappedObject() instanceof org.opensaml.saml.saml2.core.Assertion samlAssertion)) {
+      return null;
+    }
+
+    Conditions conditions = samlAssertion.getConditions();
+    return conditions != null ? conditions.getNotOnOrAfter() : null;
+  }
+
+  /**
+   * @return the nanoseconds until the assertion must be renewed, 0 if it must be renewed now.
+   */
+  private long getRemainingValidityInNanos(Assertion assertion) {
+    Instant notOnOrAfter = getNotOnOrAfter(assertion);
+    if (notOnOrAfter == null) {
+      return 0;
+    }
+    Duration remaining = Duration.between(Instant.now(), notOnOrAfter.minusSeconds(renewBeforeExpiryInSeconds));
+    return remaining.isNegative() ? 0 : remaining.toNanos();
+  }
+
+  private boolean isValid(Assertion assertion) {
+    return isValid(assertion, renewBeforeExpiryInSeconds);
+  }
+
+  /**
+   * Expires an assertion when it must be renewed.
+   */
+  private final class AssertionExpiry implements Expiry<XuaAssertionKey, Assertion> {
+    @Override
+    public long expireAfterCreate(XuaAssertionKey key, Assertion assertion, long currentTime) {
+      return getRemainingValidityInNanos(assertion);
+    }
+
+    @Override
+    public long expireAfterUpdate(XuaAssertionKey key, Assertion assertion, long currentTime,
+        long currentDuration) {
+      return getRemainingValidityInNanos(assertion);
+    }
+
+    @Override
+    public long expireAfterRead(XuaAssertionKey key, Assertion assertion, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+
+  private record XuaAssertionKey(String subjectName, String principalId, String gln, String role, String purpose,
+      String resourceId, String uriToAccess) {
+  }
+}
@@ -19,6 +19,11 @@
 package ch.admin.bag.vaccination.service.husky.config;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -33,10 +38,28 @@ public class CommunitiesConfig {
   /** list of supported communities */
   private List<CommunityConfig> communities;
 
+  /** communities by their upper case identifier, built on the first lookup */
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private volatile Map<String, CommunityConfig> communitiesByIdentifier;
+
+  public void setCommunities(List<CommunityConfig> communities) {
+    this.communities = communities;
+    communitiesByIdentifier = null;
+  }
+
   public CommunityConfig getCommunityConfig(String communityIdentifier) {
-    return communities.stream()
-        .filter(config -> config.getIdentifier().equalsIgnoreCase(communityIdentifier))
-        .findFirst()
-        .orElse(null);
+    if (communityIdentifier == null) {
+      return null;
+    }
+
+    Map<String, CommunityConfig> index = communitiesByIdentifier;
+    if (index == null) {
+      index = communities.stream()
+          .collect(Collectors.toUnmodifiableMap(config -> config.getIdentifier().toUpperCase(Locale.ROOT),
+              Function.identity(), (first, second) -> first));
+      communitiesByIdentifier = index;
+    }
+    return index.get(communityIdentifier.toUpperCase(Locale.ROOT));
   }
 }
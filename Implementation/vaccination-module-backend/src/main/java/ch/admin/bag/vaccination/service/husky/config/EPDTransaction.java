@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.husky.config;
+
+/**
+ * Transactions sent to a community, each of them with its own timeout, see {@link ResilienceConfig}.
+ */
+public enum EPDTransaction {
+  /** Patient Demographics Query */
+  PDQ,
+  /** Query the X-User-Assertion */
+  XUA,
+  /** Registry Stored Query (ITI-18) */
+  REGISTRY_STORED_QUERY,
+  /** Retrieve Document Set (ITI-43) */
+  RETRIEVE_DOCUMENT_SET,
+  /** Provide and Register Document Set (ITI-41) */
+  PROVIDE_AND_REGISTER
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.husky.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Limits of the calls to a community, e.g. <code>epdbackend.resilience.failureThreshold</code>.
+ * Each community has its own limit of concurrent calls and its own circuit breaker.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "epdbackend.resilience")
+@Getter
+@Setter
+public class ResilienceConfig {
+  /** calls are sent without limits if disabled */
+  private boolean enabled = true;
+  /** maximal number of concurrent calls to a community, further calls fail immediately */
+  private int maxConcurrentCalls = 16;
+  /** number of consecutive failed calls opening the circuit breaker of a community */
+  private int failureThreshold = 5;
+  /** time the circuit breaker stays open before a trial call is sent */
+  private int openStateInSeconds = 30;
+  private int pdqTimeoutInSeconds = 10;
+  private int xuaTimeoutInSeconds = 10;
+  private int registryStoredQueryTimeoutInSeconds = 15;
+  private int retrieveDocumentSetTimeoutInSeconds = 20;
+  private int provideAndRegisterTimeoutInSeconds = 30;
+
+  public int getTimeoutInSeconds(EPDTransaction transaction) {
+    return switch (transaction) {
+      case PDQ -> pdqTimeoutInSeconds;
+      case XUA -> xuaTimeoutInSeconds;
+      case REGISTRY_STORED_QUERY -> registryStoredQueryTimeoutInSeconds;
+      case RETRIEVE_DOCUMENT_SET -> retrieveDocumentSetTimeoutInSeconds;
+      case PROVIDE_AND_REGISTER -> provideAndRegisterTimeoutInSeconds;
+    };
+  }
+}
@@ -19,7 +19,9 @@
 package ch.admin.bag.vaccination.service.saml;
 
 import ch.admin.bag.vaccination.config.ProfileConfig;
+import ch.admin.bag.vaccination.service.PrefetchService;
 import ch.admin.bag.vaccination.utils.HttpSessionUtils;
+import ch.admin.bag.vaccination.service.husky.XuaAssertionCache;
 import ch.admin.bag.vaccination.service.saml.config.IdentityProviderConfig;
 import ch.admin.bag.vaccination.service.saml.config.IdpProvider;
 import jakarta.servlet.http.HttpServletRequest;
@@ -100,6 +102,12 @@ public class SAMLService implements SAMLServiceIfc {
   @Autowired
   private ProfileConfig profilConfig;
 
+  @Autowired
+  private XuaAssertionCache xuaAssertionCache;
+
+  @Autowired
+  private PrefetchService prefetchService;
+
   @Value("${idp.knownEntityId}")
   private String spEntityId;
 
@@ -156,6 +164,7 @@ public class SAMLService implements SAMLServiceIfc {
     log.debug("add {} {}", session.getId(), principal.getName());
     addAuthenticatedSessionId(session.getId(), securityContext);
     SecurityContextHolder.setContext(securityContext);
+    prefetchService.prefetchDocuments(session, assertion);
   }
 
   @Override
@@ -193,6 +202,7 @@ public class SAMLService implements SAMLServiceIfc {
   @Override
   public String logout(String name) {
     log.debug("Logout NameId {}", name);
+    xuaAssertionCache.evict(name);
 
     String sessionId = nameToSessionId.remove(name);
     if (sessionId != null) {
@@ -303,6 +313,7 @@ public class SAMLService implements SAMLServiceIfc {
       log.debug("Remove sessionId {}", sessionId);
       if (securityContext.getAuthentication() != null && securityContext.getAuthentication().getName() != null) {
         nameToSessionId.remove(securityContext.getAuthentication().getName());
+        xuaAssertionCache.evict(securityContext.getAuthentication().getName());
       }
     }
 
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.utils;
+
+import ch.fhir.epr.adapter.exception.TechnicalException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Utility class to compress text with the deflate algorithm.
+ */
+public class CompressionUtils {
+
+  /**
+   * Compresses the UTF-8 bytes of a text.
+   *
+   * @param content text to compress
+   * @param level deflate compression level, 0-9
+   * @return the compressed bytes
+   */
+  public static byte[] deflate(String content, int level) {
+    byte[] input = content.getBytes(StandardCharsets.UTF_8);
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(input);
+      deflater.finish();
+      ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        output.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Restores a text compressed by {@link #deflate(String, int)}.
+   *
+   * @param compressed compressed bytes
+   * @return the text
+   * @throws TechnicalException if the bytes are not deflate compressed
+   */
+  public static String inflate(byte[] compressed) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 4);
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new TechnicalException("Compressed content is truncated.");
+        }
+        output.write(buffer, 0, length);
+      }
+      return output.toString(StandardCharsets.UTF_8);
+    } catch (DataFormatException ex) {
+      throw new TechnicalException("Compressed content could not be read.", ex);
+    } finally {
+      inflater.end();
+    }
+  }
+}
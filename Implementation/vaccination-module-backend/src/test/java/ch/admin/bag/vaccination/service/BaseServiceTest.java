@@ -100,7 +100,7 @@ class BaseServiceTest {
     newRetrieveDoc.setRequestData(new DocumentReference(null, "test", null));
 
     List<EPRDocument> eprDocuments = ReflectionTestUtils.invokeMethod(baseService, "processAndValidateDocuments",
-        Collections.EMPTY_LIST, List.of(newRetrieveDoc));
+        Collections.EMPTY_LIST, List.of(newRetrieveDoc), Collections.emptyMap());
 
     assertEquals(1, eprDocuments.size());
     assertTrue(eprDocuments.stream().anyMatch(EPRDocument::isTrusted));
@@ -20,6 +20,7 @@ package ch.admin.bag.vaccination.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import ch.fhir.epr.adapter.data.dto.AllergyDTO;
@@ -31,12 +32,18 @@ import ch.fhir.epr.adapter.data.dto.MedicalProblemDTO;
 import ch.fhir.epr.adapter.data.dto.PastIllnessDTO;
 import ch.fhir.epr.adapter.data.dto.VaccinationDTO;
 import ch.fhir.epr.adapter.data.dto.ValueDTO;
+import ch.fhir.epr.adapter.utils.ValidationUtils;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -424,6 +431,50 @@ public class LifeCycleServiceTest {
     assertThat(onePrevious.get("1")).isNotNull();
   }
 
+  @Test
+  void handle_randomHistories_sameResultAsNestedLoopImplementation() {
+    Random random = new Random(4711);
+    for (int run = 0; run < 500; run++) {
+      long seed = random.nextLong();
+      int size = 1 + random.nextInt(60);
+      for (boolean keepModifiedEntries : List.of(false, true)) {
+        List<VaccinationDTO> expectedItems = createRandomHistory(seed, size);
+        List<VaccinationDTO> actualItems = createRandomHistory(seed, size);
+
+        List<? extends BaseDTO> expected = NestedLoopLifeCycle.handle(expectedItems, keepModifiedEntries);
+        List<? extends BaseDTO> actual = lifeCycleService.handle(actualItems, keepModifiedEntries);
+
+        String scenario = "seed " + seed + ", size " + size + ", keepModifiedEntries " + keepModifiedEntries;
+        assertThat(actual.stream().map(BaseDTO::getId).toList()).as(scenario)
+            .isEqualTo(expected.stream().map(BaseDTO::getId).toList());
+        assertThat(actualItems.stream().map(this::flags).toList()).as(scenario)
+            .isEqualTo(expectedItems.stream().map(this::flags).toList());
+      }
+    }
+  }
+
+  /**
+   * V1 <- V2 <- ... <- V10000 -> V10000
+   */
+  @Test
+  void handle_longHistory_isHandledInReasonableTime() {
+    List<VaccinationDTO> history = new ArrayList<>();
+    List<VaccinationDTO> extrapolatedHistory = new ArrayList<>();
+    for (int i = 1; i <= 10000; i++) {
+      history.add(createHistoryEntry(i, i > 1 ? String.valueOf(i - 1) : null));
+      // every previous entry is missing, so it has to be extrapolated
+      extrapolatedHistory.add(createHistoryEntry(i, "missing" + i));
+    }
+    Collections.shuffle(history, new Random(1));
+
+    assertTimeout(Duration.ofSeconds(10), () -> {
+      assertThat(lifeCycleService.handle(history, false)).extracting(BaseDTO::getId).containsExactly("10000");
+      assertThat(lifeCycleService.handle(history, true)).hasSize(10000).filteredOn(BaseDTO::isUpdated).hasSize(9999);
+      assertThat(lifeCycleService.handle(extrapolatedHistory, false)).extracting(BaseDTO::getId)
+          .containsExactly("10000");
+    });
+  }
+
   /**
    * V1, V2, V3, V4 -> V1, V2, V3, V4
    */
@@ -438,6 +489,155 @@ public class LifeCycleServiceTest {
     assertThat(managedList.get(3).getId()).isEqualTo("1");
   }
 
+  private VaccinationDTO createHistoryEntry(int i, String relatedId) {
+    VaccinationDTO vaccination = new VaccinationDTO(String.valueOf(i), new ValueDTO("code", "code", "testsystem"),
+        null, null, 1, LocalDate.of(2020, 1, 1), null, null, null, null, null, null);
+    vaccination.setCreatedAt(LocalDateTime.of(2020, 1, 1, 0, 0).plusSeconds(i));
+    vaccination.setRelatedId(relatedId);
+    return vaccination;
+  }
+
+  /**
+   * Creates a random history where an entry only refers to entries created before it or to missing
+   * entries, as the nested loop implementation does not terminate on cyclic references.
+   */
+  private List<VaccinationDTO> createRandomHistory(long seed, int size) {
+    Random random = new Random(seed);
+    List<ValueDTO> codes = List.of(new ValueDTO("a", "A", "testsystem"), new ValueDTO("A", "a", "TESTSYSTEM"),
+        new ValueDTO("b", "B", "testsystem"), new ValueDTO("c", "C", "testsystem"));
+    List<LocalDate> days = List.of(LocalDate.of(2020, 1, 1), LocalDate.of(2021, 1, 1));
+    List<Integer> secondsCreated = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      secondsCreated.add(i);
+    }
+    Collections.shuffle(secondsCreated, random);
+
+    List<VaccinationDTO> history = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      VaccinationDTO vaccination = new VaccinationDTO(String.valueOf(i), codes.get(random.nextInt(codes.size())),
+          null, random.nextBoolean() ? new CommentDTO(null, null, "comment" + random.nextInt(2)) : null,
+          random.nextInt(2), days.get(random.nextInt(days.size())), null, null, null, null, null, null);
+      vaccination.setCreatedAt(LocalDateTime.of(2020, 1, 1, 0, 0).plusSeconds(secondsCreated.get(i)));
+      vaccination.setDeleted(random.nextInt(4) == 0);
+      vaccination.setValidated(random.nextBoolean());
+      vaccination.setAuthor(new AuthorDTO(null, random.nextInt(3) == 0 ? "HCP" : "PAT", null));
+      history.add(vaccination);
+    }
+
+    List<VaccinationDTO> sortedByCreatedAt =
+        history.stream().sorted(Comparator.comparing(BaseDTO::getCreatedAt)).toList();
+    for (int i = 1; i < size; i++) {
+      int kind = random.nextInt(10);
+      if (kind < 5) {
+        sortedByCreatedAt.get(i).setRelatedId(sortedByCreatedAt.get(random.nextInt(i)).getId());
+      } else if (kind < 7) {
+        sortedByCreatedAt.get(i).setRelatedId("missing" + random.nextInt(3));
+      }
+    }
+    return history;
+  }
+
+  private String flags(BaseDTO dto) {
+    return dto.getId() + ":" + dto.isDeleted() + ":" + dto.isUpdated() + ":" + dto.isValidated();
+  }
+
+  /**
+   * The former implementation of {@link LifeCycleService#handle(List, boolean)} serving as
+   * reference for the indexed implementation.
+   */
+  private static final class NestedLoopLifeCycle {
+    static List<? extends BaseDTO> handle(List<? extends BaseDTO> items, boolean keepModifiedEntries) {
+      Map<String, BaseDTO> map = new ConcurrentHashMap<>();
+      for (BaseDTO item : items) {
+        map.put(item.getId(), item);
+      }
+
+      if (!keepModifiedEntries) {
+        map = keepOnePrevious(map);
+      }
+
+      List<BaseDTO> sortedByCreatedAt = map.values().stream()
+          .sorted(Comparator.comparing(BaseDTO::getCreatedAt))
+          .toList();
+
+      for (BaseDTO entry : sortedByCreatedAt) {
+        BaseDTO previous = previous(map, entry);
+        if (previous != null) {
+          boolean isDeleted = entry.isDeleted();
+          if (!keepModifiedEntries && isDeleted) {
+            remove(map, entry);
+          }
+          entry.setValidated(ValidationUtils.shouldRecordBeValidated(previous, entry));
+          while (previous != null) {
+            previous.setDeleted(isDeleted);
+            previous.setUpdated(true);
+            if (!keepModifiedEntries) {
+              remove(map, previous);
+            }
+            previous = previous(map, previous);
+          }
+        } else if (entry.isDeleted() && !keepModifiedEntries) {
+          remove(map, entry);
+        }
+      }
+
+      List<BaseDTO> result = new ArrayList<>(map.values());
+      result.sort(Comparator.comparing(BaseDTO::getCreatedAt).reversed());
+      return result;
+    }
+
+    private static BaseDTO extrapolatedPrevious(Map<String, BaseDTO> items, BaseDTO entry) {
+      BaseDTO candidate = null;
+      for (BaseDTO dto : items.values()) {
+        boolean isSameEntry = dto.getId().equals(entry.getId());
+        boolean createdAtSameTimeOrLater = dto.getCreatedAt().compareTo(entry.getCreatedAt()) >= 1;
+        boolean hasNotSameCode = !dto.getCode().equals(entry.getCode());
+        boolean notSameDayOfEvent = !dto.getDateOfEvent().equals(entry.getDateOfEvent());
+        if (!(isSameEntry || createdAtSameTimeOrLater || hasNotSameCode || notSameDayOfEvent)
+            && (candidate == null || candidate.getCreatedAt().isBefore(dto.getCreatedAt()))) {
+          candidate = dto;
+        }
+      }
+      return candidate;
+    }
+
+    private static Map<String, BaseDTO> keepOnePrevious(Map<String, BaseDTO> items) {
+      Map<String, BaseDTO> mapWithAtMostOnePreviousEntry = new ConcurrentHashMap<>();
+      for (BaseDTO item : items.values()) {
+        if (item.getRelatedId() == null) {
+          mapWithAtMostOnePreviousEntry.put(item.getId(), item);
+          items.remove(item.getId());
+        }
+      }
+
+      for (BaseDTO item1 : items.values()) {
+        BaseDTO toKeep = item1;
+        for (BaseDTO item2 : items.values()) {
+          if (!item1.getId().equals(item2.getId()) && item1.getRelatedId().equals(item2.getRelatedId())
+              && item2.getCreatedAt().isAfter(toKeep.getCreatedAt())) {
+            toKeep = item2;
+          }
+        }
+        mapWithAtMostOnePreviousEntry.put(toKeep.getId(), toKeep);
+      }
+
+      return mapWithAtMostOnePreviousEntry;
+    }
+
+    private static BaseDTO previous(Map<String, BaseDTO> map, BaseDTO item) {
+      if (item == null || item.getRelatedId() == null) {
+        return null;
+      }
+
+      BaseDTO previous = map.get(item.getRelatedId());
+      return previous != null ? previous : extrapolatedPrevious(map, item);
+    }
+
+    private static void remove(Map<String, BaseDTO> map, BaseDTO item) {
+      map.remove(item.getId());
+    }
+  }
+
   private void createAllergies() {
     for (int i = 1; i <= 4; i++) {
       String counter = String.valueOf(i);
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import ch.admin.bag.vaccination.service.cache.Cache;
+import ch.admin.bag.vaccination.service.husky.HuskyAdapterIfc;
+import ch.admin.bag.vaccination.utils.HttpSessionUtils;
+import ch.fhir.epr.adapter.data.PatientIdentifier;
+import ch.fhir.epr.adapter.data.dto.AuthorDTO;
+import ch.fhir.epr.adapter.data.dto.BaseDTO;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import jakarta.servlet.http.HttpSessionEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class PrefetchServiceTest {
+  private static final String COMMUNITY = "EPDPLAYGROUND";
+
+  private final HuskyAdapterIfc huskyAdapter = mock(HuskyAdapterIfc.class);
+  @SuppressWarnings("unchecked")
+  private final BaseService<BaseDTO> baseService = mock(BaseService.class);
+  private final Cache cache = mock(Cache.class);
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private final MockHttpSession session = new MockHttpSession();
+  private final AuthorDTO author = new AuthorDTO(null, null, "7600000000000");
+  private PrefetchService prefetchService;
+
+  @BeforeEach
+  void setUp() {
+    prefetchService = new PrefetchService();
+    ReflectionTestUtils.setField(prefetchService, "huskyAdapter", huskyAdapter);
+    ReflectionTestUtils.setField(prefetchService, "baseService", baseService);
+    ReflectionTestUtils.setField(prefetchService, "cache", cache);
+    ReflectionTestUtils.setField(prefetchService, "prefetchExecutor", executor);
+    ReflectionTestUtils.setField(prefetchService, "isPrefetchEnabled", true);
+    ReflectionTestUtils.setField(prefetchService, "communityIdentifier", COMMUNITY);
+    when(cache.isEnabled()).thenReturn(true);
+    session.setAttribute(HttpSessionUtils.AUTHOR, author);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void prefetchDocuments_patientResolved_documentsAreLoaded() {
+    PatientIdentifier patientIdentifier = new PatientIdentifier(COMMUNITY, "localId", "oid");
+    when(huskyAdapter.getPatientIdentifier(COMMUNITY, "oid", "localId")).thenReturn(patientIdentifier);
+
+    prefetchService.prefetchPatient(session, "oid", "localId");
+    prefetchService.prefetchDocuments(session, null);
+
+    verify(baseService, timeout(5000)).prefetch(patientIdentifier, author, null);
+  }
+
+  @Test
+  void prefetchDocuments_sessionDestroyed_documentsAreNotLoaded() throws Exception {
+    CountDownLatch patientQuery = new CountDownLatch(1);
+    when(huskyAdapter.getPatientIdentifier(COMMUNITY, "oid", "localId")).thenAnswer(invocation -> {
+      patientQuery.await();
+      return new PatientIdentifier(COMMUNITY, "localId", "oid");
+    });
+
+    prefetchService.prefetchPatient(session, "oid", "localId");
+    prefetchService.prefetchDocuments(session, null);
+    prefetchService.sessionDestroyed(new HttpSessionEvent(session));
+    patientQuery.countDown();
+
+    verify(baseService, after(500).never()).prefetch(any(), any(), isNull());
+  }
+
+  @Test
+  void prefetchDocuments_sessionIdChanged_documentsAreLoaded() {
+    PatientIdentifier patientIdentifier = new PatientIdentifier(COMMUNITY, "localId", "oid");
+    when(huskyAdapter.getPatientIdentifier(COMMUNITY, "oid", "localId")).thenReturn(patientIdentifier);
+    MockHttpSession loggedInSession = new MockHttpSession();
+    loggedInSession.setAttribute(HttpSessionUtils.AUTHOR, author);
+
+    prefetchService.prefetchPatient(session, "oid", "localId");
+    prefetchService.sessionIdChanged(new HttpSessionEvent(loggedInSession), session.getId());
+    prefetchService.prefetchDocuments(loggedInSession, null);
+
+    verify(baseService, timeout(5000)).prefetch(patientIdentifier, author, null);
+  }
+
+  @Test
+  void prefetchPatient_prefetchDisabled_nothingIsLoaded() {
+    ReflectionTestUtils.setField(prefetchService, "isPrefetchEnabled", false);
+
+    prefetchService.prefetchPatient(session, "oid", "localId");
+    prefetchService.prefetchDocuments(session, null);
+
+    verifyNoInteractions(huskyAdapter, baseService);
+  }
+}
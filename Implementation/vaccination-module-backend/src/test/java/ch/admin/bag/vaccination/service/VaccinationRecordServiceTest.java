@@ -53,6 +53,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Bundle;
 import org.junit.jupiter.api.BeforeEach;
@@ -96,6 +97,8 @@ class VaccinationRecordServiceTest {
   void before() {
     profileConfig.setLocalMode(true);
     profileConfig.setHuskyLocalMode(null);
+    when(cache.getPatientIdentifier(any(), any(), any(), any()))
+        .thenAnswer(invocation -> invocation.<Supplier<PatientIdentifier>>getArgument(3).get());
     setAuthorInSession(
         new AuthorDTO(new HumanNameDTO("Test Firstname", "Test Lastname", "Test Prefix", LocalDate.now(), "MALE")));
   }
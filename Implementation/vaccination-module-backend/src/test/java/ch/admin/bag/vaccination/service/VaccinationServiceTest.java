@@ -21,10 +21,19 @@ package ch.admin.bag.vaccination.service;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.notNull;
 import static org.mockito.Mockito.atMostOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import ch.admin.bag.vaccination.exception.IncompleteRetrieveException;
+import ch.admin.bag.vaccination.service.cache.Cache;
 import ch.admin.bag.vaccination.service.config.VaccinationConfig;
 import ch.admin.bag.vaccination.service.husky.HuskyAdapter;
 import ch.admin.bag.vaccination.service.husky.HuskyUtils;
@@ -37,8 +46,13 @@ import ch.fhir.epr.adapter.data.dto.VaccinationDTO;
 import ch.fhir.epr.adapter.data.dto.ValueDTO;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Code;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
 
@@ -49,6 +63,8 @@ class VaccinationServiceTest extends AbstractServiceTest {
   private VaccinationConfig vaccinationConfig;
   @MockitoSpyBean
   private HuskyAdapter huskyAdapter;
+  @Autowired
+  private Cache cache;
 
   @Override
   @Test
@@ -91,6 +107,69 @@ class VaccinationServiceTest extends AbstractServiceTest {
     assertThat(vaccinations.size()).isEqualTo(4);
   }
 
+  @Test
+  void create_writtenDocument_isCompactAndItsEntitiesAreCached() {
+    PatientIdentifier patientIdentifier =
+      vaccinationService.getPatientIdentifier(EPDCommunity.EPDPLAYGROUND.name(), "1.2.3.4.123456.1",
+        "waldspital-Id-1234");
+    VaccinationDTO newVaccinationDTO = new VaccinationDTO(null, new ValueDTO("123456789", "123456789", "testsystem"),
+      List.of(new ValueDTO("38907003", "Varicella", "http://snomed.info/sct")), null, 1, LocalDate.now(), performer,
+      null, "lotNumber", null, new ValueDTO("completed", "completed", "http://hl7.org/fhir/event-status"),
+      new ValueDTO("59156000", "Confirmed", "http://snomed.info/sct"));
+    newVaccinationDTO.setAuthor(author);
+
+    VaccinationDTO result = vaccinationService.create(EPDCommunity.EPDPLAYGROUND.name(), "1.2.3.4.123456.1",
+      "waldspital-Id-1234", newVaccinationDTO, null, false);
+
+    ArgumentCaptor<String> uuid = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<String> json = ArgumentCaptor.forClass(String.class);
+    verify(huskyAdapter).writeDocument(any(), uuid.capture(), json.capture(), any(), any());
+    assertThat(json.getValue()).doesNotContain("\n");
+    String documentUniqueId = HuskyUtils.getDocumentUniqueId(uuid.getValue());
+    assertThat(documentUniqueId).startsWith("2.25.");
+    List<VaccinationDTO> cached =
+      cache.getParsedData(cache.createCacheIdentifier(patientIdentifier), documentUniqueId, VaccinationDTO.class);
+    assertThat(cached).extracting(VaccinationDTO::getId).containsExactly(result.getId());
+    assertThat(cached.getFirst()).isNotSameAs(result);
+  }
+
+  @Test
+  void getAll_retrieveOfOneChunkFailed_documentsAreNotCached() {
+    PatientIdentifier patientIdentifier =
+      vaccinationService.getPatientIdentifier(EPDCommunity.EPDPLAYGROUND.name(), "1.2.3.4.123456.1",
+        "waldspital-Id-1234");
+    profileConfig.setHuskyLocalMode(false);
+    doReturn(List.of(createDocumentEntry(), createDocumentEntry()))
+      .when(huskyAdapter).getDocumentEntries(any(), any(), any(), anyBoolean(), any());
+    doThrow(new IncompleteRetrieveException("1 of 2 retrieve requests failed.", List.of()))
+      .when(huskyAdapter).getRetrievedDocuments(any(), anyList(), any(), any(), anyBoolean());
+
+    assertThat(vaccinationService.getAll(patientIdentifier, null, true)).isEmpty();
+
+    assertThat(cache.dataCacheMiss(cache.createCacheIdentifier(patientIdentifier))).isTrue();
+    vaccinationService.getAll(patientIdentifier, null, true);
+    // both repositories retrieve their documents again
+    verify(huskyAdapter, times(4)).getRetrievedDocuments(any(), anyList(), any(), any(), anyBoolean());
+  }
+
+  @Test
+  void getAll_documentEntriesQueriedBefore_onlyNewEntriesAreQueried() {
+    PatientIdentifier patientIdentifier =
+      vaccinationService.getPatientIdentifier(EPDCommunity.EPDPLAYGROUND.name(), "1.2.3.4.123456.1",
+        "waldspital-Id-1234");
+    profileConfig.setHuskyLocalMode(false);
+    doReturn(List.of(createDocumentEntry()))
+      .when(huskyAdapter).getDocumentEntries(any(), any(), any(), anyBoolean(), any());
+    doThrow(new IncompleteRetrieveException("1 of 1 retrieve requests failed.", List.of()))
+      .when(huskyAdapter).getRetrievedDocuments(any(), anyList(), any(), any(), anyBoolean());
+
+    vaccinationService.getAll(patientIdentifier, null, true);
+    vaccinationService.getAll(patientIdentifier, null, true);
+
+    verify(huskyAdapter, times(2)).getDocumentEntries(any(), any(), any(), anyBoolean(), isNull());
+    verify(huskyAdapter, times(2)).getDocumentEntries(any(), any(), any(), anyBoolean(), notNull());
+  }
+
   @Override
   @Test
   public void testDelete() {
@@ -288,6 +367,17 @@ class VaccinationServiceTest extends AbstractServiceTest {
     validate("ASS", "Cannot invoke \"String.equals(Object)\" because \"id\" is null");
   }
 
+  private DocumentEntry createDocumentEntry() {
+    DocumentEntry documentEntry = new DocumentEntry();
+    documentEntry.setUniqueId(UUID.randomUUID().toString());
+    documentEntry.setMimeType("application/fhir+json");
+    documentEntry.setFormatCode(new Code(
+      FhirConstants.COMPOSITION_IMMUNIZATON_CATEGORY.getFirst().getCoding().getFirst().getCode(), null, null));
+    documentEntry.setExtraMetadata(
+      Map.of(HuskyUtils.UPLOADER_ROLE_METADATA_KEY, List.of(HuskyUtils.HCP + "^^^&2.16.756.5.30.1.127.3.10.6&ISO")));
+    return documentEntry;
+  }
+
   private void validate(String role, String expectedExceptionMessage) {
     validate(new VaccinationDTO(), vaccinationService, role, expectedExceptionMessage);
   }
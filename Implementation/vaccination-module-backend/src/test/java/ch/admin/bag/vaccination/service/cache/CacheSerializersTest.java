@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import ch.admin.bag.vaccination.data.request.EPRDocument;
+import ch.fhir.epr.adapter.data.PatientIdentifier;
+import ch.fhir.epr.adapter.data.dto.HumanNameDTO;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * Test {@link CacheSerializers} and compare them with Java serialization.
+ *
+ */
+@Slf4j
+class CacheSerializersTest {
+  private static final int ITERATIONS = 2000;
+
+  private DocumentCompressor compressor;
+  private HazelcastInstance compactMember;
+  private HazelcastInstance javaMember;
+  private String bundle;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    bundle = Files.readString(Path.of("config", "testfiles", "Bundle-A-D1-P-C1.json"));
+    compressor = new DocumentCompressor(true, 1024, 6);
+    Config compactConfig = createConfig();
+    CacheSerializers.register(compactConfig.getSerializationConfig().getCompactSerializationConfig(), compressor);
+    compactMember = Hazelcast.newHazelcastInstance(compactConfig);
+    javaMember = Hazelcast.newHazelcastInstance(createConfig());
+  }
+
+  @AfterEach
+  void tearDown() {
+    compactMember.shutdown();
+    javaMember.shutdown();
+  }
+
+  @Test
+  void getAndPut_compactSerializers_objectsAreRestored() {
+    CacheIdentifierKey key = createKey();
+    PatientIdentifier patientIdentifier = createPatientIdentifier();
+    List<EPRDocument> documents = createDocuments();
+
+    IMap<CacheIdentifierKey, PatientIdentifier> patientMap = compactMember.getMap("patient-identifier");
+    patientMap.put(key, patientIdentifier);
+    IMap<CacheIdentifierKey, List<EPRDocument>> documentMap = compactMember.getMap(Cache.DOCUMENT_CACHE_NAME);
+    documentMap.put(key, documents);
+
+    assertThat(patientMap.get(new CacheIdentifierKey("oid", "localId", "gln"))).isEqualTo(patientIdentifier);
+    assertThat(patientMap.get(key).getPatientInfo().getBirthday()).isEqualTo(LocalDate.of(1990, 4, 12));
+    assertThat(documentMap.get(key)).isEqualTo(documents);
+  }
+
+  @Test
+  void getAndPut_missingValues_nullIsRestored() {
+    CacheIdentifierKey key = new CacheIdentifierKey(null, "localId", null);
+    PatientIdentifier patientIdentifier = new PatientIdentifier(null, "localId", null);
+    patientIdentifier.setSpidRootAuthority(null);
+
+    IMap<CacheIdentifierKey, PatientIdentifier> patientMap = compactMember.getMap("patient-identifier");
+    patientMap.put(key, patientIdentifier);
+    IMap<CacheIdentifierKey, List<EPRDocument>> documentMap = compactMember.getMap(Cache.DOCUMENT_CACHE_NAME);
+    documentMap.put(key, List.of(new EPRDocument()));
+
+    assertThat(patientMap.get(key)).isEqualTo(patientIdentifier);
+    assertThat(documentMap.get(key)).containsExactly(new EPRDocument());
+  }
+
+  @Test
+  void getAndPut_largeDocument_contentIsDecompressedOnAccess() {
+    CacheIdentifierKey key = createKey();
+    IMap<CacheIdentifierKey, List<EPRDocument>> documentMap = compactMember.getMap(Cache.DOCUMENT_CACHE_NAME);
+    documentMap.put(key, List.of(new EPRDocument(true, bundle, null, LocalDateTime.now(), "1.2.3"),
+        new EPRDocument(true, "{}", null, LocalDateTime.now(), "1.2.4")));
+
+    List<EPRDocument> documents = documentMap.get(key);
+    assertThat(documents.get(0).getCompressedJsonOrXmlFhirContent()).isNotNull();
+    assertThat(documents.get(0).hasContent()).isTrue();
+    assertThat(documents.get(0).getJsonOrXmlFhirContent()).isEqualTo(bundle);
+    assertThat(documents.get(0).getCompressedJsonOrXmlFhirContent()).isNull();
+    assertThat(documents.get(1).getCompressedJsonOrXmlFhirContent()).isNull();
+    assertThat(documents.get(1).getJsonOrXmlFhirContent()).isEqualTo("{}");
+    assertThat(compressor.getCompressionRatio()).isGreaterThan(5);
+  }
+
+  @Test
+  void getAndPut_compressedDocumentIsStoredAgain_contentIsNotDecompressed() {
+    CacheIdentifierKey key = createKey();
+    IMap<CacheIdentifierKey, List<EPRDocument>> documentMap = compactMember.getMap(Cache.DOCUMENT_CACHE_NAME);
+    documentMap.put(key, List.of(new EPRDocument(true, bundle, null, LocalDateTime.now(), "1.2.3")));
+
+    documentMap.put(key, documentMap.get(key));
+
+    EPRDocument document = documentMap.get(key).get(0);
+    assertThat(document.getCompressedJsonOrXmlFhirContent()).isNotNull();
+    assertThat(document.getJsonOrXmlFhirContent()).isEqualTo(bundle);
+  }
+
+  @Test
+  void put_compactSerializers_entryIsSmallerThanJavaSerialization() {
+    CacheIdentifierKey key = createKey();
+    List<EPRDocument> documents =
+        List.of(new EPRDocument(true, bundle, null, LocalDateTime.of(2024, 1, 1, 12, 0), "1.2.3"));
+
+    compactMember.getMap(Cache.DOCUMENT_CACHE_NAME).put(key, documents);
+    javaMember.getMap(Cache.DOCUMENT_CACHE_NAME).put(key, documents);
+
+    long compactCost = compactMember.getMap(Cache.DOCUMENT_CACHE_NAME).getEntryView(key).getCost();
+    long javaCost = javaMember.getMap(Cache.DOCUMENT_CACHE_NAME).getEntryView(key).getCost();
+    assertThat(compactCost).isLessThan(javaCost);
+  }
+
+  /**
+   * Measures the size and latency of the serializers. Benchmarks are excluded from the build, run
+   * them with <code>mvn test -Dexcluded.test.groups= -Dgroups=benchmark</code>.
+   */
+  @Test
+  @Tag("benchmark")
+  void benchmark_compactSerializers_entriesAreSmallerThanJavaSerialization() {
+    long compactCost = measure("compact", compactMember);
+    long javaCost = measure("java", javaMember);
+    log.info("compression ratio: {}", compressor.getCompressionRatio());
+
+    assertThat(compactCost).isLessThan(javaCost);
+  }
+
+  /**
+   * Stores and reads the same entries several times and logs the size and the mean latency.
+   *
+   * @return the memory cost of a single document entry in bytes
+   */
+  private long measure(String name, HazelcastInstance member) {
+    IMap<CacheIdentifierKey, List<EPRDocument>> map = member.getMap(Cache.DOCUMENT_CACHE_NAME);
+    CacheIdentifierKey key = createKey();
+    List<EPRDocument> documents = createDocuments();
+
+    // warm up
+    for (int i = 0; i < ITERATIONS; i++) {
+      map.put(key, documents);
+      map.get(key);
+    }
+
+    long putNanos = 0;
+    long getNanos = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      map.put(key, documents);
+      putNanos += System.nanoTime() - start;
+      start = System.nanoTime();
+      map.get(key);
+      getNanos += System.nanoTime() - start;
+    }
+
+    long cost = map.getEntryView(key).getCost();
+    log.info("{} serialization: {} bytes per entry, put {} us, get {} us", name, cost,
+        putNanos / ITERATIONS / 1000.0, getNanos / ITERATIONS / 1000.0);
+    return cost;
+  }
+
+  private Config createConfig() {
+    Config config = new Config();
+    config.setClusterName("serializers-test-" + UUID.randomUUID());
+    JoinConfig join = config.getNetworkConfig().getJoin();
+    join.getMulticastConfig().setEnabled(false);
+    join.getAutoDetectionConfig().setEnabled(false);
+    return config;
+  }
+
+  private List<EPRDocument> createDocuments() {
+    List<EPRDocument> documents = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      documents.add(new EPRDocument(i % 2 == 0, bundle, null, LocalDateTime.of(2024, 1, 1, 12, i), "1.2.3.4." + i));
+    }
+    return documents;
+  }
+
+  private CacheIdentifierKey createKey() {
+    return new CacheIdentifierKey("oid", "localId", "gln");
+  }
+
+  private PatientIdentifier createPatientIdentifier() {
+    PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
+    patientIdentifier.setSpidExtension("761337610411353650");
+    patientIdentifier.setGlobalExtension("25f98b34-0e01-48b7-a06c-f706eb4c485f");
+    patientIdentifier.setGlobalAuthority("1.3.6.1.4.1.21367.2017.2.5.93");
+    patientIdentifier.setPatientInfo(new HumanNameDTO("Hans", "Muster", "Dr.", LocalDate.of(1990, 4, 12), "M"));
+    return patientIdentifier;
+  }
+}
@@ -22,19 +22,51 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
 import ch.admin.bag.vaccination.data.request.EPRDocument;
+import ch.admin.bag.vaccination.service.cache.config.CacheConfig;
+import ch.admin.bag.vaccination.service.cache.config.CacheMapConfig;
 import ch.admin.bag.vaccination.utils.HttpSessionUtils;
 import ch.fhir.epr.adapter.data.PatientIdentifier;
 import ch.fhir.epr.adapter.data.dto.AuthorDTO;
+import ch.fhir.epr.adapter.data.dto.BaseDTO;
 import ch.fhir.epr.adapter.data.dto.HumanNameDTO;
+import ch.fhir.epr.adapter.data.dto.VaccinationDTO;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.EvictionConfig;
+import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MaxSizePolicy;
+import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.awaitility.Awaitility;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Code;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Timestamp;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
@@ -50,18 +82,25 @@ import org.springframework.test.util.ReflectionTestUtils;
 class CacheTest {
   @Autowired
   private Cache cache;
+  @Autowired
+  private CacheConfig cacheConfig;
+  @Autowired
+  private MeterRegistry meterRegistry;
 
   @Test
   void clear_anyData_mapIsCleared() {
+    setEnableCacheAndReinit(true);
     PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
     patientIdentifier.setSpidRootAuthority("SRA");
     CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(patientIdentifier, null);
     cache.putPatientIdentifier(patientIdentifier);
     cache.putData(cacheIdentifier, new EPRDocument(false, "test", null, null));
+    assertThat(cache.getData(cacheIdentifier)).hasSize(1);
+    assertThat(cache.getPatientIdentifier("oid", "localId")).isNotNull();
     cache.clear();
 
     assertThat(cache.getData(cacheIdentifier)).isEmpty();
-    assertNull(cache.getPatientIdentifier("localId", "oid"));
+    assertNull(cache.getPatientIdentifier("oid", "localId"));
   }
 
   @Test
@@ -90,16 +129,599 @@ class CacheTest {
 
     System.setProperty("hazelcast.config", hazelcastConfig.toString());
     try {
-      setEnableCacheAndReinit(false);
+      setEnableCacheAndReinit(true);
 
-      HazelcastInstance hazelcast = (HazelcastInstance) ReflectionTestUtils.getField(cache, "hazelcast");
-      assertThat(hazelcast).isNotNull();
+      HazelcastCacheBackend backend = (HazelcastCacheBackend) ReflectionTestUtils.getField(cache, "backend");
+      HazelcastInstance hazelcast = backend.getHazelcastInstance();
       assertThat(hazelcast.getConfig().getInstanceName()).isEqualTo("configured-cache-instance");
     } finally {
       System.clearProperty("hazelcast.config");
     }
   }
 
+  @Test
+  void getDataIfPresent_cachedAndMissingPatient_documentsOrNullAreReturned() {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    CacheIdentifierKey otherCacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "otherLocalId", "oid"), new AuthorDTO(null, null, "123"));
+    cache.putAll(cacheIdentifier, List.of());
+    long reads = meterRegistry.find("cache.reads").tag("cache", Cache.DOCUMENT_CACHE_NAME).timers().stream()
+        .mapToLong(Timer::count).sum();
+
+    assertThat(cache.getDataIfPresent(cacheIdentifier)).isEmpty();
+    assertNull(cache.getDataIfPresent(otherCacheIdentifier));
+    cache.putData(cacheIdentifier, new EPRDocument(false, "json", null, LocalDateTime.now()));
+    assertThat(cache.getDataIfPresent(cacheIdentifier)).hasSize(1);
+    assertThat(meterRegistry.get("cache.reads").tag("cache", Cache.DOCUMENT_CACHE_NAME).timers().stream()
+        .mapToLong(Timer::count).sum()).isEqualTo(reads + 3);
+  }
+
+  @Test
+  void putAll_sameDocumentForSeveralAuthors_contentIsStoredOnce() {
+    setEnableCacheAndReinit(true);
+    PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
+    CacheIdentifierKey doctor = new CacheIdentifierKey(patientIdentifier, new AuthorDTO(null, null, "123"));
+    CacheIdentifierKey patient = new CacheIdentifierKey(patientIdentifier, new AuthorDTO(null, null, "456"));
+    CacheIdentifierKey assistant = new CacheIdentifierKey(patientIdentifier, new AuthorDTO(null, null, "789"));
+    cache.putData(doctor, new EPRDocument(true, "json", null, LocalDateTime.now(), "docId"));
+    cache.putAll(patient, List.of(new EPRDocument(false, "json", null, LocalDateTime.now(), "docId"),
+        new EPRDocument(false, "json2", null, LocalDateTime.now(), "docId2")));
+
+    HazelcastCacheBackend backend = (HazelcastCacheBackend) ReflectionTestUtils.getField(cache, "backend");
+    assertThat(backend.getHazelcastInstance().getMap(Cache.DOCUMENT_CONTENT_CACHE_NAME).size()).isEqualTo(2);
+    assertThat(cache.getData(doctor)).singleElement()
+        .satisfies(document -> assertThat(document.isTrusted()).isTrue())
+        .extracting(EPRDocument::getJsonOrXmlFhirContent).isEqualTo("json");
+    assertThat(cache.getData(patient)).extracting(EPRDocument::getJsonOrXmlFhirContent)
+        .containsExactly("json", "json2");
+    assertThat(cache.getDocuments(
+        List.of(createDocumentEntry("docId", null), createDocumentEntry("unknownDocId", null))))
+        .containsOnlyKeys("docId");
+    assertNull(cache.getDataIfPresent(assistant));
+
+    backend.remove(Cache.DOCUMENT_CONTENT_CACHE_NAME, "docId2");
+    assertThat(cache.getData(doctor)).hasSize(1);
+    assertNull(cache.getDataIfPresent(patient));
+    assertThat(cache.dataCacheMiss(patient)).isTrue();
+  }
+
+  @Test
+  void getDocuments_patientEntryExpired_documentsAreStillStored() throws InterruptedException {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    cache.putAll(cacheIdentifier, List.of(new EPRDocument(false, "json", null, LocalDateTime.now(), "docId")));
+
+    Thread.sleep(2100); // > 2s TTL of the patient entry
+
+    assertThat(cache.dataCacheMiss(cacheIdentifier)).isTrue();
+    assertThat(cache.getDocuments(List.of(createDocumentEntry("docId", null), createDocumentEntry("docId2", null))))
+        .containsOnlyKeys("docId")
+        .extractingByKey("docId").extracting(EPRDocument::getJsonOrXmlFhirContent).isEqualTo("json");
+    assertThat(meterRegistry.get("cache.document.content.requests").tag("result", "miss").counter().count())
+        .isPositive();
+  }
+
+  @Test
+  void getDocuments_storedDocuments_onlyDocumentsWithSameHashAreReturned() {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    EPRDocument document = new EPRDocument(false, "json", null, LocalDateTime.now(), "docId");
+    document.setDocumentHash("hash");
+    EPRDocument changedDocument = new EPRDocument(false, "json2", null, LocalDateTime.now(), "docId2");
+    changedDocument.setDocumentHash("hash2");
+    cache.putAll(cacheIdentifier, List.of(document, changedDocument));
+    double savedRequests = getCount("cache.document.content.saved.requests");
+    double savedBytes = getCount("cache.document.content.saved.bytes");
+
+    assertThat(cache.getDocuments(
+        List.of(createDocumentEntry("docId", "HASH"), createDocumentEntry("docId2", "other"))))
+        .containsOnlyKeys("docId")
+        .extractingByKey("docId").extracting(EPRDocument::getDocumentHash).isEqualTo("hash");
+    assertThat(getCount("cache.document.content.saved.requests")).isEqualTo(savedRequests);
+    assertThat(cache.getDocuments(List.of(createDocumentEntry("docId", "hash")))).containsOnlyKeys("docId");
+    assertThat(getCount("cache.document.content.saved.requests")).isEqualTo(savedRequests + 1);
+    assertThat(getCount("cache.document.content.saved.bytes")).isEqualTo(savedBytes + 200);
+  }
+
+  @Test
+  void getDataIfPresent_refreshAheadAndStaleEntry_staleDocumentsAreServedAndRefreshed() {
+    ReflectionTestUtils.setField(cache, "isRefreshAheadEnabled", true);
+    ReflectionTestUtils.setField(cache, "maxStaleInSeconds", 2);
+    try {
+      setEnableCacheAndReinit(true);
+      CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+          new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+      cache.putData(cacheIdentifier, new EPRDocument(false, "json", null, LocalDateTime.now(), "docId"));
+      AtomicInteger refreshes = new AtomicInteger();
+      Supplier<List<EPRDocument>> refresh = () -> {
+        refreshes.incrementAndGet();
+        List<EPRDocument> documents = List.of(new EPRDocument(false, "json2", null, LocalDateTime.now(), "docId2"));
+        cache.replaceAll(cacheIdentifier, documents);
+        return documents;
+      };
+
+      assertThat(cache.getDataIfPresent(cacheIdentifier, refresh)).hasSize(1);
+      assertThat(refreshes).hasValue(0);
+
+      Awaitility.await().atMost(5, TimeUnit.SECONDS).pollInterval(100, TimeUnit.MILLISECONDS)
+          .untilAsserted(() -> assertThat(cache.getDataIfPresent(cacheIdentifier, refresh))
+              .extracting(EPRDocument::getJsonOrXmlFhirContent).containsExactly("json2"));
+      assertThat(refreshes).hasValue(1);
+      assertThat(meterRegistry.get("cache.document.requests").tag("result", "stale").counter().count()).isPositive();
+      assertThat(meterRegistry.get("cache.document.refreshes").tag("outcome", "success").counter().count())
+          .isPositive();
+    } finally {
+      ReflectionTestUtils.setField(cache, "isRefreshAheadEnabled", false);
+    }
+  }
+
+  @Test
+  void getDataIfPresent_refreshRunning_loadSharesRefresh() throws Exception {
+    ReflectionTestUtils.setField(cache, "isRefreshAheadEnabled", true);
+    ReflectionTestUtils.setField(cache, "maxStaleInSeconds", 2);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      setEnableCacheAndReinit(true);
+      CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+          new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+      cache.putData(cacheIdentifier, new EPRDocument(false, "json", null, LocalDateTime.now(), "docId"));
+      CountDownLatch refreshStarted = new CountDownLatch(1);
+      CountDownLatch refreshReleased = new CountDownLatch(1);
+      AtomicInteger refreshes = new AtomicInteger();
+      Supplier<List<EPRDocument>> refresh = () -> {
+        refreshes.incrementAndGet();
+        refreshStarted.countDown();
+        await(refreshReleased);
+        List<EPRDocument> documents = List.of(new EPRDocument(false, "json2", null, LocalDateTime.now(), "docId2"));
+        cache.replaceAll(cacheIdentifier, documents);
+        return documents;
+      };
+
+      cache.getDataIfPresent(cacheIdentifier, refresh);
+      assertThat(refreshStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      // a second stale read does not start another refresh
+      assertThat(cache.getDataIfPresent(cacheIdentifier, refresh)).hasSize(1);
+      AtomicInteger loads = new AtomicInteger();
+      Future<List<EPRDocument>> load = executor.submit(() -> cache.loadData(cacheIdentifier, () -> {
+        loads.incrementAndGet();
+        return List.of();
+      }));
+      refreshReleased.countDown();
+
+      assertThat(load.get(5, TimeUnit.SECONDS)).extracting(EPRDocument::getJsonOrXmlFhirContent)
+          .containsExactly("json2");
+      assertThat(loads).hasValue(0);
+      assertThat(refreshes).hasValue(1);
+    } finally {
+      executor.shutdownNow();
+      ReflectionTestUtils.setField(cache, "isRefreshAheadEnabled", false);
+    }
+  }
+
+  @Test
+  void init_cacheDisabled_onlyVaccinationRecordsAreKept() {
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
+    cache.putPatientIdentifier(patientIdentifier);
+    cache.putData(cacheIdentifier, new EPRDocument(false, "json", null, LocalDateTime.now()));
+    cache.putData(cacheIdentifier, new EPRDocument(false, "json", null, LocalDateTime.now()),
+        Cache.VACCINATION_RECORDS_CACHE_NAME);
+
+    assertThat(ReflectionTestUtils.getField(cache, "backend")).isInstanceOf(NoOpCacheBackend.class);
+    assertNull(cache.getPatientIdentifier("oid", "localId"));
+    assertThat(cache.getData(cacheIdentifier)).isEmpty();
+    assertThat(cache.dataCacheMiss(cacheIdentifier)).isTrue();
+    assertThat(cache.getData(cacheIdentifier, Cache.VACCINATION_RECORDS_CACHE_NAME)).hasSize(1);
+  }
+
+  @Test
+  void init_localType_dataIsCachedWithoutHazelcast() {
+    ReflectionTestUtils.setField(cache, "cacheType", Cache.LOCAL_TYPE);
+    try {
+      setEnableCacheAndReinit(true);
+      CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+          new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+      PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
+      patientIdentifier.setSpidRootAuthority("SRA");
+      VaccinationDTO vaccination = new VaccinationDTO();
+      vaccination.setId("vaccinationId");
+
+      cache.putPatientIdentifier(patientIdentifier);
+      cache.putData(cacheIdentifier, new EPRDocument(false, "json", null, LocalDateTime.now(), "docId"));
+      cache.putAll(cacheIdentifier, List.of(new EPRDocument(false, "json2", null, LocalDateTime.now())));
+      cache.putParsedData(cacheIdentifier, "docId",
+          Map.of(VaccinationDTO.class, List.of(vaccination), BaseDTO.class, List.of(vaccination)));
+
+      assertThat(ReflectionTestUtils.getField(cache, "backend")).isInstanceOf(LocalCacheBackend.class);
+      assertThat(cache.getPatientIdentifier("oid", "localId").getSpidRootAuthority()).isEqualTo("SRA");
+      assertThat(cache.getData(cacheIdentifier)).extracting(EPRDocument::getJsonOrXmlFhirContent)
+          .containsExactly("json", "json2");
+      assertThat(cache.dataCacheMiss(cacheIdentifier)).isFalse();
+      assertThat(cache.getParsedData(cacheIdentifier, "docId", VaccinationDTO.class)).hasSize(1);
+
+      cache.clear(cacheIdentifier);
+      assertThat(cache.getData(cacheIdentifier)).isEmpty();
+      assertNull(cache.getParsedData(cacheIdentifier, "docId", VaccinationDTO.class));
+    } finally {
+      ReflectionTestUtils.setField(cache, "cacheType", Cache.HAZELCAST_TYPE);
+    }
+  }
+
+  @Test
+  void init_mapConfig_isAppliedToHazelcastMaps() {
+    CacheMapConfig documentConfig = new CacheMapConfig();
+    documentConfig.setTtlInSeconds(10);
+    documentConfig.setMaxIdleSeconds(5);
+    documentConfig.setMaxEntries(500);
+    documentConfig.setEvictionPolicy("LFU");
+    documentConfig.setBackupCount(1);
+    documentConfig.setAsyncBackupCount(1);
+    documentConfig.setNearCacheMaxEntries(50);
+    CacheMapConfig patientConfig = new CacheMapConfig();
+    patientConfig.setMaxHeapInMegabytes(20);
+    cacheConfig.getMaps().put(Cache.DOCUMENT_CACHE_NAME, documentConfig);
+    cacheConfig.getMaps().put("patient-identifier", patientConfig);
+    try {
+      setEnableCacheAndReinit(true);
+
+      HazelcastCacheBackend backend = (HazelcastCacheBackend) ReflectionTestUtils.getField(cache, "backend");
+      Config config = backend.getHazelcastInstance().getConfig();
+      MapConfig documentMapConfig = config.getMapConfig(Cache.DOCUMENT_CACHE_NAME);
+      assertThat(documentMapConfig.getTimeToLiveSeconds()).isEqualTo(10);
+      assertThat(documentMapConfig.getMaxIdleSeconds()).isEqualTo(5);
+      EvictionConfig documentEviction = documentMapConfig.getEvictionConfig();
+      assertThat(documentEviction.getEvictionPolicy()).isEqualTo(EvictionPolicy.LFU);
+      assertThat(documentEviction.getMaxSizePolicy()).isEqualTo(MaxSizePolicy.PER_NODE);
+      assertThat(documentEviction.getSize()).isEqualTo(500);
+      assertThat(documentMapConfig.getBackupCount()).isEqualTo(1);
+      assertThat(documentMapConfig.getAsyncBackupCount()).isEqualTo(1);
+      assertThat(documentMapConfig.getNearCacheConfig().isInvalidateOnChange()).isTrue();
+      assertThat(documentMapConfig.getNearCacheConfig().getEvictionConfig().getSize()).isEqualTo(50);
+      assertThat(config.getMapConfig("patient-identifier").getNearCacheConfig().getEvictionConfig().getSize())
+          .isEqualTo(1000);
+      assertThat(config.getMapConfig("patient-identifier").getBackupCount()).isZero();
+      EvictionConfig patientEviction = config.getMapConfig("patient-identifier").getEvictionConfig();
+      assertThat(patientEviction.getEvictionPolicy()).isEqualTo(EvictionPolicy.LRU);
+      assertThat(patientEviction.getMaxSizePolicy()).isEqualTo(MaxSizePolicy.USED_HEAP_SIZE);
+      assertThat(patientEviction.getSize()).isEqualTo(20);
+      MapConfig vaccinationRecordsMapConfig = config.getMapConfig(Cache.VACCINATION_RECORDS_CACHE_NAME);
+      assertThat(vaccinationRecordsMapConfig.getTimeToLiveSeconds()).isEqualTo(60);
+      assertThat(vaccinationRecordsMapConfig.getEvictionConfig().getSize()).isEqualTo(10000);
+      assertNull(vaccinationRecordsMapConfig.getNearCacheConfig());
+    } finally {
+      cacheConfig.getMaps().clear();
+    }
+  }
+
+  @Test
+  void init_clientType_entriesAreStoredInCluster() throws Exception {
+    Config config = new Config();
+    config.setClusterName("client-test-" + UUID.randomUUID());
+    JoinConfig join = config.getNetworkConfig().getJoin();
+    join.getMulticastConfig().setEnabled(false);
+    join.getAutoDetectionConfig().setEnabled(false);
+    HazelcastInstance member = Hazelcast.newHazelcastInstance(config);
+    Object clustername = ReflectionTestUtils.getField(cache, "clustername");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      ReflectionTestUtils.setField(cache, "cacheType", Cache.HAZELCAST_CLIENT_TYPE);
+      ReflectionTestUtils.setField(cache, "clustername", config.getClusterName());
+      cacheConfig.getClient().setAddresses(
+          List.of("127.0.0.1:" + member.getCluster().getLocalMember().getAddress().getPort()));
+      setEnableCacheAndReinit(true);
+      CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+          new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+      PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
+      patientIdentifier.setSpidRootAuthority("SRA");
+
+      cache.putPatientIdentifier(patientIdentifier);
+      List<Future<?>> writes = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        EPRDocument document = new EPRDocument(false, "json" + i, null, LocalDateTime.now());
+        writes.add(executor.submit(() -> cache.putData(cacheIdentifier, document)));
+      }
+      for (Future<?> write : writes) {
+        write.get(10, TimeUnit.SECONDS);
+      }
+
+      assertThat(cache.getPatientIdentifier("oid", "localId").getSpidRootAuthority()).isEqualTo("SRA");
+      assertThat(cache.getData(cacheIdentifier)).hasSize(20);
+      // the second read is served by the near cache
+      assertThat(cache.getData(cacheIdentifier)).hasSize(20);
+      assertThat(member.getMap(Cache.DOCUMENT_CACHE_NAME).size()).isEqualTo(1);
+      assertThat(member.getConfig().getMapConfig(Cache.VACCINATION_RECORDS_CACHE_NAME).getTimeToLiveSeconds())
+          .isEqualTo(60);
+      HazelcastCacheBackend backend = (HazelcastCacheBackend) ReflectionTestUtils.getField(cache, "backend");
+      IMap<CacheIdentifierKey, List<EPRDocument>> documentMap =
+          backend.getHazelcastInstance().getMap(Cache.DOCUMENT_CACHE_NAME);
+      assertThat(documentMap.getLocalMapStats().getNearCacheStats().getHits()).isPositive();
+    } finally {
+      executor.shutdownNow();
+      cacheConfig.getClient().setAddresses(new ArrayList<>());
+      ReflectionTestUtils.setField(cache, "cacheType", Cache.HAZELCAST_TYPE);
+      ReflectionTestUtils.setField(cache, "clustername", clustername);
+      setEnableCacheAndReinit(false);
+      member.shutdown();
+    }
+  }
+
+  @Test
+  void putAll_localType_contentIsStoredCompressed() {
+    ReflectionTestUtils.setField(cache, "cacheType", Cache.LOCAL_TYPE);
+    try {
+      setEnableCacheAndReinit(true);
+      CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+          new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+      String content = "{\"resourceType\":\"Bundle\"}".repeat(100);
+      EPRDocument document = new EPRDocument(false, content, null, LocalDateTime.now(), "docId");
+      cache.putAll(cacheIdentifier, List.of(document, new EPRDocument(false, content, null, LocalDateTime.now())));
+
+      LocalCacheBackend backend = (LocalCacheBackend) ReflectionTestUtils.getField(cache, "backend");
+      EPRDocument storedDocument = backend.get(Cache.DOCUMENT_CONTENT_CACHE_NAME, "docId");
+      List<EPRDocument> storedEntry = backend.get(Cache.DOCUMENT_CACHE_NAME, cacheIdentifier);
+      assertThat(storedDocument.getCompressedJsonOrXmlFhirContent()).isNotNull().hasSizeLessThan(content.length());
+      assertThat(storedEntry.getLast().getCompressedJsonOrXmlFhirContent()).isNotNull();
+      assertThat(document.getJsonOrXmlFhirContent()).isEqualTo(content);
+
+      assertThat(cache.getData(cacheIdentifier)).extracting(EPRDocument::getJsonOrXmlFhirContent)
+          .containsExactly(content, content);
+      assertThat(storedDocument.getCompressedJsonOrXmlFhirContent()).isNotNull();
+      assertThat(storedEntry.getLast().getCompressedJsonOrXmlFhirContent()).isNotNull();
+    } finally {
+      ReflectionTestUtils.setField(cache, "cacheType", Cache.HAZELCAST_TYPE);
+    }
+  }
+
+  @Test
+  void estimateSize_localBackend_storedContentAndOverheadAreWeighed() {
+    String content = "\u00e9".repeat(1000);
+    EPRDocument document = new EPRDocument(false, content, null, LocalDateTime.now(), "docId");
+    EPRDocument compressedDocument = new EPRDocument(false, null, null, LocalDateTime.now(), "docId");
+    compressedDocument.setCompressedJsonOrXmlFhirContent(new byte[100]);
+
+    assertThat(LocalCacheBackend.estimateSize("docId", document)).isGreaterThan(2 * content.length());
+    assertThat(LocalCacheBackend.estimateSize("docId", compressedDocument))
+        .isGreaterThan(100)
+        .isLessThan(LocalCacheBackend.estimateSize("docId", document));
+    assertThat(compressedDocument.getCompressedJsonOrXmlFhirContent()).isNotNull();
+  }
+
+  @Test
+  void init_localTypeWithMaxEntries_evictionsAreCounted() {
+    CacheMapConfig patientConfig = new CacheMapConfig();
+    patientConfig.setMaxEntries(10);
+    cacheConfig.getMaps().put("patient-identifier", patientConfig);
+    ReflectionTestUtils.setField(cache, "cacheType", Cache.LOCAL_TYPE);
+    try {
+      setEnableCacheAndReinit(true);
+      Counter evictions = meterRegistry.get("cache.evictions").tag("cache", "patient-identifier").counter();
+      double evictionsBefore = evictions.count();
+
+      for (int i = 0; i < 100; i++) {
+        cache.putPatientIdentifier(new PatientIdentifier("communityIdentifier", "localId" + i, "oid"));
+      }
+
+      Awaitility.await().atMost(5, TimeUnit.SECONDS)
+          .until(() -> evictions.count() - evictionsBefore >= 90);
+    } finally {
+      cacheConfig.getMaps().clear();
+      ReflectionTestUtils.setField(cache, "cacheType", Cache.HAZELCAST_TYPE);
+    }
+  }
+
+  @Test
+  void init_clientTypeWithMaxEntries_evictionsOfClusterAreCounted() {
+    Config config = new Config();
+    config.setClusterName("client-test-" + UUID.randomUUID());
+    JoinConfig join = config.getNetworkConfig().getJoin();
+    join.getMulticastConfig().setEnabled(false);
+    join.getAutoDetectionConfig().setEnabled(false);
+    HazelcastInstance member = Hazelcast.newHazelcastInstance(config);
+    Object clustername = ReflectionTestUtils.getField(cache, "clustername");
+    CacheMapConfig patientConfig = new CacheMapConfig();
+    patientConfig.setMaxEntries(10);
+    cacheConfig.getMaps().put("patient-identifier", patientConfig);
+    try {
+      ReflectionTestUtils.setField(cache, "cacheType", Cache.HAZELCAST_CLIENT_TYPE);
+      ReflectionTestUtils.setField(cache, "clustername", config.getClusterName());
+      cacheConfig.getClient().setAddresses(
+          List.of("127.0.0.1:" + member.getCluster().getLocalMember().getAddress().getPort()));
+      setEnableCacheAndReinit(true);
+      Counter evictions = meterRegistry.get("cache.evictions").tag("cache", "patient-identifier").counter();
+      double evictionsBefore = evictions.count();
+
+      for (int i = 0; i < 100; i++) {
+        cache.putPatientIdentifier(new PatientIdentifier("communityIdentifier", "localId" + i, "oid"));
+      }
+
+      // the client is notified asynchronously about the evictions of the member
+      Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> evictions.count() > evictionsBefore);
+    } finally {
+      cacheConfig.getMaps().clear();
+      cacheConfig.getClient().setAddresses(new ArrayList<>());
+      ReflectionTestUtils.setField(cache, "cacheType", Cache.HAZELCAST_TYPE);
+      ReflectionTestUtils.setField(cache, "clustername", clustername);
+      setEnableCacheAndReinit(false);
+      member.shutdown();
+    }
+  }
+
+  @Test
+  void loadData_concurrentLoads_loaderIsCalledOnce() throws Exception {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch loadStarted = new CountDownLatch(1);
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<EPRDocument>> first = executor.submit(() -> cache.loadData(cacheIdentifier, () -> {
+        loads.incrementAndGet();
+        loadStarted.countDown();
+        await(finishLoad);
+        EPRDocument document = new EPRDocument(false, "json", null, LocalDateTime.now());
+        cache.putData(cacheIdentifier, document);
+        return List.of(document);
+      }));
+      assertThat(loadStarted.await(5, TimeUnit.SECONDS)).isTrue();
+      Future<List<EPRDocument>> second = executor.submit(() -> cache.loadData(cacheIdentifier, () -> {
+        loads.incrementAndGet();
+        return List.of();
+      }));
+      finishLoad.countDown();
+
+      assertThat(first.get(5, TimeUnit.SECONDS)).hasSize(1);
+      assertThat(second.get(5, TimeUnit.SECONDS)).hasSize(1);
+      assertThat(loads.get()).isEqualTo(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void putAll_concurrentWriters_noDocumentIsLost() throws Exception {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> writes = new ArrayList<>();
+      for (int i = 0; i < 40; i++) {
+        EPRDocument document = new EPRDocument(false, "json" + i, null, LocalDateTime.now());
+        writes.add(i % 2 == 0
+            ? executor.submit(() -> cache.putData(cacheIdentifier, document))
+            : executor.submit(() -> cache.putAll(cacheIdentifier, List.of(document, new EPRDocument()))));
+      }
+      for (Future<?> write : writes) {
+        write.get(10, TimeUnit.SECONDS);
+      }
+
+      assertThat(cache.getData(cacheIdentifier)).hasSize(40);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void appendDocuments_severalMembersWriteSameKey_noDocumentIsLost() throws Exception {
+    Config config = new Config();
+    config.setClusterName("append-test-" + UUID.randomUUID());
+    JoinConfig join = config.getNetworkConfig().getJoin();
+    join.getMulticastConfig().setEnabled(false);
+    join.getAutoDetectionConfig().setEnabled(false);
+    join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+    HazelcastInstance member1 = Hazelcast.newHazelcastInstance(config);
+    HazelcastInstance member2 = Hazelcast.newHazelcastInstance(config);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      assertThat(member1.getCluster().getMembers()).hasSize(2);
+      CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+          new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+      List<HazelcastInstance> members = List.of(member1, member2);
+      List<Future<?>> writes = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        IMap<CacheIdentifierKey, List<EPRDocument>> map = members.get(i % 2).getMap(Cache.DOCUMENT_CACHE_NAME);
+        EPRDocument document = new EPRDocument(false, "json" + i, null, LocalDateTime.now());
+        writes.add(executor.submit(
+            () -> map.executeOnKey(cacheIdentifier, new AppendDocumentsProcessor(List.of(document)))));
+      }
+      for (Future<?> write : writes) {
+        write.get(10, TimeUnit.SECONDS);
+      }
+
+      IMap<CacheIdentifierKey, List<EPRDocument>> map = member2.getMap(Cache.DOCUMENT_CACHE_NAME);
+      assertThat(map.get(cacheIdentifier))
+          .extracting(EPRDocument::getJsonOrXmlFhirContent)
+          .doesNotHaveDuplicates()
+          .hasSize(100);
+    } finally {
+      executor.shutdownNow();
+      member2.shutdown();
+      member1.shutdown();
+    }
+  }
+
+  @Test
+  void parsedData_cacheEnabled_copiesAreReturnedUntilDocumentIsCleared() {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    VaccinationDTO vaccination = new VaccinationDTO();
+    vaccination.setId("vaccinationId");
+    cache.putData(cacheIdentifier, new EPRDocument(false, "json", null, LocalDateTime.now(), "docId"));
+    cache.putParsedData(cacheIdentifier, "docId",
+        Map.of(VaccinationDTO.class, List.of(vaccination), BaseDTO.class, List.of(vaccination)));
+
+    List<VaccinationDTO> cached = cache.getParsedData(cacheIdentifier, "docId", VaccinationDTO.class);
+    assertThat(cached).hasSize(1);
+    assertThat(cached.getFirst().getId()).isEqualTo("vaccinationId");
+    assertThat(cached.getFirst()).isNotSameAs(vaccination);
+    cached.getFirst().setValidated(true);
+    assertThat(cache.getParsedData(cacheIdentifier, "docId", VaccinationDTO.class).getFirst().isValidated()).isFalse();
+    assertThat(cache.getParsedData(cacheIdentifier, "docId", BaseDTO.class)).hasSize(1);
+    assertNull(cache.getParsedData(cacheIdentifier, "unknownDocId", VaccinationDTO.class));
+
+    cache.clear(cacheIdentifier, Cache.DOCUMENT_CACHE_NAME);
+    assertNull(cache.getParsedData(cacheIdentifier, "docId", VaccinationDTO.class));
+  }
+
+  @Test
+  void documentUniqueIds_parsedDocuments_areFoundByIdAndRelatedId() {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    VaccinationDTO vaccination = new VaccinationDTO();
+    vaccination.setId("vaccinationId");
+    VaccinationDTO updatedVaccination = new VaccinationDTO();
+    updatedVaccination.setId("updatedVaccinationId");
+    updatedVaccination.setRelatedId("vaccinationId");
+    cache.putData(cacheIdentifier, new EPRDocument(false, "json", null, LocalDateTime.now(), "docId"));
+    cache.putParsedData(cacheIdentifier, "docId",
+        Map.of(VaccinationDTO.class, List.of(vaccination), BaseDTO.class, List.of(vaccination)));
+    cache.putParsedData(cacheIdentifier, "updatedDocId",
+        Map.of(VaccinationDTO.class, List.of(updatedVaccination), BaseDTO.class, List.of(updatedVaccination)));
+    cache.putParsedData(cacheIdentifier, "incompleteDocId", Map.of(VaccinationDTO.class, List.of()));
+
+    assertThat(cache.getDocumentUniqueIds(cacheIdentifier, "vaccinationId", false)).containsExactly("docId");
+    assertThat(cache.getDocumentUniqueIds(cacheIdentifier, "vaccinationId", true))
+        .containsExactlyInAnyOrder("docId", "updatedDocId");
+    assertThat(cache.getDocumentUniqueIds(cacheIdentifier, "unknownId", true)).isEmpty();
+    assertThat(cache.isIndexed(cacheIdentifier, "docId")).isTrue();
+    assertThat(cache.isIndexed(cacheIdentifier, "incompleteDocId")).isFalse();
+    assertThat(cache.isIndexed(cacheIdentifier, "newDocId")).isFalse();
+
+    cache.clear(cacheIdentifier, Cache.DOCUMENT_CACHE_NAME);
+    assertThat(cache.getDocumentUniqueIds(cacheIdentifier, "vaccinationId", true)).isEmpty();
+    assertThat(cache.isIndexed(cacheIdentifier, "docId")).isFalse();
+  }
+
+  @Test
+  void parsedData_cacheDisabled_nothingIsCached() {
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    cache.putParsedData(cacheIdentifier, "docId", Map.of(VaccinationDTO.class, List.of(new VaccinationDTO())));
+
+    assertNull(cache.getParsedData(cacheIdentifier, "docId", VaccinationDTO.class));
+  }
+
+  @Test
+  void parsedData_documentsNotStored_parsedDataExpires() {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    cache.putParsedData(cacheIdentifier, "docId", Map.of(VaccinationDTO.class, List.of(new VaccinationDTO())));
+    assertThat(cache.getParsedData(cacheIdentifier, "docId", VaccinationDTO.class)).hasSize(1);
+
+    Awaitility.await().atMost(5, TimeUnit.SECONDS).pollInterval(100, TimeUnit.MILLISECONDS)
+        .until(() -> cache.getParsedData(cacheIdentifier, "docId", VaccinationDTO.class) == null);
+  }
+
   @BeforeEach
   void setUp() {
     setEnableCacheAndReinit(false);
@@ -136,6 +758,7 @@ class CacheTest {
 
   @Test
   void test_getAfterTTL() throws Exception {
+    setEnableCacheAndReinit(true);
     PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
     patientIdentifier.setSpidRootAuthority("SRA");
     cache.putPatientIdentifier(patientIdentifier);
@@ -147,6 +770,7 @@ class CacheTest {
 
   @Test
   void test_getBeforeTTL() {
+    setEnableCacheAndReinit(true);
     PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
     patientIdentifier.setSpidRootAuthority("SRA");
     cache.putPatientIdentifier(patientIdentifier);
@@ -157,9 +781,11 @@ class CacheTest {
 
   @Test
   void test_getJsonsAfterTTL() throws Exception {
+    setEnableCacheAndReinit(true);
     CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
         new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
     cache.putData(cacheIdentifier, new EPRDocument(false, "json3", null, LocalDateTime.now()));
+    assertThat(cache.getData(cacheIdentifier).size()).isEqualTo(1);
     Thread.sleep(2100); // > 2s TTL
     assertThat(cache.getData(cacheIdentifier).size()).isEqualTo(0);
     assertThat(cache.dataCacheMiss(cacheIdentifier)).isTrue();
@@ -179,6 +805,7 @@ class CacheTest {
 
   @Test
   void test_getJsonsBeforeTTL() {
+    setEnableCacheAndReinit(true);
     CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
         new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
     assertThat(cache.getData(cacheIdentifier).size()).isEqualTo(0);
@@ -221,6 +848,7 @@ class CacheTest {
 
   @Test
   void test_replace() {
+    setEnableCacheAndReinit(true);
     PatientIdentifier patientIdentifier = new PatientIdentifier("communityIdentifier", "localId", "oid");
     patientIdentifier.setSpidRootAuthority("SRA");
     cache.putPatientIdentifier(patientIdentifier);
@@ -237,6 +865,163 @@ class CacheTest {
     assertThat(patientIdentifier.getSpidRootAuthority()).isEqualTo("SRA2");
   }
 
+  @Test
+  void getPatientIdentifier_unknownPatient_queryIsNotRepeated() {
+    setEnableCacheAndReinit(true);
+    AtomicInteger queries = new AtomicInteger();
+
+    for (int i = 0; i < 3; i++) {
+      assertNull(cache.getPatientIdentifier("communityIdentifier", "oid", "unknownId", () -> {
+        queries.incrementAndGet();
+        return null;
+      }));
+    }
+
+    assertThat(queries.get()).isEqualTo(1);
+    assertThat(meterRegistry.get("cache.patient.identifier.requests").tag("result", "not.found").counter().count())
+        .isGreaterThanOrEqualTo(2);
+  }
+
+  @Test
+  void getPatientIdentifier_manyUnknownPatients_numberOfUnknownPatientsIsLimited() {
+    cacheConfig.getPatientIdentifiers().setMaxNotFoundEntries(2);
+    try {
+      setEnableCacheAndReinit(true);
+      for (int i = 0; i < 10; i++) {
+        cache.getPatientIdentifier("communityIdentifier", "oid", "unknownId" + i, () -> null);
+      }
+      cache.getPatientIdentifier("communityIdentifier", "oid", "localId",
+          () -> new PatientIdentifier("communityIdentifier", "localId", "oid"));
+
+      PatientIdentifierCache patientIdentifiers =
+          (PatientIdentifierCache) ReflectionTestUtils.getField(cache, "patientIdentifiers");
+      Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> {
+        patientIdentifiers.cleanUp();
+        return patientIdentifiers.size() <= 3;
+      });
+      assertThat(cache.getPatientIdentifier("communityIdentifier", "oid", "localId", () -> null)).isNotNull();
+    } finally {
+      cacheConfig.getPatientIdentifiers().setMaxNotFoundEntries(1000);
+    }
+  }
+
+  @Test
+  void getPatientIdentifier_concurrentLookups_singleQuery() throws Exception {
+    setEnableCacheAndReinit(true);
+    AtomicInteger queries = new AtomicInteger();
+    CountDownLatch queryStarted = new CountDownLatch(1);
+    CountDownLatch releaseQuery = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<PatientIdentifier> first = executor.submit(
+          () -> cache.getPatientIdentifier("communityIdentifier", "oid", "localId", () -> {
+            queries.incrementAndGet();
+            queryStarted.countDown();
+            await(releaseQuery);
+            return new PatientIdentifier("communityIdentifier", "localId", "oid");
+          }));
+      await(queryStarted);
+      Future<PatientIdentifier> second = executor.submit(
+          () -> cache.getPatientIdentifier("communityIdentifier", "oid", "localId", () -> {
+            queries.incrementAndGet();
+            return new PatientIdentifier("communityIdentifier", "localId", "oid");
+          }));
+      Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> meterRegistry
+          .find("cache.patient.identifier.requests").tag("result", "coalesced").counter() != null);
+      releaseQuery.countDown();
+
+      assertThat(first.get(5, TimeUnit.SECONDS).getLocalExtension()).isEqualTo("localId");
+      assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(first.get());
+      assertThat(queries.get()).isEqualTo(1);
+      assertThat(meterRegistry.get("pdq.requests").timer().count()).isPositive();
+    } finally {
+      releaseQuery.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void getPatientIdentifier_communityTtl_identifierIsKeptLongerThanDocuments() throws InterruptedException {
+    cacheConfig.getPatientIdentifiers().getCommunityTtlInSeconds().put("communityIdentifier", 60);
+    try {
+      setEnableCacheAndReinit(true);
+      AtomicInteger queries = new AtomicInteger();
+      cache.getPatientIdentifier("communityIdentifier", "oid", "localId", () -> {
+        queries.incrementAndGet();
+        return new PatientIdentifier("communityIdentifier", "localId", "oid");
+      });
+
+      Thread.sleep(2100); // > 2s TTL of the cluster maps
+
+      assertThat(cache.getPatientIdentifier("communityIdentifier", "oid", "localId", () -> {
+        queries.incrementAndGet();
+        return null;
+      })).isNotNull();
+      assertThat(queries.get()).isEqualTo(1);
+    } finally {
+      cacheConfig.getPatientIdentifiers().getCommunityTtlInSeconds().clear();
+    }
+  }
+
+  @Test
+  void getSyncState_storedState_knownEntriesAreReturnedUntilFullSyncIsDue() {
+    setEnableCacheAndReinit(true);
+    CacheIdentifierKey cacheIdentifier = new CacheIdentifierKey(
+        new PatientIdentifier("communityIdentifier", "localId", "oid"), new AuthorDTO(null, null, "123"));
+    DocumentEntry documentEntry = createDocumentEntry("docId", "hash");
+    documentEntry.setFormatCode(new Code("formatCode", null, "formatCodeSystem"));
+    documentEntry.setCreationTime(Timestamp.fromHL7("20240101120000"));
+    documentEntry.setRepositoryUniqueId("repositoryId");
+    documentEntry.setExtraMetadata(Map.of("role", List.of("HCP")));
+    Instant fullySyncedAt = Instant.now().minusSeconds(60);
+
+    cache.putSyncState(cacheIdentifier, true, DocumentSyncState.of(Instant.now(), fullySyncedAt, List.of(documentEntry)));
+
+    assertThat(cache.getSyncState(cacheIdentifier, false)).isNull();
+    DocumentSyncState syncState = cache.getSyncState(cacheIdentifier, true);
+    assertThat(syncState.getFullySyncedAt()).isEqualTo(fullySyncedAt.truncatedTo(ChronoUnit.MILLIS));
+    DocumentEntry newEntry = createDocumentEntry("newDocId", "newHash");
+    List<DocumentEntry> entries = syncState.merge(List.of(newEntry));
+    assertThat(entries).extracting(DocumentEntry::getUniqueId).containsExactly("docId", "newDocId");
+    DocumentEntry knownEntry = entries.getFirst();
+    assertThat(knownEntry.getFormatCode().getCode()).isEqualTo("formatCode");
+    assertThat(knownEntry.getCreationTime()).isEqualTo(documentEntry.getCreationTime());
+    assertThat(knownEntry.getHash()).isEqualTo("hash");
+    assertThat(knownEntry.getRepositoryUniqueId()).isEqualTo("repositoryId");
+    assertThat(knownEntry.getExtraMetadata()).containsEntry("role", List.of("HCP"));
+
+    cache.putSyncState(cacheIdentifier, true,
+        DocumentSyncState.of(Instant.now(), Instant.now().minusSeconds(3600), List.of(documentEntry)));
+    assertThat(cache.getSyncState(cacheIdentifier, true)).isNull();
+    assertThat(meterRegistry.get("cache.document.sync.requests").tag("type", "full").counter().count())
+        .isPositive();
+
+    cache.putSyncState(cacheIdentifier, true, DocumentSyncState.of(Instant.now(), Instant.now(), List.of()));
+    cache.clear(cacheIdentifier);
+    assertThat(cache.getSyncState(cacheIdentifier, true)).isNull();
+  }
+
+  private DocumentEntry createDocumentEntry(String documentUniqueId, String hash) {
+    DocumentEntry documentEntry = new DocumentEntry();
+    documentEntry.setUniqueId(documentUniqueId);
+    documentEntry.setHash(hash);
+    documentEntry.setSize(100L);
+    return documentEntry;
+  }
+
+  private double getCount(String counterName) {
+    Counter counter = meterRegistry.find(counterName).counter();
+    return counter != null ? counter.count() : 0;
+  }
+
+  private void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private void setEnableCacheAndReinit(boolean isCacheEnabled) {
     ReflectionTestUtils.setField(cache, "isCacheEnabled", isCacheEnabled);
     ReflectionTestUtils.invokeMethod(cache, "init");
@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.husky;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import ch.admin.bag.vaccination.exception.CommunityUnavailableException;
+import ch.admin.bag.vaccination.service.husky.CommunityCircuitBreakers.State;
+import ch.admin.bag.vaccination.service.husky.config.EPDTransaction;
+import ch.admin.bag.vaccination.service.husky.config.ResilienceConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.cxf.transport.http.HTTPException;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ *
+ * Test of the {@link CommunityCircuitBreakers}
+ *
+ */
+class CommunityCircuitBreakersTest {
+  private static final String COMMUNITY = "EPDPLAYGROUND";
+  private CommunityCircuitBreakers circuitBreakers;
+  private ResilienceConfig resilienceConfig;
+  private SimpleMeterRegistry meterRegistry;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    resilienceConfig = new ResilienceConfig();
+    resilienceConfig.setFailureThreshold(2);
+    resilienceConfig.setMaxConcurrentCalls(1);
+    resilienceConfig.setPdqTimeoutInSeconds(1);
+    circuitBreakers = new CommunityCircuitBreakers();
+    ReflectionTestUtils.setField(circuitBreakers, "resilienceConfig", resilienceConfig);
+    ReflectionTestUtils.setField(circuitBreakers, "meterRegistry", meterRegistry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    circuitBreakers.shutdown();
+  }
+
+  @Test
+  void execute_consecutiveFailures_opensCircuitBreaker() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> {
+        calls.incrementAndGet();
+        throw new ConnectException("unavailable");
+      })).isInstanceOf(ConnectException.class);
+    }
+
+    assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, calls::incrementAndGet))
+        .isInstanceOf(CommunityUnavailableException.class);
+    assertThat(calls.get()).isEqualTo(2);
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).state()).isEqualTo(State.OPEN);
+    assertThat(circuitBreakers.execute("GAZELLE", EPDTransaction.PDQ, () -> "other community")).isEqualTo(
+        "other community");
+    assertThat(meterRegistry.get("epd.community.calls").tag("result", "rejected.open").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void execute_openStateElapsed_trialCallClosesCircuitBreaker() throws Exception {
+    resilienceConfig.setOpenStateInSeconds(0);
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> {
+        throw new ConnectException("unavailable");
+      })).isInstanceOf(ConnectException.class);
+    }
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).state()).isEqualTo(State.OPEN);
+
+    assertThat(circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> "available")).isEqualTo("available");
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).state()).isEqualTo(State.CLOSED);
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).consecutiveFailures()).isZero();
+  }
+
+  @Test
+  void execute_halfOpen_onlyTrialCallIsSent() throws Exception {
+    resilienceConfig.setMaxConcurrentCalls(2);
+    resilienceConfig.setOpenStateInSeconds(0);
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> {
+        throw new SocketTimeoutException("unavailable");
+      })).isInstanceOf(SocketTimeoutException.class);
+    }
+
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<String> trialCall = executor.submit(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> {
+        release.await();
+        return "available";
+      }));
+      Awaitility.await().atMost(5, TimeUnit.SECONDS)
+          .until(() -> circuitBreakers.getStates().get(COMMUNITY).runningCalls() == 1);
+      assertThat(circuitBreakers.getStates().get(COMMUNITY).state()).isEqualTo(State.HALF_OPEN);
+
+      assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> "second call"))
+          .isInstanceOf(CommunityUnavailableException.class).hasMessageContaining("is open");
+
+      release.countDown();
+      assertThat(trialCall.get(5, TimeUnit.SECONDS)).isEqualTo("available");
+      assertThat(circuitBreakers.getStates().get(COMMUNITY).state()).isEqualTo(State.CLOSED);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void execute_errorAnsweredByCommunity_doesNotOpenCircuitBreaker() {
+    for (int i = 0; i < 3; i++) {
+      assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> {
+        throw new IllegalArgumentException("invalid request");
+      })).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).state()).isEqualTo(State.CLOSED);
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).consecutiveFailures()).isZero();
+    assertThat(meterRegistry.get("epd.community.calls").tag("result", "error").counter().count())
+        .isEqualTo(3);
+  }
+
+  @Test
+  void execute_callerInterrupted_releasesPlaceOfCall() throws Exception {
+    Thread.currentThread().interrupt();
+    assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> "interrupted"))
+        .isInstanceOf(InterruptedException.class);
+    assertThat(Thread.interrupted()).isTrue();
+
+    // whether the call started before it was cancelled or not, its place is released once
+    Awaitility.await().atMost(5, TimeUnit.SECONDS)
+        .until(() -> circuitBreakers.getStates().get(COMMUNITY).runningCalls() == 0);
+    assertThat(circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> "available")).isEqualTo("available");
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).runningCalls()).isZero();
+  }
+
+  @Test
+  void execute_callRejected_releasesPlaceOfCall() {
+    circuitBreakers.shutdown();
+
+    assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> "rejected"))
+        .isInstanceOf(RejectedExecutionException.class);
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).runningCalls()).isZero();
+    assertThat(circuitBreakers.getStates().get(COMMUNITY).state()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  void isCommunityFailure_transportAndServerErrors_areFailures() throws Exception {
+    URL url = URI.create("http://localhost").toURL();
+
+    assertThat(CommunityCircuitBreakers.isCommunityFailure(new RuntimeException(new ConnectException("refused"))))
+        .isTrue();
+    assertThat(CommunityCircuitBreakers.isCommunityFailure(new HTTPException(503, "Service Unavailable", url)))
+        .isTrue();
+    assertThat(CommunityCircuitBreakers.isCommunityFailure(new HTTPException(404, "Not Found", url))).isFalse();
+    assertThat(CommunityCircuitBreakers.isCommunityFailure(new IllegalArgumentException("invalid"))).isFalse();
+  }
+
+  @Test
+  void execute_slowCall_timesOutAndKeepsConcurrencyLimit() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      // like a blocking socket read, the call does not stop when it is interrupted
+      assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> {
+        while (release.getCount() > 0) {
+          try {
+            release.await();
+          } catch (InterruptedException ex) {
+            // ignore
+          }
+        }
+        return "late";
+      })).isInstanceOf(CommunityUnavailableException.class).hasMessageContaining("timed out");
+
+      assertThat(circuitBreakers.getStates().get(COMMUNITY).consecutiveFailures()).isEqualTo(1);
+      assertThatThrownBy(() -> circuitBreakers.execute(COMMUNITY, EPDTransaction.PDQ, () -> "too many"))
+          .isInstanceOf(CommunityUnavailableException.class).hasMessageContaining("concurrent");
+    } finally {
+      release.countDown();
+    }
+  }
+}
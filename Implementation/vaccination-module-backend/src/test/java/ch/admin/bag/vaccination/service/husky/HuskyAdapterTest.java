@@ -23,9 +23,12 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import ch.admin.bag.vaccination.config.ProfileConfig;
+import ch.admin.bag.vaccination.exception.IncompleteRetrieveException;
 import ch.admin.bag.vaccination.service.cache.Cache;
 import ch.admin.bag.vaccination.service.husky.config.CommunitiesConfig;
 import ch.admin.bag.vaccination.service.husky.config.CommunityConfig;
@@ -47,8 +50,13 @@ import ch.fhir.epr.adapter.data.dto.VaccinationDTO;
 import ch.fhir.epr.adapter.data.dto.ValueDTO;
 import ch.fhir.epr.adapter.exception.TechnicalException;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Bundle;
 import org.junit.jupiter.api.BeforeAll;
@@ -57,12 +65,18 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.DocumentReference;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.RetrievedDocument;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.RetrievedDocumentSet;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
 import org.projecthusky.common.communication.DocumentMetadata;
 import org.projecthusky.common.communication.SubmissionSetMetadata;
 import org.projecthusky.common.enums.LanguageCode;
 import org.projecthusky.common.model.Code;
 import org.projecthusky.common.model.Identificator;
+import org.projecthusky.communication.DocumentRequest;
+import org.projecthusky.communication.requests.xds.XdsDocumentSetRequest;
+import org.projecthusky.communication.services.HuskyService;
 import org.projecthusky.xua.saml2.Assertion;
 import org.projecthusky.xua.saml2.impl.AssertionBuilderImpl;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -140,6 +154,63 @@ class HuskyAdapterTest {
     assertThat(syslogServer.getLastMessage()).isNull();
   }
 
+  @Test
+  void createDocumentRequestChunks_severalRepositories_chunksPerRepositoryAndHomeCommunity() {
+    List<DocumentEntry> documentEntries = List.of(
+        createDocumentEntry("repository1", "community1"),
+        createDocumentEntry("repository2", "community1"),
+        createDocumentEntry("repository1", "community1"),
+        createDocumentEntry("repository1", "community2"),
+        createDocumentEntry("repository1", "community1"));
+
+    assertThat(HuskyAdapter.createDocumentRequestChunks(documentEntries, 2))
+        .extracting(List::size)
+        .containsExactly(2, 1, 1, 1);
+    assertThat(HuskyAdapter.createDocumentRequestChunks(documentEntries, 50))
+        .extracting(List::size)
+        .containsExactly(3, 1, 1);
+  }
+
+  @Test
+  void getRetrievedDocuments_chunkFailsOnce_chunkIsRetried() throws Exception {
+    List<DocumentEntry> documentEntries = createDocumentEntries("doc1", "doc2", "doc3");
+    Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    HuskyService huskyService = mockRetrieve(documentId ->
+        "doc2".equals(documentId) && attempts.computeIfAbsent(documentId, id -> new AtomicInteger()).incrementAndGet() == 1);
+
+    List<RetrievedDocument> retrievedDocuments = getRetrievedDocuments(huskyService, documentEntries);
+
+    assertThat(retrievedDocuments).extracting(document -> document.getRequestData().getDocumentUniqueId())
+        .containsExactly("doc1", "doc2", "doc3");
+    assertThat(attempts.get("doc2")).hasValue(2);
+  }
+
+  @Test
+  void getRetrievedDocuments_chunkAlwaysFails_retrievedDocumentsAreReturnedWithException() throws Exception {
+    List<DocumentEntry> documentEntries = createDocumentEntries("doc1", "doc2", "doc3");
+    HuskyService huskyService = mockRetrieve("doc2"::equals);
+
+    IncompleteRetrieveException exception = assertThrows(IncompleteRetrieveException.class,
+        () -> getRetrievedDocuments(huskyService, documentEntries));
+
+    assertThat(exception.getMessage()).isEqualTo("1 of 3 retrieve requests failed.");
+    assertThat(exception.getRetrievedDocuments())
+        .extracting(document -> document.getRequestData().getDocumentUniqueId())
+        .containsExactly("doc1", "doc3");
+  }
+
+  @Test
+  void getRetrievedDocuments_allChunksFail_throwTechnicalException() throws Exception {
+    List<DocumentEntry> documentEntries = createDocumentEntries("doc1", "doc2");
+    HuskyService huskyService = mockRetrieve(documentId -> true);
+
+    TechnicalException exception =
+        assertThrows(TechnicalException.class, () -> getRetrievedDocuments(huskyService, documentEntries));
+
+    assertThat(exception).isNotInstanceOf(IncompleteRetrieveException.class)
+        .hasMessage("All 2 retrieve requests failed.");
+  }
+
   @Test
   void getRetrievedDocuments_existingDocument_GAZELLE() throws Exception {
     PatientIdentifier patientIdentifier = new PatientIdentifier(EPDCommunity.GAZELLE.name(), null, null);
@@ -308,6 +379,61 @@ class HuskyAdapterTest {
     huskyAdapter.writeDocument(patientIdentifier, uuid, json, vaccination, huskyAssertion);
   }
 
+  private List<DocumentEntry> createDocumentEntries(String... documentUniqueIds) {
+    return Arrays.stream(documentUniqueIds).map(documentUniqueId -> {
+      DocumentEntry documentEntry = createDocumentEntry("1.1.4567332.1.5", null);
+      documentEntry.setUniqueId(documentUniqueId);
+      return documentEntry;
+    }).toList();
+  }
+
+  /**
+   * Mocks a husky service answering each retrieve request with the requested document, or failing
+   * if the document matches the given predicate.
+   */
+  private HuskyService mockRetrieve(Predicate<String> isFailing) throws Exception {
+    HuskyService huskyService = mock(HuskyService.class);
+    when(huskyService.send(any(XdsDocumentSetRequest.class))).thenAnswer(invocation -> {
+      DocumentRequest documentRequest =
+          invocation.<XdsDocumentSetRequest>getArgument(0).getDocumentRequests().getFirst();
+      if (isFailing.test(documentRequest.getDocumentId())) {
+        throw new IllegalStateException("Read timed out");
+      }
+      RetrievedDocument retrievedDocument = new RetrievedDocument();
+      retrievedDocument.setRequestData(new DocumentReference(documentRequest.getRepositoryId(),
+          documentRequest.getDocumentId(), null));
+      RetrievedDocumentSet documentSet = new RetrievedDocumentSet();
+      documentSet.setStatus(Status.SUCCESS);
+      documentSet.getDocuments().add(retrievedDocument);
+      return documentSet;
+    });
+    return huskyService;
+  }
+
+  /** Retrieves the documents with the given husky service, one document per request. */
+  private List<RetrievedDocument> getRetrievedDocuments(HuskyService huskyService,
+      List<DocumentEntry> documentEntries) {
+    Object originalHuskyService = ReflectionTestUtils.getField(huskyAdapter, "huskyService");
+    Object originalChunkSize = ReflectionTestUtils.getField(huskyAdapter, "retrieveChunkSize");
+    ReflectionTestUtils.setField(huskyAdapter, "huskyService", huskyService);
+    ReflectionTestUtils.setField(huskyAdapter, "retrieveChunkSize", 1);
+    try {
+      return huskyAdapter.getRetrievedDocuments(new PatientIdentifier(EPDCommunity.GAZELLE.name(), null, null),
+          documentEntries, null, null, true);
+    } finally {
+      ReflectionTestUtils.setField(huskyAdapter, "huskyService", originalHuskyService);
+      ReflectionTestUtils.setField(huskyAdapter, "retrieveChunkSize", originalChunkSize);
+    }
+  }
+
+  private DocumentEntry createDocumentEntry(String repositoryUniqueId, String homeCommunityId) {
+    DocumentEntry documentEntry = new DocumentEntry();
+    documentEntry.setRepositoryUniqueId(repositoryUniqueId);
+    documentEntry.setHomeCommunityId(homeCommunityId);
+    documentEntry.setUniqueId(UUID.randomUUID().toString());
+    return documentEntry;
+  }
+
   private void checkMetadata(String titleCategory, BaseDTO baseDto) {
     DocumentMetadata metadata = new DocumentMetadata();
     baseDto.setCode(ANY_CODE);
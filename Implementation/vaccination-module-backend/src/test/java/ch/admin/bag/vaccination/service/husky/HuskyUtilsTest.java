@@ -56,4 +56,14 @@ public class HuskyUtilsTest {
 
     assertNull(HuskyUtils.getCodedPurposeOfUse("Dummy"));
   }
+
+  @Test
+  void testGetDocumentUniqueId() {
+    assertEquals("2.25.329800735698586629295641978511506172918",
+        HuskyUtils.getDocumentUniqueId("urn:uuid:f81d4fae-7dec-11d0-a765-00a0c91e6bf6"));
+    assertEquals(HuskyUtils.getDocumentUniqueId("urn:uuid:f81d4fae-7dec-11d0-a765-00a0c91e6bf6"),
+        HuskyUtils.getDocumentUniqueId("f81d4fae-7dec-11d0-a765-00a0c91e6bf6"));
+    assertNull(HuskyUtils.getDocumentUniqueId("testfile"));
+    assertNull(HuskyUtils.getDocumentUniqueId(null));
+  }
 }
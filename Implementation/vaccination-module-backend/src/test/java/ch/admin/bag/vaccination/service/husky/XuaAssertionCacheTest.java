@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2026 eHealth Suisse
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ch.admin.bag.vaccination.service.husky;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import ch.fhir.epr.adapter.data.dto.AuthorDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.Subject;
+import org.projecthusky.xua.saml2.Assertion;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ *
+ * Test of the {@link XuaAssertionCache}
+ *
+ */
+class XuaAssertionCacheTest {
+  private XuaAssertionCache xuaAssertionCache;
+  private SimpleMeterRegistry meterRegistry;
+  private AuthorDTO author;
+  private Assertion idpAssertion;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    xuaAssertionCache = new XuaAssertionCache();
+    ReflectionTestUtils.setField(xuaAssertionCache, "meterRegistry", meterRegistry);
+    ReflectionTestUtils.setField(xuaAssertionCache, "isCacheEnabled", true);
+    ReflectionTestUtils.setField(xuaAssertionCache, "renewBeforeExpiryInSeconds", 60);
+    ReflectionTestUtils.setField(xuaAssertionCache, "maxEntries", 2);
+    ReflectionTestUtils.invokeMethod(xuaAssertionCache, "init");
+
+    author = new AuthorDTO(null, "HCP", "7600000000000");
+    author.setPurpose("NORM");
+    idpAssertion = createAssertion("subject", Instant.now().plusSeconds(3600));
+  }
+
+  @Test
+  void getAssertion_validAssertion_stsIsCalledOnce() throws Exception {
+    Assertion xuaAssertion = createAssertion(null, Instant.now().plusSeconds(300));
+    AtomicInteger stsCalls = new AtomicInteger();
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(xuaAssertionCache.getAssertion(author, idpAssertion, "spid", "uri", () -> {
+        stsCalls.incrementAndGet();
+        return xuaAssertion;
+      })).isSameAs(xuaAssertion);
+    }
+
+    assertThat(stsCalls.get()).isEqualTo(1);
+    assertThat(meterRegistry.counter("xua.assertion.cache.requests", "result", "hit").count()).isEqualTo(2);
+    assertThat(meterRegistry.counter("xua.assertion.cache.requests", "result", "miss").count()).isEqualTo(1);
+  }
+
+  @Test
+  void getAssertion_otherRepository_stsIsCalledAgain() throws Exception {
+    AtomicInteger stsCalls = new AtomicInteger();
+
+    xuaAssertionCache.getAssertion(author, idpAssertion, "spid", "uri", () -> {
+      stsCalls.incrementAndGet();
+      return createAssertion(null, Instant.now().plusSeconds(300));
+    });
+    xuaAssertionCache.getAssertion(author, idpAssertion, "spid", "otherUri", () -> {
+      stsCalls.incrementAndGet();
+      return createAssertion(null, Instant.now().plusSeconds(300));
+    });
+
+    assertThat(stsCalls.get()).isEqualTo(2);
+  }
+
+  @Test
+  void getAssertion_assertionExpiresSoon_isNotReused() throws Exception {
+    AtomicInteger stsCalls = new AtomicInteger();
+
+    for (int i = 0; i < 2; i++) {
+      xuaAssertionCache.getAssertion(author, idpAssertion, "spid", "uri", () -> {
+        stsCalls.incrementAndGet();
+        return createAssertion(null, Instant.now().plusSeconds(30));
+      });
+    }
+
+    assertThat(stsCalls.get()).isEqualTo(2);
+  }
+
+  @Test
+  void evict_logout_stsIsCalledAgain() throws Exception {
+    AtomicInteger stsCalls = new AtomicInteger();
+
+    xuaAssertionCache.getAssertion(author, idpAssertion, "spid", "uri", () -> {
+      stsCalls.incrementAndGet();
+      return createAssertion(null, Instant.now().plusSeconds(300));
+    });
+    xuaAssertionCache.evict("subject");
+    xuaAssertionCache.getAssertion(author, idpAssertion, "spid", "uri", () -> {
+      stsCalls.incrementAndGet();
+      return createAssertion(null, Instant.now().plusSeconds(300));
+    });
+
+    assertThat(stsCalls.get()).isEqualTo(2);
+  }
+
+  @Test
+  void getAssertion_manyRepositories_numberOfAssertionsIsLimited() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      xuaAssertionCache.getAssertion(author, idpAssertion, "spid", "uri" + i,
+          () -> createAssertion(null, Instant.now().plusSeconds(300)));
+    }
+
+    Awaitility.await().atMost(5, TimeUnit.SECONDS)
+        .until(() -> meterRegistry.get("xua.assertion.cache.size").gauge().value() <= 2);
+  }
+
+  @Test
+  void removeExpiredAssertions_assertionMustBeRenewed_isRemoved() throws Exception {
+    xuaAssertionCache.getAssertion(author, idpAssertion, "spid", "uri",
+        () -> createAssertion(null, Instant.now().plusSeconds(61)));
+    assertThat(meterRegistry.get("xua.assertion.cache.size").gauge().value()).isEqualTo(1);
+
+    Thread.sleep(1100);
+    xuaAssertionCache.removeExpiredAssertions();
+
+    assertThat(meterRegistry.get("xua.assertion.cache.size").gauge().value()).isZero();
+  }
+
+  private Assertion createAssertion(String subjectName, Instant notOnOrAfter) {
+    org.opensaml.saml.saml2.core.Assertion samlAssertion = mock(org.opensaml.saml.saml2.core.Assertion.class);
+    Conditions conditions = mock(Conditions.class);
+    when(conditions.getNotOnOrAfter()).thenReturn(notOnOrAfter);
+    when(samlAssertion.getConditions()).thenReturn(conditions);
+    if (subjectName != null) {
+      Subject subject = mock(Subject.class);
+      NameID nameID = mock(NameID.class);
+      when(nameID.getValue()).thenReturn(subjectName);
+      when(subject.getNameID()).thenReturn(nameID);
+      when(samlAssertion.getSubject()).thenReturn(subject);
+    }
+
+    Assertion assertion = mock(Assertion.class);
+    when(assertion.getWrappedObject()).thenReturn(samlAssertion);
+    return assertion;
+  }
+}
@@ -21,6 +21,7 @@ package ch.admin.bag.vaccination.service.husky.config;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import ch.admin.bag.vaccination.service.config.VaccinationConfig;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -72,6 +73,20 @@ class VaccinationConfigTest {
                 .isEqualTo("1.3.6.1.4.1.12559.11.20.1");
   }
 
+  @Test
+  void communitiesConfig_lookup_caseInsensitiveAndUpdatedWithCommunities() {
+    CommunityConfig community = new CommunityConfig();
+    community.setIdentifier("EPDPLAYGROUND");
+    CommunitiesConfig config = new CommunitiesConfig();
+    config.setCommunities(List.of(community));
+
+    assertThat(config.getCommunityConfig("epdplayground")).isSameAs(community);
+    assertThat(config.getCommunityConfig(null)).isNull();
+
+    config.setCommunities(List.of());
+    assertThat(config.getCommunityConfig("EPDPLAYGROUND")).isNull();
+  }
+
   @Test
   void repositoryConfig() {
     assertThat(